@@ -28,7 +28,8 @@ public class Main {
         lexer.run();
         lexer.dumpTokens(FilePathConfig.TOKEN_PATH);
         final var tokens = lexer.getTokens();
-        symbolTable.dumpTable(FilePathConfig.OLD_SYMBOL_TABLE);
+        // 词法分析后的符号表快照在后台输出, 不阻塞之后的各阶段
+        final var oldSymbolTableDump = symbolTable.snapshot().dumpTableAsync(FilePathConfig.OLD_SYMBOL_TABLE);
 
         // 读取第三方程序构造的 LR 分析表
         final var tableLoader = new TableLoader();
@@ -37,12 +38,23 @@ public class Main {
         // // 或使用框架自带部分直接从 grammar.txt 构造 LR 分析表
         // final var tableGenerator = new TableGenerator();
         // tableGenerator.run();
+        // tableGenerator.dumpItems();
         // final var lrTable = tableGenerator.getTable();
         // lrTable.dumpTable("data/out/lrTable.csv");
 
+        // // 也可以将分析表生成为 Java 源代码, 编译进项目后用生成的分析器代替 SyntaxAnalyzer, 运行时不再需要读取分析表
+        // new ParserGenerator(lrTable).dumpSource(
+        //     "src/cn/edu/hitsz/compiler/parser/Lr1Parser.java", "cn.edu.hitsz.compiler.parser", "Lr1Parser");
+
+        // // 可以让驱动程序把 E -> A, A -> B 这样的单位产生式规约链融合为一步, 观察者收到的规约不变
+        // lrTable.fuseUnitChains();
+
         // 加载 LR 分析驱动程序
         final var parser = new SyntaxAnalyzer(symbolTable);
         parser.loadTokens(tokens);
+        // // 也可以不预先执行词法分析, 让驱动程序按需扫描源文件并丢弃已移入的词法单元, 内存占用与文件大小无关;
+        // // 这只对 run() 成立, runPipelined() 与 runParallel() 会先把它扫描到底
+        // parser.loadTokens(lexer.getTokenStream());
         parser.loadLRTable(lrTable);
 
         // 加入生成规约列表的 Observer
@@ -57,23 +69,38 @@ public class Main {
         final var irGenerator = new IRGenerator();
         parser.registerObserver(irGenerator);
 
+        // // 需要完整的具体语法树时可以加入 CstBuilder, 结点存放在可以重复使用的 CstArena 的平行数组中
+        // parser.registerObserver(new CstBuilder(new CstArena()));
+        // // 想知道哪些状态, 产生式与词法单元类型占据了分析时间时, 可以加入 ParserProfiler
+        // final var profiler = new ParserProfiler();
+        // parser.registerObserver(profiler);
+
         // 执行语法解析并在解析过程中依次调用各 Observer
         parser.run();
+        // // 也可以让各 Observer 在各自的线程上依次处理解析事件, 输出不变, 耗时接近最慢的一个 Observer;
+        // // 此时按需扫描的词法单元流会在 Observer 启动前先扫描到底, 不再节省内存
+        // parser.runPipelined();
+        // // 或者在分号处切分语句列表, 在线程池上并行分析各分块, 输出不变
+        // parser.runParallel(java.util.concurrent.ForkJoinPool.commonPool());
 
         // 各 Observer 输出结果
         productionCollector.dumpToFile(FilePathConfig.PARSER_PATH);
         symbolTable.dumpTable(FilePathConfig.NEW_SYMBOL_TABLE);
         final var instructions = irGenerator.getIR();
         irGenerator.dumpIR(FilePathConfig.INTERMEDIATE_CODE_PATH);
+        // profiler.dumpReport("data/out/parser_profile.txt");
+        // profiler.dumpHeatmap("data/out/parser_heatmap.csv", lrTable);
 
         // 模拟执行 IR 并输出结果
         final var emulator = IREmulator.load(instructions);
         FileUtils.writeFile(FilePathConfig.EMULATE_RESULT, emulator.execute().map(Objects::toString).orElse("No return value"));
 
         // 由 IR 生成汇编
-        final var asmGenerator = new AssemblyGenerator();
+        final var asmGenerator = new AssemblyGenerator(symbolTable);
         asmGenerator.loadIR(instructions);
         asmGenerator.run();
         asmGenerator.dump(FilePathConfig.ASSEMBLY_LANGUAGE_PATH);
+
+        oldSymbolTableDump.join();
     }
 }
@@ -5,6 +5,8 @@ import cn.edu.hitsz.compiler.ir.IRImmediate;
 import cn.edu.hitsz.compiler.ir.IRValue;
 import cn.edu.hitsz.compiler.ir.IRVariable;
 import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 
 import java.util.ArrayList;
@@ -28,7 +30,11 @@ import java.util.Map;
  * @see AssemblyGenerator#run() 代码生成与寄存器分配
  */
 public class AssemblyGenerator {
-    public AssemblyGenerator() {
+    /**
+     * @param symbolTable 本次编译的符号表, 改写指令时引入的临时变量从其驻留表中分配 ID 与编号
+     */
+    public AssemblyGenerator(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
         for (int i = 0; i <= 6; i ++) {
             registers.put(i, false);
         }
@@ -62,10 +68,15 @@ public class AssemblyGenerator {
         }
     };
 
+    private final SymbolTable symbolTable;
+
     // for register renaming
     // register coding: 0-6 [t0-t6]; register info: refcnt, occupied variable
     Map<Integer, Boolean> registers = new HashMap<>();
-    Map<IRVariable, RegisterInfo> variables = new HashMap<>();
+    // indexed by IRVariable id
+    RegisterInfo[] variables = new RegisterInfo[0];
+    // variables referenced by the instruction being generated
+    List<RegisterInfo> referenced = new ArrayList<>();
     List<Instruction> itrs = new ArrayList<>();
     List<String> asm = new ArrayList<>();
 
@@ -101,7 +112,7 @@ public class AssemblyGenerator {
                         itrs.add(Instruction.createMov(itr.getResult(), IRImmediate.of(Integer.parseInt(itr.getLHS().toString()) - Integer.parseInt(itr.getRHS().toString()))));
                     } else if (itr.getLHS().isImmediate()) {
                         // change to a two-register calculation
-                        IRVariable t = IRVariable.temp();
+                        IRVariable t = IRVariable.temp(symbolTable.getInterner());
                         itrs.add(Instruction.createMov(t, itr.getLHS()));
                         itrs.add(Instruction.createSub(itr.getResult(), t, itr.getRHS()));
                     } else{
@@ -114,11 +125,11 @@ public class AssemblyGenerator {
                     } else if (itr.getLHS().isImmediate() || itr.getRHS().isImmediate()) {
                         // change to a three-register calculation
                         if (itr.getLHS().isImmediate()) {
-                            IRVariable t = IRVariable.temp();
+                            IRVariable t = IRVariable.temp(symbolTable.getInterner());
                             itrs.add(Instruction.createMov(t, itr.getLHS()));
                             itrs.add(Instruction.createMul(itr.getResult(), t, itr.getRHS()));
                         } else {
-                            IRVariable t = IRVariable.temp();
+                            IRVariable t = IRVariable.temp(symbolTable.getInterner());
                             itrs.add(Instruction.createMov(t, itr.getRHS()));
                             itrs.add(Instruction.createMul(itr.getResult(), itr.getLHS(), t));
                         }
@@ -134,53 +145,30 @@ public class AssemblyGenerator {
             }
         }
 
-        // record the variable refcnt info
+        // record the variable refcnt info, indexed by the ids that actually appear in the IR
+        variables = new RegisterInfo[maxVariableId() + 1];
         for (Instruction itr : itrs) {
             switch (itr.getKind()) {
                 case MOV:
-                    if (variables.containsKey(itr.getResult())) {
-                        variables.get(itr.getResult()).IncreaseRefcnt();
-                    } else {
-                        variables.put(itr.getResult(), new RegisterInfo());
-                    }
+                    recordReference(itr.getResult());
                     if (itr.getFrom().isIRVariable()) {
-                        if (variables.containsKey(itr.getFrom())) {
-                            variables.get(itr.getFrom()).IncreaseRefcnt();
-                        } else {
-                            variables.put((IRVariable) (itr.getFrom()), new RegisterInfo());
-                        }
+                        recordReference(itr.getFrom());
                     }
                     break;
                 case RET:
                     if (itr.getReturnValue().isIRVariable()) {
-                        if (variables.containsKey(itr.getReturnValue())) {
-                            variables.get(itr.getReturnValue()).IncreaseRefcnt();
-                        } else {
-                            variables.put((IRVariable) itr.getReturnValue(), new RegisterInfo());
-                        }
+                        recordReference(itr.getReturnValue());
                     }
                     break;
                 case ADD:
                 case SUB:
                 case MUL:
-                    if (variables.containsKey(itr.getResult())) {
-                        variables.get(itr.getResult()).IncreaseRefcnt();
-                    } else {
-                        variables.put(itr.getResult(), new RegisterInfo());
-                    }
+                    recordReference(itr.getResult());
                     if (itr.getLHS().isIRVariable()) {
-                        if (variables.containsKey(itr.getLHS())) {
-                            variables.get(itr.getLHS()).IncreaseRefcnt();
-                        } else {
-                            variables.put((IRVariable) itr.getLHS(), new RegisterInfo());
-                        }
+                        recordReference(itr.getLHS());
                     }
                     if (itr.getRHS().isIRVariable()) {
-                        if (variables.containsKey(itr.getRHS())) {
-                            variables.get(itr.getRHS()).IncreaseRefcnt();
-                        } else {
-                            variables.put((IRVariable) itr.getRHS(), new RegisterInfo());
-                        }
+                        recordReference(itr.getRHS());
                     }
                     break;
                 default:
@@ -267,19 +255,47 @@ public class AssemblyGenerator {
         }
     }
 
+    private int maxVariableId() {
+        int max = -1;
+        for (Instruction itr : itrs) {
+            for (IRValue operand : itr.getOperands()) {
+                if (operand.isIRVariable()) {
+                    max = Math.max(max, ((IRVariable) operand).getId());
+                }
+            }
+            if (itr.getKind() != InstructionKind.RET) {
+                max = Math.max(max, itr.getResult().getId());
+            }
+        }
+        return max;
+    }
+
+    private void recordReference(IRValue value) {
+        int id = ((IRVariable) value).getId();
+        if (variables[id] != null) {
+            variables[id].IncreaseRefcnt();
+        } else {
+            variables[id] = new RegisterInfo();
+        }
+    }
+
+    // only the variables referenced by the current instruction can drop to zero refcnt
     private void proccessInvalid() {
-        for (Map.Entry<IRVariable, RegisterInfo> en : variables.entrySet()) {
-            if (en.getValue().getRefcnt() == 0 && en.getValue().getRegisterNo() != Integer.MAX_VALUE) {
-                registers.put(en.getValue().registerNo, false); // release
-                en.getValue().setRegisterNo(Integer.MAX_VALUE);
+        for (RegisterInfo info : referenced) {
+            if (info.getRefcnt() == 0 && info.getRegisterNo() != Integer.MAX_VALUE) {
+                registers.put(info.registerNo, false); // release
+                info.setRegisterNo(Integer.MAX_VALUE);
             }
         }
+        referenced.clear();
     }
 
     private int getRegister(IRValue result) {
-        int registerNo = variables.get(result).getRegisterNo();
+        RegisterInfo info = variables[((IRVariable) result).getId()];
+        referenced.add(info);
+        int registerNo = info.getRegisterNo();
         if (registerNo != Integer.MAX_VALUE) {
-            variables.get(result).DecreaseRefcnt();
+            info.DecreaseRefcnt();
             return registerNo;
         }
 
@@ -287,14 +303,14 @@ public class AssemblyGenerator {
         for (Map.Entry<Integer, Boolean> en : registers.entrySet()) {
             if (en.getValue())  continue; // is occupied
             registerNo = en.getKey();
-            variables.get(result).setRegisterNo(en.getKey());
+            info.setRegisterNo(en.getKey());
             break;
         }
 
         if (registerNo == Integer.MAX_VALUE)
             throw new RuntimeException();
         registers.put(registerNo, true);
-        variables.get(result).DecreaseRefcnt();
+        info.DecreaseRefcnt();
         return registerNo;
     }
 
@@ -1,35 +1,86 @@
 package cn.edu.hitsz.compiler.ir;
 
+import cn.edu.hitsz.compiler.symtab.SymbolInterner;
+
 /**
  * IR 中的 "变量"
  * <br>
  * 我们允许 IR 中的变量保存一些有关源语言的信息 -- 比如它在源语言里对应的是具体的源语言变量还是源语言中的临时变量. 这些信息用一个字符串
  * name 来表示. 临时变量的 name 都是 "$[0-9]+", 而非临时变量的 name 都是 "[a-zA-Z_][a-zA-Z0-9_]*"
  * <br>
- * IR 变量的等价性由 name 唯一确定.
+ * 每个 IR 变量都有一个来自本次编译的符号表的 {@link SymbolInterner} 的 ID: 具体变量的 ID 即其标识符的符号 ID, 临时变量则分配一个新的 ID,
+ * 其编号为该驻留表中已分配的临时变量个数. IR 变量的等价性由 ID 唯一确定, 后端可以直接以 ID 为下标访问数组而不需要哈希变量名;
+ * 因此只应比较来自同一次编译的变量.
  */
 public class IRVariable implements IRValue {
     /**
-     * @param name 源语言中变量的名字
+     * @param interner 本次编译的驻留表
+     * @param name     源语言中变量的名字
      * @return 一个对应于源语言中具体变量的 IRVariable
      */
-    public static IRVariable named(String name) {
-        return new IRVariable(name);
+    public static IRVariable named(SymbolInterner interner, String name) {
+        return new IRVariable(interner, interner.intern(name), name, false);
+    }
+
+    /**
+     * @param interner 本次编译的驻留表
+     * @param symbol   源语言中变量在该驻留表中的符号 ID
+     * @return 一个对应于源语言中具体变量的 IRVariable, 其名字在需要时才从驻留表中取出
+     */
+    public static IRVariable named(SymbolInterner interner, int symbol) {
+        return new IRVariable(interner, symbol, null, false);
     }
 
     /**
+     * @param interner 本次编译的驻留表
      * @return 一个对应于源语言中的临时变量的新 IRVariable
      */
-    public static IRVariable temp() {
-        return new IRVariable("$" + count++);
+    public static IRVariable temp(SymbolInterner interner) {
+        final var temp = pendingTemp();
+        temp.assignTemp(interner);
+        return temp;
+    }
+
+    /**
+     * 分块并行生成 IR 时, 各分块内部使用的临时变量. 它还没有 ID 与编号, 因而可以在工作线程上构造;
+     * 合并分块时再按创建的顺序对其调用 {@link #assignTemp}, 使之与顺序生成时得到的临时变量完全相同
+     *
+     * @return 尚未分配的临时变量
+     */
+    public static IRVariable pendingTemp() {
+        return new IRVariable(null, PENDING, "$?", true);
+    }
+
+    /**
+     * 为 {@link #pendingTemp()} 构造的临时变量分配 ID 与编号, 结果与此时调用 {@link #temp} 得到的相同.
+     * 已经引用了它的指令无需改动
+     *
+     * @param interner 本次编译的驻留表
+     */
+    public void assignTemp(SymbolInterner interner) {
+        if (id != PENDING) {
+            throw new RuntimeException("Temp has already been assigned: " + this);
+        }
+        name = "$" + interner.freshCount();
+        id = interner.fresh();
     }
 
     public String getName() {
+        if (name == null) {
+            name = interner.name(id);
+        }
         return name;
     }
 
+    /**
+     * @return 变量的 ID, 小于本次编译的驻留表的 {@link SymbolInterner#size()}
+     */
+    public int getId() {
+        return id;
+    }
+
     public boolean isTemp() {
-        return name.startsWith("$");
+        return temp;
     }
 
     public boolean isNamed() {
@@ -38,23 +89,45 @@ public class IRVariable implements IRValue {
 
     @Override
     public String toString() {
-        return name;
+        return getName();
     }
 
+    /**
+     * 尚未分配的临时变量还没有 ID, 只与自身等价
+     */
     @Override
     public boolean equals(Object obj) {
-        return obj instanceof IRVariable reg && name.equals(reg.name);
+        if (id == PENDING || (obj instanceof IRVariable reg && reg.id == PENDING)) {
+            return this == obj;
+        }
+        return obj instanceof IRVariable reg && id == reg.id;
     }
 
+    /**
+     * 哈希值即 ID, 在分配时会改变, 所以尚未分配的临时变量不能放入哈希表
+     *
+     * @throws RuntimeException 该变量是尚未分配的临时变量
+     */
     @Override
     public int hashCode() {
-        return name.hashCode();
+        if (id == PENDING) {
+            throw new RuntimeException("Temp has not been assigned yet and cannot be hashed");
+        }
+        return id;
     }
 
-    private IRVariable(String name) {
+    private IRVariable(SymbolInterner interner, int id, String name, boolean temp) {
+        this.interner = interner;
+        this.id = id;
         this.name = name;
+        this.temp = temp;
     }
 
-    private final String name;
-    private static int count = 0;
+    // 只有尚未分配的临时变量会在分配时改变 ID
+    private int id;
+    private String name;
+    private final boolean temp;
+    // 具体变量用于按需取出名字, 临时变量在构造时便有名字, 为 null
+    private final SymbolInterner interner;
+    private static final int PENDING = -1;
 }
@@ -0,0 +1,238 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import cn.edu.hitsz.compiler.symtab.ConcurrentSymbolTable;
+import cn.edu.hitsz.compiler.symtab.SourceCodeType;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+import cn.edu.hitsz.compiler.utils.FilePathConfig;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link ConcurrentSymbolTable} 的并发正确性检查与竞争基准测试, 以 main 方法运行, 任何一项检查失败都会抛出异常
+ * <br>
+ * 第一部分让若干个词法分析器同时扫描各自的源文件进同一个并发符号表, 各文件的标识符集合两两重叠. 检查各线程没有抛出异常,
+ * 每个词法分析器得到的词法单元与在私有符号表中顺序扫描的结果相同, 且所有标识符都出现在共享的符号表中.
+ * <br>
+ * 第二部分以 1 至 64 个线程同时向同一个并发符号表加入两两重叠的标识符集合并设置类型, 输出每种线程数下的耗时.
+ * 每一轮都检查先写者胜的类型设置对每个符号恰好成功一次, 且符号表的输出与单线程顺序加入的结果相同.
+ * <br>
+ * 用法: {@code java cn.edu.hitsz.compiler.lexer.ConcurrentLexerBenchmark [每个线程的标识符个数] [每种线程数的轮数]}
+ */
+public final class ConcurrentLexerBenchmark {
+    public static void main(String[] args) throws Exception {
+        final var symbolsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final var rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        TokenKind.loadTokenKinds();
+        final var dfa = LexerDfa.fromSpec(FilePathConfig.LEXER_SPEC_PATH);
+
+        checkParallelLexers(dfa, LEXER_THREADS, symbolsPerThread);
+        System.out.printf("%d lexers sharing one table: ok%n", LEXER_THREADS);
+
+        System.out.printf("%8s %12s %12s%n", "threads", "best ms", "ns/insert");
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            var best = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                best = Math.min(best, runContention(threads, symbolsPerThread));
+            }
+            final var inserts = (long) threads * symbolsPerThread * 2;
+            System.out.printf("%8d %12.2f %12.1f%n", threads, best / 1e6, (double) best / inserts);
+        }
+    }
+
+    /**
+     * 多个词法分析器同时扫描进同一个并发符号表
+     */
+    private static void checkParallelLexers(LexerDfa dfa, int threads, int symbolsPerThread) throws Exception {
+        final var files = new ArrayList<Path>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                final var file = Files.createTempFile("lexer-race-", ".txt");
+                files.add(file);
+                Files.writeString(file, sourceOf(t, symbolsPerThread), StandardCharsets.ISO_8859_1);
+            }
+
+            final var shared = new ConcurrentSymbolTable();
+            final var barrier = new CyclicBarrier(threads);
+            final var tasks = new ArrayList<Callable<List<String>>>();
+            for (final var file : files) {
+                tasks.add(() -> {
+                    final var lexer = new LexicalAnalyzer(shared, dfa);
+                    lexer.loadFile(file.toString());
+                    barrier.await();
+                    lexer.run();
+                    return dump(lexer.getTokens());
+                });
+            }
+
+            final var results = invokeAll(threads, tasks);
+            for (int t = 0; t < threads; t++) {
+                final var lexer = new LexicalAnalyzer(new SymbolTable(), dfa);
+                lexer.loadFile(files.get(t).toString());
+                lexer.run();
+                if (!dump(lexer.getTokens()).equals(results.get(t))) {
+                    throw new RuntimeException("Tokens of lexer " + t + " differ from a sequential scan");
+                }
+            }
+
+            final var expected = new TreeSet<String>();
+            for (int t = 0; t < threads; t++) {
+                for (int i = 0; i < symbolsPerThread; i++) {
+                    expected.add(nameOf(t, i, symbolsPerThread));
+                }
+            }
+            checkNames(shared, expected);
+        } finally {
+            for (final var file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * 各线程同时以源文件字节与文本两种方式加入各自的标识符集合并设置类型
+     *
+     * @return 本轮的耗时, 单位为纳秒
+     */
+    private static long runContention(int threads, int symbolsPerThread) throws Exception {
+        final var sources = new ArrayList<ByteBuffer>();
+        final var offsets = new ArrayList<int[]>();
+        for (int t = 0; t < threads; t++) {
+            final var text = new StringBuilder();
+            final var bounds = new int[symbolsPerThread + 1];
+            for (int i = 0; i < symbolsPerThread; i++) {
+                bounds[i] = text.length();
+                text.append(nameOf(t, i, symbolsPerThread));
+            }
+            bounds[symbolsPerThread] = text.length();
+            sources.add(ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.ISO_8859_1)));
+            offsets.add(bounds);
+        }
+
+        final var table = new ConcurrentSymbolTable();
+        final var typed = new AtomicInteger();
+        final var barrier = new CyclicBarrier(threads + 1);
+        final var tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < threads; t++) {
+            final var thread = t;
+            tasks.add(() -> {
+                final var source = sources.get(thread);
+                final var bounds = offsets.get(thread);
+                barrier.await();
+                for (int i = 0; i < symbolsPerThread; i++) {
+                    final var id = table.intern(source, bounds[i], bounds[i + 1]);
+                    if (table.get(id).trySetType(SourceCodeType.Int)) {
+                        typed.incrementAndGet();
+                    }
+                    table.add(nameOf(thread, (i + symbolsPerThread / 2) % symbolsPerThread, symbolsPerThread));
+                }
+                return null;
+            });
+        }
+
+        final long elapsed;
+        try (final var executor = new ClosableExecutor(Executors.newFixedThreadPool(threads))) {
+            final var futures = new ArrayList<Future<Void>>();
+            for (final var task : tasks) {
+                futures.add(executor.pool().submit(task));
+            }
+            barrier.await();
+            final var start = System.nanoTime();
+            for (final var future : futures) {
+                future.get();
+            }
+            elapsed = System.nanoTime() - start;
+        }
+
+        final var expected = new TreeSet<String>();
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < symbolsPerThread; i++) {
+                expected.add(nameOf(t, i, symbolsPerThread));
+            }
+        }
+        checkNames(table, expected);
+        if (typed.get() != expected.size()) {
+            throw new RuntimeException("First-writer-wins succeeded " + typed.get() + " times for " + expected.size() + " symbols");
+        }
+        for (final var entry : table.snapshot()) {
+            if (entry.getType() != SourceCodeType.Int) {
+                throw new RuntimeException("Symbol " + entry.getText() + " lost its type");
+            }
+        }
+        return elapsed;
+    }
+
+    /**
+     * 第 t 个线程的第 i 个标识符. 相邻线程的标识符集合有一半重叠, 所以除首尾两段外每个标识符都被两个线程加入
+     */
+    private static String nameOf(int thread, int index, int symbolsPerThread) {
+        return "v" + (thread * (symbolsPerThread / 2) + index);
+    }
+
+    private static String sourceOf(int thread, int symbolsPerThread) {
+        final var source = new StringBuilder();
+        for (int i = 0; i < symbolsPerThread; i++) {
+            final var name = nameOf(thread, i, symbolsPerThread);
+            source.append("int ").append(name).append(";\n").append(name).append(" = ").append(i).append(";\n");
+        }
+        return source.toString();
+    }
+
+    private static List<String> dump(Iterable<Token> tokens) {
+        return StreamSupport.stream(tokens.spliterator(), false).map(Token::toString).toList();
+    }
+
+    /**
+     * 检查符号表的输出恰为给定的标识符集合, 快照按文本排序, 所以与 TreeSet 的顺序一致
+     */
+    private static void checkNames(SymbolTable table, TreeSet<String> expected) {
+        if (table.size() != expected.size()) {
+            throw new RuntimeException("Expected " + expected.size() + " symbols but found " + table.size());
+        }
+
+        final var names = new ArrayList<String>();
+        table.snapshot().forEach(entry -> names.add(entry.getText()));
+        if (!names.equals(new ArrayList<>(expected))) {
+            throw new RuntimeException("Symbol table dump differs from a sequential insertion");
+        }
+    }
+
+    private static <T> List<T> invokeAll(int threads, List<Callable<T>> tasks) throws Exception {
+        try (final var executor = new ClosableExecutor(Executors.newFixedThreadPool(threads))) {
+            final var results = new ArrayList<T>();
+            for (final var future : executor.pool().invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        }
+    }
+
+    /**
+     * JDK 17 的 ExecutorService 还不是 AutoCloseable
+     */
+    private record ClosableExecutor(ExecutorService pool) implements AutoCloseable {
+        @Override
+        public void close() {
+            pool.shutdownNow();
+        }
+    }
+
+    private static final int LEXER_THREADS = 4;
+    private static final int MAX_THREADS = 64;
+
+    private ConcurrentLexerBenchmark() {
+    }
+}
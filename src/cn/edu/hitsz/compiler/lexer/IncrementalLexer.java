@@ -0,0 +1,541 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import cn.edu.hitsz.compiler.symtab.SymbolInterner;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 增量词法分析器, 用于编辑器中每次按键后只对被编辑的附近区域重新扫描
+ * <br>
+ * 源文件与词法单元都存放在间隙缓冲区 (gap buffer) 中: 间隙总是位于最近一次编辑的位置, 所以在附近进行的编辑只需要移动很少的数据.
+ * 位于词法单元间隙之后的词法单元记录的是相对于文件末尾的位置, 因此在它们之前插入或删除文本时不需要修改它们.
+ * <br>
+ * 每次编辑时, 从编辑位置之前最后一个完整的词法单元的结尾开始重新扫描, 直到新扫描出的词法单元的起始位置与某个未受编辑影响的旧词法单元
+ * 重合为止 -- 从同一位置开始扫描同样的后缀必然得到同样的结果, 所以之后的词法单元都可以原样保留. 重新扫描的范围只与编辑附近的
+ * 词法单元有关, 而与文件大小无关.
+ * <br>
+ * 分析器同时以符号 ID 为下标维护每个标识符在源文件中出现的次数, 在标识符第一次出现时将其加入符号表, 在其不再出现时将其从符号表中删除.
+ * 这里的符号表与驻留表是分析器自己的, 输入过程中产生的前缀 (依次键入 a, ab, abc) 不会进入编译所用的驻留表;
+ * 驻留表中不再出现的标识符多于仍出现的标识符时, 分析器只保留仍出现的标识符重建驻留表, 所以其大小与编辑的次数无关.
+ * <br>
+ * 构造时传入的符号表只在 {@link #syncSymbols()} 中同步. 分析器记录上次同步之后从出现变为不出现或从不出现变为出现的标识符,
+ * 同步时只处理这些标识符, 耗时与两次同步之间的改动有关, 而与文件大小无关. 两次同步之间出现又消失的标识符不会进入传入的符号表.
+ */
+public class IncrementalLexer {
+    /**
+     * 一次编辑对词法单元序列的影响
+     *
+     * @param firstToken     第一个被替换的词法单元的下标
+     * @param removedTokens  被删除的旧词法单元个数
+     * @param insertedTokens 新插入的词法单元个数
+     */
+    public record Splice(int firstToken, int removedTokens, int insertedTokens) {
+    }
+
+    IncrementalLexer(LexerDfa dfa, SymbolTable symbolTable, TokenBuffer previous) {
+        this.dfa = dfa;
+        this.symbolTable = symbolTable;
+
+        final var source = previous.source();
+        final var length = source.limit();
+        text = new byte[length + MIN_GAP];
+        source.get(0, text, 0, length);
+        gapStart = length;
+        gapEnd = text.length;
+
+        // 不保存末尾的 EOF, 它在 tokens() 中重新加入
+        final var count = previous.size() - 1;
+        final var capacity = count + MIN_GAP;
+        kinds = new int[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        symbols = new int[capacity];
+        // 以传入的符号表的驻留表中的 ID 为下标, 记录同一标识符在本地驻留表中的 ID
+        final var local = new int[symbolTable.getInterner().size()];
+        Arrays.fill(local, SymbolInterner.NOT_FOUND);
+        for (int i = 0; i < count; i++) {
+            kinds[i] = previous.kind(i);
+            starts[i] = previous.start(i);
+            lengths[i] = previous.length(i);
+            symbols[i] = SymbolInterner.NOT_FOUND;
+
+            final var symbol = previous.symbol(i);
+            if (symbol != SymbolInterner.NOT_FOUND) {
+                if (local[symbol] == SymbolInterner.NOT_FOUND) {
+                    local[symbol] = interner.intern(source, starts[i], starts[i] + lengths[i]);
+                    localTable.add(local[symbol]);
+                }
+                symbols[i] = local[symbol];
+                growSymbols(symbols[i]);
+                occurrences[symbols[i]]++;
+            }
+        }
+        tokenGapStart = count;
+        tokenGapEnd = capacity;
+
+        // 这些标识符已由词法分析加入传入的符号表
+        for (int symbol = 0; symbol < local.length; symbol++) {
+            if (local[symbol] != SymbolInterner.NOT_FOUND) {
+                exported[local[symbol]] = symbol;
+            }
+        }
+    }
+
+    /**
+     * 对源文件进行一次编辑, 并增量地更新词法单元与分析器自己的符号表. 构造时传入的符号表不在此时修改,
+     * 而是在 {@link #syncSymbols()} 中同步
+     *
+     * @param offset        编辑的起始位置
+     * @param removedLength 被删除的文本长度
+     * @param inserted      插入的文本
+     * @return 本次编辑对词法单元序列的影响
+     */
+    public Splice edit(int offset, int removedLength, String inserted) {
+        if (offset < 0 || removedLength < 0 || offset + removedLength > documentLength()) {
+            throw new IndexOutOfBoundsException("Illegal edit [%d, %d) on document of length %d"
+                .formatted(offset, offset + removedLength, documentLength()));
+        }
+
+        final var insertedBytes = inserted.getBytes(StandardCharsets.ISO_8859_1);
+        touchedCount = 0;
+
+        // 1. 找到重新扫描的起点: 结尾严格位于编辑位置之前的最后一个词法单元. 结尾恰好等于编辑位置的词法单元有可能被插入的文本延长
+        //    若词法单元可能需要多于一个字符的向前看, 则无法确定安全的起点, 只能从头扫描
+        final var restartToken = dfa.hasUnitLookahead() ? lastTokenEndingBefore(offset) : -1;
+        final var restartPos = restartToken < 0 ? 0 : tokenStart(restartToken) + tokenLength(restartToken);
+        final var firstToken = restartToken + 1;
+        moveTokenGap(firstToken);
+
+        // 2. 删除所有与编辑区域相交的旧词法单元
+        var removedTokens = 0;
+        while (tokenGapEnd < kinds.length && oldTokenStart(tokenGapEnd) < offset + removedLength) {
+            removedTokens += dropOldToken();
+        }
+
+        // 3. 修改文本
+        moveGap(offset);
+        gapEnd += removedLength;
+        ensureGap(insertedBytes.length);
+        System.arraycopy(insertedBytes, 0, text, gapStart, insertedBytes.length);
+        gapStart += insertedBytes.length;
+
+        // 4. 从起点开始重新扫描, 直到与未受影响的旧词法单元重新同步
+        final var editEnd = offset + insertedBytes.length;
+        var insertedTokens = 0;
+        var windowSize = Math.max(MIN_WINDOW, editEnd - restartPos + MIN_WINDOW);
+        var pos = restartPos;
+        scan:
+        while (true) {
+            final var window = window(pos, windowSize);
+            final var windowEnd = pos + window.limit();
+            final var atDocumentEnd = windowEnd == documentLength();
+            var local = 0;
+
+            while (true) {
+                if (local == window.limit()) {
+                    if (atDocumentEnd) {
+                        // 文件末尾之后的旧词法单元全部失效
+                        while (tokenGapEnd < kinds.length) {
+                            removedTokens += dropOldToken();
+                        }
+                        break scan;
+                    }
+                    pos = windowEnd;
+                    continue scan;
+                }
+
+                final var match = dfa.match(window, local, window.limit());
+                if (match == LexerDfa.NO_MATCH) {
+                    local++;
+                    continue;
+                }
+
+                final var end = LexerDfa.endOf(match);
+                if (end == window.limit() && !atDocumentEnd) {
+                    // 匹配到了窗口末尾, 词法单元可能还没有结束, 扩大窗口重新扫描
+                    pos += local;
+                    windowSize *= 2;
+                    continue scan;
+                }
+
+                final var code = LexerDfa.codeOf(match);
+                final var start = pos + local;
+                local = end;
+                if (code == LexerDfa.SKIP) {
+                    continue;
+                }
+
+                while (tokenGapEnd < kinds.length && oldTokenStart(tokenGapEnd) < start) {
+                    removedTokens += dropOldToken();
+                }
+                if (start >= editEnd && tokenGapEnd < kinds.length && oldTokenStart(tokenGapEnd) == start) {
+                    break scan;
+                }
+
+                var kind = code;
+                var symbol = SymbolInterner.NOT_FOUND;
+                if (code == dfa.identifierCode()) {
+                    final var keyword = dfa.keywordCode(window, start - pos, end);
+                    if (keyword != LexerDfa.NONE) {
+                        kind = keyword;
+                    } else {
+                        symbol = interner.intern(window, start - pos, end);
+                        countOccurrence(symbol, 1);
+                    }
+                }
+                insertToken(kind, start, end - (start - pos), symbol);
+                insertedTokens++;
+            }
+        }
+
+        updateSymbolTable();
+        return new Splice(firstToken, removedTokens, insertedTokens);
+    }
+
+    /**
+     * 把上次同步之后的改动同步到构造时传入的符号表: 加入新出现的标识符, 删除不再出现的标识符.
+     * 只处理上次同步之后出现与否发生过变化的标识符, 耗时与文件大小无关
+     */
+    public void syncSymbols() {
+        for (int i = 0; i < pendingCount; i++) {
+            final var symbol = pending[i];
+            pendingMarks[symbol] = false;
+            if (occurrences[symbol] > 0 && exported[symbol] == SymbolInterner.NOT_FOUND) {
+                final var text = interner.name(symbol).getBytes(StandardCharsets.ISO_8859_1);
+                exported[symbol] = symbolTable.intern(ByteBuffer.wrap(text), 0, text.length);
+            } else if (occurrences[symbol] == 0 && exported[symbol] != SymbolInterner.NOT_FOUND) {
+                symbolTable.remove(exported[symbol]);
+                exported[symbol] = SymbolInterner.NOT_FOUND;
+            }
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * 获得当前所有词法单元的紧凑拷贝, 供语法分析等后续步骤使用. 拷贝前先调用 {@link #syncSymbols()},
+     * 使其中的符号 ID 都在构造时传入的符号表中. 此操作需要复制整个文件, 耗时与文件大小成正比
+     *
+     * @return 词法单元缓冲区, 末尾含 EOF, 其中的符号 ID 来自构造时传入的符号表的驻留表
+     */
+    public TokenBuffer tokens() {
+        syncSymbols();
+        final var length = documentLength();
+        final var compact = new byte[length];
+        System.arraycopy(text, 0, compact, 0, gapStart);
+        System.arraycopy(text, gapEnd, compact, gapStart, text.length - gapEnd);
+
+        final var buffer = new TokenBuffer(ByteBuffer.wrap(compact), dfa.textualKinds());
+        final var count = tokenCount();
+        for (int i = 0; i < count; i++) {
+            final var physical = physicalIndex(i);
+            final var symbol = symbols[physical];
+            buffer.add(kinds[physical], tokenStart(i), lengths[physical],
+                symbol == SymbolInterner.NOT_FOUND ? SymbolInterner.NOT_FOUND : exported[symbol]);
+        }
+        buffer.add(TokenKind.eof().getCode(), length, 0, SymbolInterner.NOT_FOUND);
+        return buffer;
+    }
+
+    /**
+     * @return 当前的词法单元个数, 不含 EOF
+     */
+    public int tokenCount() {
+        return tokenGapStart + (kinds.length - tokenGapEnd);
+    }
+
+    /**
+     * @return 当前源文件的长度
+     */
+    public int documentLength() {
+        return text.length - (gapEnd - gapStart);
+    }
+
+    //==================== 以下为间隙缓冲区相关代码 ==============================//
+
+    private int tokenStart(int index) {
+        return index < tokenGapStart ? starts[index] : oldTokenStart(physicalIndex(index));
+    }
+
+    private int tokenLength(int index) {
+        return lengths[physicalIndex(index)];
+    }
+
+    private int physicalIndex(int index) {
+        return index < tokenGapStart ? index : index + (tokenGapEnd - tokenGapStart);
+    }
+
+    /**
+     * @param physical 词法单元间隙之后的物理下标
+     * @return 该词法单元在当前文本中的起始位置
+     */
+    private int oldTokenStart(int physical) {
+        return starts[physical] + documentLength();
+    }
+
+    private int lastTokenEndingBefore(int offset) {
+        var low = 0;
+        var high = tokenCount() - 1;
+        var result = -1;
+        while (low <= high) {
+            final var mid = (low + high) >>> 1;
+            if (tokenStart(mid) + tokenLength(mid) < offset) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    private void moveTokenGap(int index) {
+        final var documentLength = documentLength();
+        while (tokenGapStart > index) {
+            // 移到间隙之后的词法单元改为记录相对于文件末尾的位置
+            tokenGapStart--;
+            tokenGapEnd--;
+            kinds[tokenGapEnd] = kinds[tokenGapStart];
+            starts[tokenGapEnd] = starts[tokenGapStart] - documentLength;
+            lengths[tokenGapEnd] = lengths[tokenGapStart];
+            symbols[tokenGapEnd] = symbols[tokenGapStart];
+        }
+        while (tokenGapStart < index) {
+            kinds[tokenGapStart] = kinds[tokenGapEnd];
+            starts[tokenGapStart] = starts[tokenGapEnd] + documentLength;
+            lengths[tokenGapStart] = lengths[tokenGapEnd];
+            symbols[tokenGapStart] = symbols[tokenGapEnd];
+            tokenGapStart++;
+            tokenGapEnd++;
+        }
+    }
+
+    private void insertToken(int kind, int start, int length, int symbol) {
+        if (tokenGapStart == tokenGapEnd) {
+            final var capacity = kinds.length * 2 + MIN_GAP;
+            final var tail = kinds.length - tokenGapEnd;
+            final var newGapEnd = capacity - tail;
+            kinds = grow(kinds, capacity, tail);
+            starts = grow(starts, capacity, tail);
+            lengths = grow(lengths, capacity, tail);
+            symbols = grow(symbols, capacity, tail);
+            tokenGapEnd = newGapEnd;
+        }
+
+        kinds[tokenGapStart] = kind;
+        starts[tokenGapStart] = start;
+        lengths[tokenGapStart] = length;
+        symbols[tokenGapStart] = symbol;
+        tokenGapStart++;
+    }
+
+    private int[] grow(int[] array, int capacity, int tail) {
+        final var grown = Arrays.copyOf(array, capacity);
+        System.arraycopy(array, array.length - tail, grown, capacity - tail, tail);
+        return grown;
+    }
+
+    /**
+     * 删除间隙之后的第一个旧词法单元
+     *
+     * @return 删除的个数, 恒为 1
+     */
+    private int dropOldToken() {
+        if (symbols[tokenGapEnd] != SymbolInterner.NOT_FOUND) {
+            countOccurrence(symbols[tokenGapEnd], -1);
+        }
+        tokenGapEnd++;
+        return 1;
+    }
+
+    private void moveGap(int offset) {
+        if (offset < gapStart) {
+            final var count = gapStart - offset;
+            System.arraycopy(text, offset, text, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (offset > gapStart) {
+            final var count = offset - gapStart;
+            System.arraycopy(text, gapEnd, text, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void ensureGap(int required) {
+        if (gapEnd - gapStart >= required) {
+            return;
+        }
+
+        final var tail = text.length - gapEnd;
+        final var grown = new byte[Math.max(text.length * 2, text.length + required + MIN_GAP)];
+        System.arraycopy(text, 0, grown, 0, gapStart);
+        System.arraycopy(text, gapEnd, grown, grown.length - tail, tail);
+        gapEnd = grown.length - tail;
+        text = grown;
+    }
+
+    private byte byteAt(int pos) {
+        return pos < gapStart ? text[pos] : text[pos + (gapEnd - gapStart)];
+    }
+
+    /**
+     * 将 [pos, pos + size) 范围内的文本拷贝为一段连续的窗口, 以便跨越间隙进行扫描
+     */
+    private ByteBuffer window(int pos, int size) {
+        final var end = Math.min(documentLength(), pos + size);
+        final var bytes = new byte[end - pos];
+        for (int i = pos; i < end; i++) {
+            bytes[i - pos] = byteAt(i);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private void countOccurrence(int symbol, int change) {
+        growSymbols(symbol);
+        occurrences[symbol] += change;
+
+        if (touchedCount == touched.length) {
+            touched = Arrays.copyOf(touched, touchedCount * 2);
+        }
+        touched[touchedCount++] = symbol;
+    }
+
+    /**
+     * 使以本地符号 ID 为下标的数组都能容纳该 ID
+     */
+    private void growSymbols(int symbol) {
+        if (symbol >= occurrences.length) {
+            final var capacity = Math.max(symbol + 1, occurrences.length * 2);
+            final var oldLength = exported.length;
+            occurrences = Arrays.copyOf(occurrences, capacity);
+            exported = Arrays.copyOf(exported, capacity);
+            Arrays.fill(exported, oldLength, capacity, SymbolInterner.NOT_FOUND);
+            pendingMarks = Arrays.copyOf(pendingMarks, capacity);
+        }
+    }
+
+    /**
+     * 对本次编辑中出现次数发生变化的标识符, 按其当前是否仍然出现更新本地符号表, 必要时重建本地驻留表.
+     * 出现与否发生变化的标识符留待下一次 {@link #syncSymbols()} 同步
+     */
+    private void updateSymbolTable() {
+        for (int i = 0; i < touchedCount; i++) {
+            final var symbol = touched[i];
+            final var present = localTable.has(symbol);
+            if (occurrences[symbol] == 0 && present) {
+                localTable.remove(symbol);
+                markPending(symbol);
+            } else if (occurrences[symbol] > 0 && !present) {
+                localTable.add(symbol);
+                markPending(symbol);
+            }
+        }
+        touchedCount = 0;
+
+        final var live = localTable.size();
+        if (interner.size() - live > live + MIN_COMPACT) {
+            compact();
+        }
+    }
+
+    private void markPending(int symbol) {
+        if (pendingMarks[symbol]) {
+            return;
+        }
+
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, pendingCount * 2);
+        }
+        pending[pendingCount++] = symbol;
+        pendingMarks[symbol] = true;
+    }
+
+    /**
+     * 只保留仍然出现的标识符, 重建本地驻留表并重新编号所有词法单元的符号 ID.
+     * 每次重建至少丢弃驻留表中一半的 ID, 所以重建的耗时均摊到每次驻留上是常数.
+     * 被丢弃的 ID 不能留到下一次同步, 所以其中已同步到传入的符号表的标识符在此时就从该符号表中删除
+     */
+    private void compact() {
+        var kept = 0;
+        for (int i = 0; i < pendingCount; i++) {
+            final var symbol = pending[i];
+            if (occurrences[symbol] > 0) {
+                pending[kept++] = symbol;
+            } else if (exported[symbol] != SymbolInterner.NOT_FOUND) {
+                symbolTable.remove(exported[symbol]);
+            }
+        }
+        pendingCount = kept;
+
+        final var compacted = new SymbolTable();
+        final var remap = compacted.merge(localTable);
+
+        final var count = tokenCount();
+        for (int i = 0; i < count; i++) {
+            final var physical = physicalIndex(i);
+            if (symbols[physical] != SymbolInterner.NOT_FOUND) {
+                symbols[physical] = remap[symbols[physical]];
+            }
+        }
+
+        final var capacity = compacted.getInterner().size();
+        final var compactedOccurrences = new int[capacity];
+        final var compactedExported = new int[capacity];
+        for (int symbol = 0; symbol < remap.length; symbol++) {
+            if (remap[symbol] != SymbolInterner.NOT_FOUND) {
+                compactedOccurrences[remap[symbol]] = occurrences[symbol];
+                compactedExported[remap[symbol]] = exported[symbol];
+            }
+        }
+
+        pendingMarks = new boolean[capacity];
+        for (int i = 0; i < pendingCount; i++) {
+            pending[i] = remap[pending[i]];
+            pendingMarks[pending[i]] = true;
+        }
+
+        localTable = compacted;
+        interner = compacted.getInterner();
+        occurrences = compactedOccurrences;
+        exported = compactedExported;
+    }
+
+    private static final int MIN_GAP = 64;
+    private static final int MIN_WINDOW = 256;
+    // 驻留表中不再出现的标识符比仍出现的多出此数时才重建
+    private static final int MIN_COMPACT = 1 << 10;
+
+    private final LexerDfa dfa;
+    // 构造时传入的符号表
+    private final SymbolTable symbolTable;
+    // 本地的符号表与驻留表, 只含当前出现的标识符; 驻留表还含有已不再出现的标识符, 直到下一次重建
+    private SymbolTable localTable = new SymbolTable();
+    private SymbolInterner interner = localTable.getInterner();
+
+    // 以本地符号 ID 为下标, 记录每个标识符出现的次数, 上次同步时该标识符在传入的符号表中的 ID, 以及它是否在 pending 中
+    private int[] occurrences = new int[0];
+    private int[] exported = new int[0];
+    private boolean[] pendingMarks = new boolean[0];
+    // 上次同步之后出现与否发生过变化的本地符号 ID
+    private int[] pending = new int[16];
+    private int pendingCount = 0;
+    // 本次编辑中出现次数发生过变化的符号 ID
+    private int[] touched = new int[16];
+    private int touchedCount = 0;
+
+    // 源文件的间隙缓冲区
+    private byte[] text;
+    private int gapStart;
+    private int gapEnd;
+
+    // 词法单元的间隙缓冲区
+    private int[] kinds;
+    private int[] starts;
+    private int[] lengths;
+    private int[] symbols;
+    private int tokenGapStart;
+    private int tokenGapEnd;
+}
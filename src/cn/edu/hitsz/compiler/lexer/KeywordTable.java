@@ -0,0 +1,124 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 关键字的完美哈希表
+ * <br>
+ * 关键字在词法上与标识符相同, 所以 DFA 只负责识别出标识符, 再由此表判断该标识符是否为关键字. 构造时不断尝试哈希种子,
+ * 直到所有关键字落在互不相同的槽中, 因此查找时只需计算一次哈希并比较一次字节, 不需要处理冲突, 也不需要先构造出字符串.
+ * 表中存储的是关键字对应的 TokenKind 码点.
+ */
+final class KeywordTable {
+    /**
+     * 查找失败时的返回值
+     */
+    static final int NOT_FOUND = Integer.MIN_VALUE;
+
+    /**
+     * @param keywords 关键字的 TokenKind, 其标识符即为关键字本身, 不能重复
+     * @return 构造出的完美哈希表
+     */
+    static KeywordTable build(List<TokenKind> keywords) {
+        final var keys = keywords.stream()
+            .map(kind -> kind.getIdentifier().getBytes(StandardCharsets.ISO_8859_1))
+            .toList();
+        // 相同的关键字无论如何都会落在同一个槽中, 不检查的话下面的循环永远不会结束
+        if (keys.stream().map(Arrays::toString).distinct().count() != keys.size()) {
+            throw new RuntimeException("Duplicate keywords: " + keywords);
+        }
+
+        for (int size = Integer.highestOneBit(Math.max(1, keys.size()) * 2 - 1) << 1; ; size <<= 1) {
+            for (int seed = 1; seed <= MAX_SEED_TRIES; seed++) {
+                final var slots = new byte[size][];
+                final var codes = new int[size];
+                Arrays.fill(codes, NOT_FOUND);
+
+                var perfect = true;
+                for (int i = 0; i < keys.size() && perfect; i++) {
+                    final var key = keys.get(i);
+                    final var slot = hash(seed, key, 0, key.length) & (size - 1);
+                    if (slots[slot] != null) {
+                        perfect = false;
+                    } else {
+                        slots[slot] = key;
+                        codes[slot] = keywords.get(i).getCode();
+                    }
+                }
+
+                if (perfect) {
+                    return new KeywordTable(seed, slots, codes);
+                }
+            }
+        }
+    }
+
+    /**
+     * 查找源文件中的一段文本是否为关键字
+     *
+     * @param source 源文件
+     * @param begin  文本起始位置
+     * @param end    文本结束位置 (不含)
+     * @return 关键字的码点; 若不是关键字则返回 {@link #NOT_FOUND}
+     */
+    int lookup(ByteBuffer source, int begin, int end) {
+        final var length = end - begin;
+        if (length < minLength || length > maxLength) {
+            return NOT_FOUND;
+        }
+
+        var h = seed;
+        for (int i = begin; i < end; i++) {
+            h = (h ^ (source.get(i) & 0xff)) * FNV_PRIME;
+        }
+
+        final var slot = finish(h) & mask;
+        final var key = slots[slot];
+        if (key == null || key.length != length) {
+            return NOT_FOUND;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (key[i] != source.get(begin + i)) {
+                return NOT_FOUND;
+            }
+        }
+
+        return codes[slot];
+    }
+
+    private static int hash(int seed, byte[] key, int begin, int end) {
+        var h = seed;
+        for (int i = begin; i < end; i++) {
+            h = (h ^ (key[i] & 0xff)) * FNV_PRIME;
+        }
+
+        return finish(h);
+    }
+
+    private static int finish(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private KeywordTable(int seed, byte[][] slots, int[] codes) {
+        this.seed = seed;
+        this.slots = slots;
+        this.codes = codes;
+        this.mask = slots.length - 1;
+        this.minLength = Arrays.stream(slots).filter(s -> s != null).mapToInt(s -> s.length).min().orElse(Integer.MAX_VALUE);
+        this.maxLength = Arrays.stream(slots).filter(s -> s != null).mapToInt(s -> s.length).max().orElse(-1);
+    }
+
+    private static final int FNV_PRIME = 0x01000193;
+    private static final int MAX_SEED_TRIES = 1 << 12;
+
+    private final int seed;
+    private final byte[][] slots;
+    private final int[] codes;
+    private final int mask;
+    private final int minLength;
+    private final int maxLength;
+}
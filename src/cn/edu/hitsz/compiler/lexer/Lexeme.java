@@ -0,0 +1,51 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 词素: 源文件中一段文本的只读视图
+ * <br>
+ * 视图不复制源文件的内容, 只有在调用 {@link #toString()} 时才会构造出字符串. 源语言只包含 ASCII 字符, 所以每个字节就是一个字符.
+ */
+public final class Lexeme implements CharSequence {
+    Lexeme(ByteBuffer source, int start, int length) {
+        this.source = source;
+        this.start = start;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        return (char) (source.get(start + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("[%d, %d) out of length %d".formatted(start, end, length));
+        }
+
+        return new Lexeme(source, this.start + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        final var bytes = new byte[length];
+        source.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private final ByteBuffer source;
+    private final int start;
+    private final int length;
+}
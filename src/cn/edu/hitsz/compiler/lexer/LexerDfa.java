@@ -0,0 +1,317 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 由词法规则文件 (lexer_spec.txt) 生成的最小化 DFA
+ * <br>
+ * 256 个字节值先被压缩为若干个字符类 (在所有规则看来完全等价的字节属于同一类), 转移表按 {@code 状态 * 字符类数 + 字符类}
+ * 排成一个扁平数组, 所以扫描时每读入一个字符只需要查一次字符类表和一次转移表. 每个状态上记录了在此处停下时应产生的
+ * TokenKind 码点, 扫描时按最长匹配原则取最后一次经过的接受状态.
+ * <br>
+ * 关键字不进入 DFA, 而是在识别出标识符后查询完美哈希表 {@link KeywordTable}, 这样新增一个关键字或词法单元种类都只需要修改规则文件.
+ * <br>
+ * 标识符, 整数常量与空白都是由某个状态在一组字符上的自环构成的长串. 对于这样的状态, 扫描时不再逐个字符查表, 而是一次读入 8 个字节,
+ * 用 SWAR (SIMD Within A Register) 的位运算同时判断每个字节是否仍留在该状态, 直接跳到串的结尾.
+ *
+ * @see LexerDfaBuilder 规则文件的格式与 DFA 的构造过程
+ */
+public final class LexerDfa {
+    /**
+     * 该状态不是接受状态
+     */
+    public static final int NONE = Integer.MIN_VALUE;
+
+    /**
+     * 该状态接受的是需要跳过的文本 (空白等)
+     */
+    public static final int SKIP = Integer.MAX_VALUE;
+
+    /**
+     * {@link #match} 没有匹配到任何规则时的返回值
+     */
+    public static final long NO_MATCH = -1L;
+
+    /**
+     * 死状态, 进入后不会再转移到其它状态
+     */
+    static final int DEAD = 0;
+
+    /**
+     * 从给定规则文件中生成 DFA
+     *
+     * @param path 规则文件路径
+     * @return 生成的 DFA
+     */
+    public static LexerDfa fromSpec(String path) {
+        return LexerDfaBuilder.fromSpec(path).build();
+    }
+
+    /**
+     * 从 {@code begin} 开始按最长匹配原则匹配一个词法单元
+     *
+     * @param source 源文件
+     * @param begin  起始位置
+     * @param limit  扫描的上界 (不含)
+     * @return 以 {@link #codeOf} 与 {@link #endOf} 解出的匹配结果; 无法匹配时返回 {@link #NO_MATCH}
+     */
+    public long match(ByteBuffer source, int begin, int limit) {
+        var state = start;
+        var matchedCode = NONE;
+        var matchedEnd = begin;
+
+        for (int pos = begin; pos < limit; ) {
+            state = next[state * classCount + (classOf[source.get(pos) & 0xff] & 0xff)];
+            if (state == DEAD) {
+                break;
+            }
+
+            pos++;
+            final var run = runRanges[state];
+            if (run != null) {
+                pos = skipRun(source, pos, limit, state, run);
+            }
+
+            final var code = accept[state];
+            if (code != NONE) {
+                matchedCode = code;
+                matchedEnd = pos;
+            }
+        }
+
+        if (matchedCode == NONE) {
+            return NO_MATCH;
+        }
+
+        return ((long) matchedEnd << 32) | (matchedCode & 0xffffffffL);
+    }
+
+    /**
+     * 跳过从 {@code pos} 开始的, 使 DFA 停留在 {@code state} 的最长字节串
+     *
+     * @return 第一个会使 DFA 离开该状态的字节的位置, 或 {@code limit}
+     */
+    private int skipRun(ByteBuffer source, int pos, int limit, int state, long[] run) {
+        final var bigEndian = source.order() == ByteOrder.BIG_ENDIAN;
+        while (pos + Long.BYTES <= limit) {
+            final var word = source.getLong(pos);
+            final var stay = matchRanges(bigEndian ? word : Long.reverseBytes(word), run);
+            if (stay != HIGH_BITS) {
+                // 大端序下第一个字节位于最高位
+                return pos + (Long.numberOfLeadingZeros(~stay & HIGH_BITS) >>> 3);
+            }
+            pos += Long.BYTES;
+        }
+
+        final var row = state * classCount;
+        while (pos < limit && next[row + (classOf[source.get(pos) & 0xff] & 0xff)] == state) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * 同时判断一个字中的 8 个字节是否落在给定的某个区间内. 对于 7 位的 x, {@code x + 0x80 - lo} 的最高位为 1 当且仅当 x >= lo,
+     * {@code x + 0x7f - hi} 的最高位为 0 当且仅当 x <= hi, 两个加法都不会向相邻字节进位. 最高位为 1 的字节不在任何区间内.
+     *
+     * @param word 8 个字节
+     * @param run  各区间的两个加数, 由 {@link #computeRunRanges} 计算
+     * @return 在区间内的字节, 其最高位为 1, 其余位为 0
+     */
+    private static long matchRanges(long word, long[] run) {
+        final var low = word & ~HIGH_BITS;
+        var inRange = 0L;
+        for (int i = 0; i < run.length; i += 2) {
+            inRange |= (low + run[i]) & ~(low + run[i + 1]);
+        }
+        return inRange & ~word & HIGH_BITS;
+    }
+
+    /**
+     * 找出所有可以按字节串跳过的状态: 该状态在一组 ASCII 字符上有自环, 且这组字符至多构成 {@link #MAX_RUN_RANGES} 个连续区间
+     *
+     * @return 下标为状态, 值为各区间的两个加数; 不可跳过的状态为 null
+     */
+    private static long[][] computeRunRanges(byte[] classOf, int classCount, int[] next, int stateCount) {
+        final var result = new long[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            if (state == DEAD) {
+                continue;
+            }
+
+            final var stay = new boolean[256];
+            var ranges = 0;
+            var ascii = true;
+            for (int b = 0; b < 256; b++) {
+                stay[b] = next[state * classCount + (classOf[b] & 0xff)] == state;
+                if (stay[b] && b >= 0x80) {
+                    ascii = false;
+                }
+                if (stay[b] && (b == 0 || !stay[b - 1])) {
+                    ranges++;
+                }
+            }
+            if (!ascii || ranges == 0 || ranges > MAX_RUN_RANGES) {
+                continue;
+            }
+
+            final var run = new long[ranges * 2];
+            var i = 0;
+            for (int b = 0; b < 0x80; b++) {
+                if (stay[b] && (b == 0 || !stay[b - 1])) {
+                    var hi = b;
+                    while (hi + 1 < 0x80 && stay[hi + 1]) {
+                        hi++;
+                    }
+                    run[i++] = (0x80 - b) * LOW_BYTES;
+                    run[i++] = (0x7f - hi) * LOW_BYTES;
+                }
+            }
+            result[state] = run;
+        }
+        return result;
+    }
+
+    /**
+     * @param match {@link #match} 的返回值
+     * @return 匹配到的 TokenKind 码点, 或 {@link #SKIP}
+     */
+    public static int codeOf(long match) {
+        return (int) match;
+    }
+
+    /**
+     * @param match {@link #match} 的返回值
+     * @return 匹配到的文本的结束位置 (不含)
+     */
+    public static int endOf(long match) {
+        return (int) (match >>> 32);
+    }
+
+    /**
+     * @return 标识符的 TokenKind 码点; 该种类的词法单元需要加入符号表, 并需要查询关键字表
+     */
+    public int identifierCode() {
+        return identifierCode;
+    }
+
+    /**
+     * 判断一个标识符是否为关键字
+     *
+     * @param source 源文件
+     * @param begin  标识符起始位置
+     * @param end    标识符结束位置 (不含)
+     * @return 关键字的码点; 不是关键字时返回 {@link #NONE}
+     */
+    public int keywordCode(ByteBuffer source, int begin, int end) {
+        final var code = keywords.lookup(source, begin, end);
+        return code == KeywordTable.NOT_FOUND ? NONE : code;
+    }
+
+    /**
+     * 由固定字符串构成的词法单元 (标点, 关键字) 不需要保存文本
+     *
+     * @param code TokenKind 码点
+     * @return 该种类的词法单元是否需要保存其文本
+     */
+    public boolean isTextual(int code) {
+        return code + 1 < textual.length && textual[code + 1];
+    }
+
+    /**
+     * 判断能否在字节 {@code b} 之后安全地切分源文件: 要求该字节单独构成一个词法单元, 并且不可能出现在任何其它词法单元
+     * (包括需要跳过的文本) 之中. 满足此条件时, 顺序扫描必然恰好在该字节之后开始一个新的词法单元, 因此从切分点开始独立扫描
+     * 得到的结果与顺序扫描完全一致.
+     *
+     * @param b 切分字节
+     * @return 能否在该字节之后切分
+     */
+    public boolean isSafeCut(byte b) {
+        final var cls = classOf[b & 0xff] & 0xff;
+        final var target = next[start * classCount + cls];
+        if (target == DEAD || accept[target] == NONE || accept[target] == SKIP) {
+            return false;
+        }
+
+        for (int c = 0; c < classCount; c++) {
+            if (next[target * classCount + c] != DEAD) {
+                return false;
+            }
+        }
+
+        for (int state = 0; state < accept.length; state++) {
+            if (state != start && next[state * classCount + cls] != DEAD) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 若除起始状态与死状态外的所有状态都是接受状态, 则任何词法单元都只会向后多看一个字符就确定其结束位置.
+     * 增量词法分析依赖此性质来确定编辑之后需要从哪里开始重新扫描.
+     *
+     * @return 是否只需要一个字符的向前看
+     */
+    public boolean hasUnitLookahead() {
+        for (int state = 0; state < accept.length; state++) {
+            if (state != DEAD && state != start && accept[state] == NONE) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return 下标为码点 + 1, 表示各种类的词法单元是否需要保存其文本
+     */
+    boolean[] textualKinds() {
+        return textual;
+    }
+
+    /**
+     * @return DFA 的状态数 (含死状态)
+     */
+    public int stateCount() {
+        return accept.length;
+    }
+
+    /**
+     * @return 字符类的数量
+     */
+    public int classCount() {
+        return classCount;
+    }
+
+    LexerDfa(byte[] classOf, int classCount, int[] next, int[] accept, int start,
+             KeywordTable keywords, int identifierCode, boolean[] textual) {
+        this.classOf = classOf;
+        this.classCount = classCount;
+        this.next = next;
+        this.accept = accept;
+        this.start = start;
+        this.keywords = keywords;
+        this.identifierCode = identifierCode;
+        this.textual = textual;
+        this.runRanges = computeRunRanges(classOf, classCount, next, accept.length);
+    }
+
+    private static final long LOW_BYTES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final int MAX_RUN_RANGES = 4;
+
+    private final byte[] classOf;
+    private final int classCount;
+    private final int[] next;
+    private final int[] accept;
+    private final int start;
+    private final KeywordTable keywords;
+    private final int identifierCode;
+    // 下标为码点 + 1
+    private final boolean[] textual;
+    // 下标为状态, 可以按字节串跳过的状态上记录自环字符所构成的区间
+    private final long[][] runRanges;
+}
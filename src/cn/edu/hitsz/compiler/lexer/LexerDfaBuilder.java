@@ -0,0 +1,466 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import cn.edu.hitsz.compiler.utils.FileUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 从词法规则构造 {@link LexerDfa}
+ * <br>
+ * 规则文件每行形如 {@code <TokenKind 标识符> <正则表达式>}, 以空格分割, 越靠前的规则在匹配长度相同时优先级越高. 此外还有以下指令:
+ * <ul>
+ *     <li>{@code %identifier id}: 指定标识符的种类, 该种类的词法单元会被加入符号表, 并在识别后查询关键字表</li>
+ *     <li>{@code %keywords int return}: 关键字列表, 每个关键字的 TokenKind 标识符即为其文本</li>
+ *     <li>{@code %skip <正则表达式>}: 匹配后直接丢弃的文本, 如空白字符</li>
+ * </ul>
+ * 以 # 开头的行与空行会被忽略. 正则表达式支持字面字符, 转义 ({@code \t \n \r} 与元字符), 字符类 {@code [a-z]} 与 {@code [^...]},
+ * 任意字符 {@code .}, 分组 {@code ( )}, 选择 {@code |} 以及 {@code * + ?}.
+ * <br>
+ * 构造过程是教科书式的: 先用 Thompson 构造法得到 NFA, 然后把字节划分为字符类, 以字符类为字母表做子集构造, 最后以接受的规则为初始划分做
+ * Moore 最小化.
+ */
+final class LexerDfaBuilder {
+    /**
+     * 读取规则文件
+     *
+     * @param path 规则文件路径
+     * @return 加入了所有规则的构造器
+     */
+    static LexerDfaBuilder fromSpec(String path) {
+        final var builder = new LexerDfaBuilder();
+        for (final var rawLine : FileUtils.readLines(path)) {
+            final var line = rawLine.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            final var words = line.split(" ", 2);
+            if (words.length != 2) {
+                throw new RuntimeException("Illegal line in lexer spec: " + rawLine);
+            }
+
+            switch (words[0]) {
+                case "%identifier" -> builder.identifierCode = TokenKind.fromString(words[1].strip()).getCode();
+                case "%keywords" -> Arrays.stream(words[1].strip().split(" +"))
+                    .map(TokenKind::fromString)
+                    .forEach(builder::addKeyword);
+                case "%skip" -> builder.addRule(LexerDfa.SKIP, words[1]);
+                default -> builder.addRule(TokenKind.fromString(words[0]).getCode(), words[1]);
+            }
+        }
+
+        return builder;
+    }
+
+    /**
+     * 加入一个关键字. 重复的关键字无法被完美哈希分到不同的槽中, 因此直接报错
+     *
+     * @param keyword 关键字的 TokenKind
+     */
+    private void addKeyword(TokenKind keyword) {
+        if (keywords.contains(keyword)) {
+            throw new RuntimeException("Duplicate keyword in lexer spec: " + keyword.getIdentifier());
+        }
+        keywords.add(keyword);
+    }
+
+    /**
+     * 构造 DFA
+     *
+     * @return 最小化后的 DFA
+     */
+    LexerDfa build() {
+        // NFA 的起点通过 epsilon 边连接到每条规则的起点
+        final var nfaStart = newState();
+        for (final var ruleStart : ruleStarts) {
+            epsilons.get(nfaStart).add(ruleStart);
+        }
+
+        final var classOf = computeCharClasses();
+        var classCount = 0;
+        for (final var cls : classOf) {
+            classCount = Math.max(classCount, (cls & 0xff) + 1);
+        }
+        final var representatives = new int[classCount];
+        for (int b = 255; b >= 0; b--) {
+            representatives[classOf[b] & 0xff] = b;
+        }
+
+        // 子集构造, 0 号状态为空集 (死状态), 1 号状态为起始状态
+        final var subsets = new ArrayList<BitSet>();
+        final var subsetIndex = new HashMap<BitSet, Integer>();
+        final var transitions = new ArrayList<int[]>();
+        final var queue = new ArrayDeque<Integer>();
+
+        final var empty = new BitSet();
+        subsets.add(empty);
+        subsetIndex.put(empty, 0);
+        transitions.add(new int[classCount]);
+
+        final var startSet = epsilonClosure(singleton(nfaStart));
+        subsets.add(startSet);
+        subsetIndex.put(startSet, 1);
+        transitions.add(new int[classCount]);
+        queue.add(1);
+
+        while (!queue.isEmpty()) {
+            final var current = queue.poll();
+            final var set = subsets.get(current);
+            for (int cls = 0; cls < classCount; cls++) {
+                final var moved = new BitSet();
+                final var rep = representatives[cls];
+                set.stream()
+                    .filter(s -> edgeSets.get(s) != null && edgeSets.get(s).get(rep))
+                    .forEach(s -> moved.set(edgeTargets.get(s)));
+
+                final var target = epsilonClosure(moved);
+                var targetIndex = subsetIndex.get(target);
+                if (targetIndex == null) {
+                    targetIndex = subsets.size();
+                    subsets.add(target);
+                    subsetIndex.put(target, targetIndex);
+                    transitions.add(new int[classCount]);
+                    queue.add(targetIndex);
+                }
+                transitions.get(current)[cls] = targetIndex;
+            }
+        }
+
+        final var accept = new int[subsets.size()];
+        for (int i = 0; i < subsets.size(); i++) {
+            accept[i] = subsets.get(i).stream()
+                .map(acceptRule::get)
+                .filter(rule -> rule >= 0)
+                .min()
+                .stream().map(ruleCodes::get)
+                .findFirst().orElse(LexerDfa.NONE);
+        }
+
+        return minimize(classOf, classCount, transitions, accept);
+    }
+
+    //==================== 以下为正则表达式与 NFA 相关代码 ==============================//
+
+    // 每个 NFA 状态至多有一条字节集合边, 以及任意条 epsilon 边
+    private final List<BitSet> edgeSets = new ArrayList<>();
+    private final List<Integer> edgeTargets = new ArrayList<>();
+    private final List<List<Integer>> epsilons = new ArrayList<>();
+    // 接受状态对应的规则序号, 非接受状态为 -1
+    private final List<Integer> acceptRule = new ArrayList<>();
+
+    private final List<Integer> ruleStarts = new ArrayList<>();
+    private final List<Integer> ruleCodes = new ArrayList<>();
+    private final List<TokenKind> keywords = new ArrayList<>();
+    private final Map<Integer, Boolean> textualCodes = new HashMap<>();
+    private int identifierCode = LexerDfa.NONE;
+
+    /**
+     * NFA 片段, 仅有一个入口与一个出口
+     */
+    private record Fragment(int start, int end) {
+    }
+
+    private void addRule(int code, String regex) {
+        final var parser = new RegexParser(regex);
+        final var fragment = parser.parseAlternation();
+        if (!parser.atEnd()) {
+            throw new RuntimeException("Illegal regex in lexer spec: " + regex);
+        }
+
+        final var rule = ruleCodes.size();
+        ruleCodes.add(code);
+        ruleStarts.add(fragment.start);
+        acceptRule.set(fragment.end, rule);
+
+        // 只能匹配一个固定字符串的规则 (标点) 不需要保存文本
+        if (code != LexerDfa.SKIP) {
+            textualCodes.merge(code, !isFixedString(regex), Boolean::logicalOr);
+        }
+    }
+
+    private int newState() {
+        edgeSets.add(null);
+        edgeTargets.add(-1);
+        epsilons.add(new ArrayList<>());
+        acceptRule.add(-1);
+        return edgeSets.size() - 1;
+    }
+
+    private Fragment edge(BitSet bytes) {
+        final var start = newState();
+        final var end = newState();
+        edgeSets.set(start, bytes);
+        edgeTargets.set(start, end);
+        return new Fragment(start, end);
+    }
+
+    private Fragment epsilonFragment() {
+        final var start = newState();
+        final var end = newState();
+        epsilons.get(start).add(end);
+        return new Fragment(start, end);
+    }
+
+    private Fragment concat(Fragment lhs, Fragment rhs) {
+        epsilons.get(lhs.end).add(rhs.start);
+        return new Fragment(lhs.start, rhs.end);
+    }
+
+    private Fragment alternate(Fragment lhs, Fragment rhs) {
+        final var start = newState();
+        final var end = newState();
+        epsilons.get(start).add(lhs.start);
+        epsilons.get(start).add(rhs.start);
+        epsilons.get(lhs.end).add(end);
+        epsilons.get(rhs.end).add(end);
+        return new Fragment(start, end);
+    }
+
+    private Fragment repeat(Fragment inner, boolean allowEmpty, boolean allowMany) {
+        final var start = newState();
+        final var end = newState();
+        epsilons.get(start).add(inner.start);
+        epsilons.get(inner.end).add(end);
+        if (allowEmpty) {
+            epsilons.get(start).add(end);
+        }
+        if (allowMany) {
+            epsilons.get(inner.end).add(inner.start);
+        }
+        return new Fragment(start, end);
+    }
+
+    private static boolean isFixedString(String regex) {
+        for (int i = 0; i < regex.length(); i++) {
+            final var c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if ("[]().|*+?".indexOf(c) >= 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 递归下降的正则表达式解析器, 边解析边构造 NFA 片段
+     */
+    private final class RegexParser {
+        RegexParser(String regex) {
+            this.regex = regex;
+        }
+
+        boolean atEnd() {
+            return pos == regex.length();
+        }
+
+        Fragment parseAlternation() {
+            var result = parseConcatenation();
+            while (!atEnd() && peek() == '|') {
+                pos++;
+                result = alternate(result, parseConcatenation());
+            }
+            return result;
+        }
+
+        private Fragment parseConcatenation() {
+            var result = epsilonFragment();
+            while (!atEnd() && peek() != '|' && peek() != ')') {
+                result = concat(result, parseRepeat());
+            }
+            return result;
+        }
+
+        private Fragment parseRepeat() {
+            var result = parseAtom();
+            while (!atEnd() && "*+?".indexOf(peek()) >= 0) {
+                final var op = regex.charAt(pos++);
+                result = repeat(result, op != '+', op != '?');
+            }
+            return result;
+        }
+
+        private Fragment parseAtom() {
+            final var c = regex.charAt(pos++);
+            return switch (c) {
+                case '(' -> {
+                    final var inner = parseAlternation();
+                    expect(')');
+                    yield inner;
+                }
+                case '[' -> edge(parseClass());
+                case '.' -> {
+                    final var any = new BitSet(256);
+                    any.set(0, 256);
+                    any.clear('\n');
+                    yield edge(any);
+                }
+                case '\\' -> edge(singleton(parseEscape()));
+                case ')', '*', '+', '?', '|' -> throw new RuntimeException("Illegal regex in lexer spec: " + regex);
+                default -> edge(singleton(c));
+            };
+        }
+
+        private BitSet parseClass() {
+            final var negate = !atEnd() && peek() == '^';
+            if (negate) {
+                pos++;
+            }
+
+            final var result = new BitSet(256);
+            while (!atEnd() && peek() != ']') {
+                final var low = nextClassChar();
+                var high = low;
+                if (pos + 1 < regex.length() && peek() == '-' && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    high = nextClassChar();
+                }
+                result.set(low, high + 1);
+            }
+            expect(']');
+
+            if (negate) {
+                result.flip(0, 256);
+            }
+            return result;
+        }
+
+        private int nextClassChar() {
+            final var c = regex.charAt(pos++);
+            return c == '\\' ? parseEscape() : c;
+        }
+
+        private int parseEscape() {
+            if (atEnd()) {
+                throw new RuntimeException("Illegal regex in lexer spec: " + regex);
+            }
+
+            final var c = regex.charAt(pos++);
+            return switch (c) {
+                case 't' -> '\t';
+                case 'n' -> '\n';
+                case 'r' -> '\r';
+                default -> c;
+            };
+        }
+
+        private char peek() {
+            return regex.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (atEnd() || regex.charAt(pos) != c) {
+                throw new RuntimeException("Illegal regex in lexer spec: " + regex);
+            }
+            pos++;
+        }
+
+        private final String regex;
+        private int pos = 0;
+    }
+
+    //==================== 以下为 DFA 构造相关代码 ==============================//
+
+    private static BitSet singleton(int value) {
+        final var set = new BitSet();
+        set.set(value);
+        return set;
+    }
+
+    private BitSet epsilonClosure(BitSet states) {
+        final var result = (BitSet) states.clone();
+        final var stack = new ArrayDeque<Integer>();
+        states.stream().forEach(stack::push);
+        while (!stack.isEmpty()) {
+            for (final var next : epsilons.get(stack.pop())) {
+                if (!result.get(next)) {
+                    result.set(next);
+                    stack.push(next);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 将 256 个字节划分为字符类: 被完全相同的一组字节集合边包含的字节属于同一类
+     *
+     * @return 每个字节所属的字符类
+     */
+    private byte[] computeCharClasses() {
+        final var distinctSets = edgeSets.stream().filter(set -> set != null).distinct().toList();
+        final var classBySignature = new HashMap<BitSet, Integer>();
+        final var classOf = new byte[256];
+        for (int b = 0; b < 256; b++) {
+            final var signature = new BitSet();
+            for (int i = 0; i < distinctSets.size(); i++) {
+                if (distinctSets.get(i).get(b)) {
+                    signature.set(i);
+                }
+            }
+            classOf[b] = (byte) (int) classBySignature.computeIfAbsent(signature, s -> classBySignature.size());
+        }
+        return classOf;
+    }
+
+    /**
+     * Moore 最小化: 以接受的码点作为初始划分, 反复按 "各字符类上转移到的块" 细分, 直到块数不再变化
+     */
+    private LexerDfa minimize(byte[] classOf, int classCount, List<int[]> transitions, int[] accept) {
+        final var stateCount = accept.length;
+        var block = new int[stateCount];
+        var blockCount = 0;
+        {
+            final var initial = new HashMap<Integer, Integer>();
+            // 保证死状态落在 0 号块
+            initial.put(accept[LexerDfa.DEAD], 0);
+            for (int s = 0; s < stateCount; s++) {
+                block[s] = initial.computeIfAbsent(accept[s], k -> initial.size());
+            }
+            blockCount = initial.size();
+        }
+
+        while (true) {
+            final var refined = new HashMap<List<Integer>, Integer>();
+            final var newBlock = new int[stateCount];
+            for (int s = 0; s < stateCount; s++) {
+                final var key = new ArrayList<Integer>(classCount + 1);
+                key.add(block[s]);
+                for (final var target : transitions.get(s)) {
+                    key.add(block[target]);
+                }
+                newBlock[s] = refined.computeIfAbsent(key, k -> refined.size());
+            }
+
+            final var stable = refined.size() == blockCount;
+            block = newBlock;
+            blockCount = refined.size();
+            if (stable) {
+                break;
+            }
+        }
+
+        final var next = new int[blockCount * classCount];
+        final var minimizedAccept = new int[blockCount];
+        for (int s = 0; s < stateCount; s++) {
+            minimizedAccept[block[s]] = accept[s];
+            for (int cls = 0; cls < classCount; cls++) {
+                next[block[s] * classCount + cls] = block[transitions.get(s)[cls]];
+            }
+        }
+
+        final var maxCode = ruleCodes.stream().filter(code -> code != LexerDfa.SKIP).mapToInt(Integer::intValue).max().orElse(-1);
+        final var textual = new boolean[Math.max(maxCode, identifierCode) + 2];
+        textualCodes.forEach((code, isTextual) -> textual[code + 1] = isTextual);
+
+        return new LexerDfa(classOf, classCount, next, minimizedAccept, block[1],
+            KeywordTable.build(keywords), identifierCode, textual);
+    }
+}
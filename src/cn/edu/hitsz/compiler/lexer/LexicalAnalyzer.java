@@ -1,13 +1,22 @@
 package cn.edu.hitsz.compiler.lexer;
 
 import cn.edu.hitsz.compiler.NotImplementedException;
+import cn.edu.hitsz.compiler.symtab.ConcurrentSymbolTable;
+import cn.edu.hitsz.compiler.symtab.SymbolInterner;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
+import cn.edu.hitsz.compiler.utils.FilePathConfig;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.StreamSupport;
 
 /**
@@ -21,25 +30,30 @@ import java.util.stream.StreamSupport;
 public class LexicalAnalyzer {
     private final SymbolTable symbolTable;
 
-    private ArrayList<Token> tokens;
+    private final LexerDfa dfa;
 
-    private ArrayList<String> file_lines;
+    private TokenBuffer tokens;
 
-    enum State{
-        ZERO,
-        FORTEEN,
-        SIXTEEN
-    };
+    private ByteBuffer source;
 
     public LexicalAnalyzer(SymbolTable symbolTable) {
-        tokens = new ArrayList<>();
-        file_lines = new ArrayList<>();
+        this(symbolTable, LexerDfa.fromSpec(FilePathConfig.LEXER_SPEC_PATH));
+    }
+
+    /**
+     * @param symbolTable 符号表
+     * @param dfa         由词法规则生成的 DFA
+     */
+    public LexicalAnalyzer(SymbolTable symbolTable, LexerDfa dfa) {
         this.symbolTable = symbolTable;
+        this.dfa = dfa;
     }
 
 
     /**
      * 从给予的路径中读取并加载文件内容
+     * <br>
+     * 文件被直接映射进内存而不是逐行读入, 因此加载的耗时与文件大小基本无关, 内容只会在扫描时按需换入.
      *
      * @param path 路径
      */
@@ -47,107 +61,198 @@ public class LexicalAnalyzer {
         // TODO: 词法分析前的缓冲区实现
         // 可自由实现各类缓冲区
         // 或直接采用完整读入方法
-        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                file_lines.add(line);
+        try (final var channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            final var size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new RuntimeException("Source file too large to map: " + path);
             }
+
+            source = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RuntimeException("IO Exception on " + path, e);
         }
     }
 
     /**
      * 执行词法分析, 准备好用于返回的 token 列表 <br>
      * 需要维护实验一所需的符号表条目, 而得在语法分析中才能确定的符号表条目的成员可以先设置为 null
+     * <br>
+     * 若不调用此方法, {@link #getTokens()} 将返回一个按需扫描的惰性序列, 不会一次性保存全部词法单元
      */
     public void run() {
         // TODO: 自动机实现的词法分析过程
-        for (String line : file_lines) {
-            State state = State.ZERO;
-            StringBuilder sb = new StringBuilder();
-            for (char c : line.toCharArray()) {
-                switch (state) {
-                    case FORTEEN:
-                        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
-                            state = State.FORTEEN;
-                            sb.append(c);
-                        } else {
-                            state = State.ZERO;
-                            if (sb.toString().equals("int")) {
-                                tokens.add(Token.normal(TokenKind.fromString("int"), ""));
-                            } else if (sb.toString().equals("return")){
-                                tokens.add(Token.normal(TokenKind.fromString("return"), ""));
-                            } else {
-                                tokens.add(Token.normal(TokenKind.fromString("id"), sb.toString()));
-                                symbolTable.add(sb.toString());
-                            }
-                            sb = new StringBuilder();
-                        }
-                        break;
-                    case SIXTEEN:
-                        if (c >= '0' && c <= '9') {
-                            state = State.SIXTEEN;
-                            sb.append(c);
-                        } else {
-                            state = State.ZERO;
-                            tokens.add(Token.normal(TokenKind.fromString("IntConst"), sb.toString()));
-                            sb = new StringBuilder();
-                        }
-
-                        break;
-                    default:
-                        break;
-                }
+        tokens = new TokenBuffer(source, dfa.textualKinds());
+        new TokenScanner(dfa, source.duplicate(), symbolTable).scanInto(tokens, true);
+    }
+
+    /**
+     * 并行地执行词法分析, 结果与 {@link #run()} 完全一致
+     * <br>
+     * 源程序是由分号分隔的语句列表, 分号单独构成词法单元且不会出现在其它词法单元中, 所以在分号之后切分源文件是安全的.
+     * 各分块在线程池上独立扫描到各自的缓冲区与符号表中, 之后按分块顺序依次合并, 因此结果与线程调度无关.
+     * 驻留表不是线程安全的, 所以各分块使用自己的驻留表, 合并时再将分块内的符号 ID 映射为全局的符号 ID.
+     * 若符号表是 {@link ConcurrentSymbolTable}, 各分块在工作线程中直接并入符号表, 此时符号 ID 的分配顺序与线程调度有关,
+     * 但符号表的输出与词法单元序列仍然是确定的.
+     * 若文件过小, 或词法规则不能保证分号之后是安全的切分点, 则退化为顺序扫描.
+     *
+     * @param pool 执行扫描的线程池
+     */
+    public void runParallel(ForkJoinPool pool) {
+        final var cuts = findCuts(pool.getParallelism());
+        if (cuts.size() <= 2) {
+            run();
+            return;
+        }
+
+        final var chunks = new ArrayList<ChunkTask>();
+        for (int i = 0; i + 1 < cuts.size(); i++) {
+            chunks.add(new ChunkTask(cuts.get(i), cuts.get(i + 1)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(chunks)));
+
+        tokens = new TokenBuffer(source, dfa.textualKinds());
+        for (final var chunk : chunks) {
+            final var result = chunk.join();
+            final var remap = result.remap() != null ? result.remap() : symbolTable.merge(result.symbolTable());
+            tokens.addAll(result.tokens(), remap);
+        }
+        tokens.add(TokenKind.eof().getCode(), source.limit(), 0, SymbolInterner.NOT_FOUND);
+    }
+
+    /**
+     * 在分号之后寻找切分点
+     *
+     * @param parallelism 线程池的并行度
+     * @return 各分块的边界, 首尾分别为文件的开头与结尾
+     */
+    private List<Integer> findCuts(int parallelism) {
+        final var cuts = new ArrayList<Integer>();
+        cuts.add(0);
+
+        final var limit = source.limit();
+        if (!dfa.isSafeCut(CUT_BYTE)) {
+            cuts.add(limit);
+            return cuts;
+        }
 
-                if (state == State.ZERO) {
-                    if (c == '\n' || c == ' ' || c == '\t') {
-                        state = State.ZERO;
-                    } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
-                        state = State.FORTEEN;
-                        sb.append(c);
-                    } else if (c >= '0' && c <= '9') {
-                        state = State.SIXTEEN;
-                        sb.append(c);
-                    } else if (c == '*') {
-                        tokens.add(Token.normal(TokenKind.fromString("*"), ""));
-                    } else if (c == '=') {
-                        tokens.add(Token.normal(TokenKind.fromString("="), ""));
-                    } else if (c == '(') {
-                        tokens.add(Token.normal(TokenKind.fromString("("), ""));
-                    } else if (c == ')') {
-                        tokens.add(Token.normal(TokenKind.fromString(")"), ""));
-                    } else if (c == ';') {
-                        tokens.add(Token.normal(TokenKind.fromString("Semicolon"), ""));
-                    } else if (c == '+') {
-                        tokens.add(Token.normal(TokenKind.fromString("+"), ""));
-                    } else if (c == '-') {
-                        tokens.add(Token.normal(TokenKind.fromString("-"), ""));
-                    } else if (c == '/') {
-                        tokens.add(Token.normal(TokenKind.fromString("/"), ""));
-                    } else {
-
-                    }
+        // 分块数取并行度的若干倍, 以便在分块大小不均时平衡负载
+        final var chunkSize = Math.max(MIN_CHUNK_SIZE, limit / (parallelism * CHUNKS_PER_THREAD));
+        var pos = chunkSize;
+        while (pos < limit) {
+            var cut = -1;
+            for (int i = pos; i < limit; i++) {
+                if (source.get(i) == CUT_BYTE) {
+                    cut = i + 1;
+                    break;
                 }
             }
+
+            if (cut < 0) {
+                break;
+            }
+            cuts.add(cut);
+            pos = cut + chunkSize;
         }
 
-        tokens.add(Token.normal(TokenKind.eof(), ""));
+        if (cuts.get(cuts.size() - 1) != limit) {
+            cuts.add(limit);
+        }
+        return cuts;
     }
 
     /**
-     * 获得词法分析的结果, 保证在调用了 run 方法之后调用
+     * 一个分块的扫描结果
      *
-     * @return Token 列表
+     * @param tokens      该分块中的词法单元, 不含 EOF
+     * @param symbolTable 该分块中出现的标识符
+     * @param remap       若已在工作线程中并入符号表, 为分块内符号 ID 到全局符号 ID 的映射; 否则为 null
+     */
+    private record ChunkResult(TokenBuffer tokens, SymbolTable symbolTable, int[] remap) {
+    }
+
+    private class ChunkTask extends RecursiveTask<ChunkResult> {
+        ChunkTask(int begin, int end) {
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            final var chunkTokens = new TokenBuffer(source, dfa.textualKinds());
+            final var chunkSymbols = new SymbolTable();
+            final var slice = source.duplicate().limit(end).position(begin);
+            new TokenScanner(dfa, slice, chunkSymbols).scanInto(chunkTokens, false);
+
+            // 并发符号表可以由各工作线程直接并入, 不必等到按顺序合并时再进行
+            final var remap = symbolTable instanceof ConcurrentSymbolTable ? symbolTable.merge(chunkSymbols) : null;
+            return new ChunkResult(chunkTokens, chunkSymbols, remap);
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final int begin;
+        private final int end;
+    }
+
+    private static final byte CUT_BYTE = ';';
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * 获得词法分析的结果
+     * <br>
+     * 若已调用 run 方法, 则返回已扫描好的 Token 列表; 否则返回一个惰性序列, 每次遍历都会从头按需扫描源文件,
+     * 并在遇到标识符时向符号表中加入条目. 惰性序列在任何时刻都只持有一个词法单元, 第一个词法单元的获取耗时与文件大小无关.
+     *
+     * @return Token 序列
      */
     public Iterable<Token> getTokens() {
         // TODO: 从词法分析过程中获取 Token 列表
         // 词法分析过程可以使用 Stream 或 Iterator 实现按需分析
         // 亦可以直接分析完整个文件
         // 总之实现过程能转化为一列表即可
+        if (tokens != null) {
+            return tokens;
+        }
+
+        final var loaded = source;
+        return () -> new TokenScanner(dfa, loaded.duplicate(), symbolTable);
+    }
+
+    /**
+     * 获得一个按需扫描的词法单元缓冲区, 不需要调用 run 方法
+     * <br>
+     * 缓冲区只在读取尚未扫描到的下标时才向前扫描, 并在遇到标识符时向符号表中加入条目, 所以词法分析与语法分析交替进行.
+     * 语法分析驱动程序移入之后会丢弃已经移入的词法单元, 此时缓冲区占用的内存与文件大小无关.
+     *
+     * @return 按需扫描的词法单元缓冲区
+     */
+    public TokenBuffer getTokenStream() {
+        return new TokenBuffer(source, dfa.textualKinds(), new TokenScanner(dfa, source.duplicate(), symbolTable));
+    }
+
+    /**
+     * 获得紧凑存储的词法分析结果, 保证在调用了 run 方法之后调用
+     *
+     * @return 词法单元缓冲区
+     */
+    public TokenBuffer getTokenBuffer() {
+        if (tokens == null) {
+            throw new RuntimeException("Lexer has not been run");
+        }
+
         return tokens;
     }
 
+    /**
+     * 以本次词法分析的结果为起点, 构造一个可以对源文件的编辑进行增量分析的词法分析器, 保证在调用了 run 方法之后调用
+     *
+     * @return 增量词法分析器
+     */
+    public IncrementalLexer toIncremental() {
+        return new IncrementalLexer(dfa, symbolTable, getTokenBuffer());
+    }
+
     public void dumpTokens(String path) {
         FileUtils.writeLines(
             path,
@@ -0,0 +1,382 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import cn.edu.hitsz.compiler.symtab.SymbolInterner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 紧凑的词法单元缓冲区
+ * <br>
+ * 与为每个词法单元构造一个 {@link Token} 对象不同, 缓冲区按列存储所有词法单元: 种类的码点, 以及词素在源文件中的起始位置与长度
+ * 各占一个 int 数组, 词素本身不被复制. 标识符还额外记录其在 {@link SymbolInterner} 中的符号 ID. 语法分析器与各观察者可以直接通过下标读取码点, 位置与数值, 不需要为每个词法单元分配对象;
+ * 需要文本时可以取得一个不复制内容的 {@link Lexeme} 视图, 或者显式地构造字符串.
+ * <br>
+ * 缓冲区同时实现了 {@code Iterable<Token>}, 遍历时按需构造 Token 对象, 以兼容原有的 Token 接口.
+ * <br>
+ * 由 {@link LexicalAnalyzer#getTokenStream()} 得到的缓冲区是按需扫描的: 读取尚未扫描到的下标时才向前扫描,
+ * 并且可以通过 {@link #discardBefore(int)} 丢弃不再需要的词法单元. 下标始终从整个文件的开头算起, 只是较早的词法单元可能已不可读取.
+ */
+public class TokenBuffer implements Iterable<Token> {
+    /**
+     * 构造一个引用给定源文件的空缓冲区, 由词法分析器向其中填充词法单元
+     *
+     * @param source  源文件
+     * @param textual 下标为码点 + 1, 表示该种类的词法单元是否需要保存文本
+     */
+    TokenBuffer(ByteBuffer source, boolean[] textual) {
+        this(source, textual, null);
+    }
+
+    /**
+     * 构造一个按需从扫描器中读取词法单元的缓冲区
+     *
+     * @param source  源文件
+     * @param textual 下标为码点 + 1, 表示该种类的词法单元是否需要保存文本
+     * @param scanner 扫描该源文件的扫描器, 为 null 时缓冲区只包含显式加入的词法单元
+     */
+    TokenBuffer(ByteBuffer source, boolean[] textual, TokenScanner scanner) {
+        this.source = source;
+        this.textual = textual;
+        this.scanner = scanner;
+        this.interner = null;
+    }
+
+    /**
+     * 构造一个空缓冲区, 之后可以通过 {@link #append(Token)} 向其中加入 Token
+     *
+     * @param interner 为加入的标识符分配符号 ID 的驻留表, 一般为本次编译的符号表的驻留表
+     */
+    public TokenBuffer(SymbolInterner interner) {
+        this.source = ByteBuffer.allocate(0);
+        this.textual = null;
+        this.scanner = null;
+        this.interner = interner;
+    }
+
+    /**
+     * 从一列 Token 中构造缓冲区, 所有 Token 的文本会被依次拷贝进缓冲区自己持有的存储中
+     *
+     * @param tokens   Token 序列
+     * @param interner 为标识符分配符号 ID 的驻留表; tokens 本身就是缓冲区时不使用
+     * @return 构造出的缓冲区
+     */
+    public static TokenBuffer fromTokens(Iterable<Token> tokens, SymbolInterner interner) {
+        if (tokens instanceof TokenBuffer buffer) {
+            return buffer;
+        }
+
+        final var buffer = new TokenBuffer(interner);
+        for (final var token : tokens) {
+            buffer.append(token);
+        }
+        return buffer;
+    }
+
+    /**
+     * @return 缓冲区中词法单元的个数; 按需扫描的缓冲区为目前已扫描到的个数, 包括已经丢弃的
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index 词法单元下标
+     * @return 该词法单元种类的码点
+     */
+    public int kind(int index) {
+        final var slot = slot(index);
+        return kinds[slot];
+    }
+
+    /**
+     * @param index 词法单元下标
+     * @return 该词法单元的词素在源文件中的起始位置
+     */
+    public int start(int index) {
+        final var slot = slot(index);
+        return starts[slot];
+    }
+
+    /**
+     * @param index 词法单元下标
+     * @return 该词法单元的词素的长度
+     */
+    public int length(int index) {
+        final var slot = slot(index);
+        return lengths[slot];
+    }
+
+    /**
+     * @param index 词法单元下标
+     * @return 标识符的符号 ID; 其它种类的词法单元返回 {@link SymbolInterner#NOT_FOUND}
+     */
+    public int symbol(int index) {
+        final var slot = slot(index);
+        return symbols[slot];
+    }
+
+    /**
+     * @param index 词法单元下标
+     * @return 该词法单元的词素, 不复制源文件内容
+     */
+    public Lexeme lexeme(int index) {
+        final var slot = slot(index);
+        return new Lexeme(source, starts[slot], lengths[slot]);
+    }
+
+    /**
+     * 与 {@link Token#getText()} 一致: 标点与关键字的文本为空字符串
+     *
+     * @param index 词法单元下标
+     * @return 该词法单元的文本
+     */
+    public String text(int index) {
+        final var slot = slot(index);
+        if (!isTextual(kinds[slot])) {
+            return "";
+        }
+
+        final var bytes = new byte[lengths[slot]];
+        source.get(starts[slot], bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 直接从源文件中解析整数字面量, 不构造中间字符串
+     *
+     * @param index 词法单元下标
+     * @return 词素表示的十进制整数
+     * @throws NumberFormatException 词素不是合法的 int 字面量
+     */
+    public int intValue(int index) {
+        final var slot = slot(index);
+        final var begin = starts[slot];
+        final var end = begin + lengths[slot];
+        if (begin == end) {
+            throw new NumberFormatException("Empty integer literal");
+        }
+
+        // 与 Integer.parseInt 一样在负数区间内累加, 以便检测溢出
+        final var limit = -Integer.MAX_VALUE;
+        final var multiplyLimit = limit / 10;
+        var result = 0;
+        for (int i = begin; i < end; i++) {
+            final var digit = source.get(i) - '0';
+            if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                throw new NumberFormatException("Illegal integer literal: " + lexeme(index));
+            }
+
+            result *= 10;
+            if (result < limit + digit) {
+                throw new NumberFormatException("Illegal integer literal: " + lexeme(index));
+            }
+            result -= digit;
+        }
+
+        return -result;
+    }
+
+    /**
+     * @param index 词法单元下标
+     * @return 与该词法单元等价的 Token 对象
+     */
+    public Token get(int index) {
+        final var code = kind(index);
+        if (code == TokenKind.eof().getCode()) {
+            return Token.eof();
+        }
+
+        final var kind = TokenKind.fromCode(code);
+        return isTextual(code) ? Token.normal(kind, text(index)) : Token.simple(kind);
+    }
+
+    @Override
+    public Iterator<Token> iterator() {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return next < size || (scanner != null && scanner.hasNext());
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return get(next++);
+            }
+
+            private int next = base;
+        };
+    }
+
+    /**
+     * 加入一个词法单元
+     *
+     * @param code   种类的码点
+     * @param start  词素起始位置
+     * @param length 词素长度
+     * @param symbol 标识符的符号 ID, 其它种类为 {@link SymbolInterner#NOT_FOUND}
+     */
+    void add(int code, int start, int length, int symbol) {
+        final var slot = size - base;
+        if (slot == kinds.length) {
+            grow(Math.max(16, slot * 2));
+        }
+
+        kinds[slot] = code;
+        starts[slot] = start;
+        lengths[slot] = length;
+        symbols[slot] = symbol;
+        size++;
+    }
+
+    /**
+     * 按顺序加入另一个缓冲区中的所有词法单元, 两者必须引用同一个源文件
+     *
+     * @param other 另一个缓冲区
+     * @param remap 将 other 中的符号 ID 映射为此缓冲区使用的符号 ID, 两者使用同一个驻留表时为 null
+     */
+    void addAll(TokenBuffer other, int[] remap) {
+        if (other.source != source) {
+            throw new RuntimeException("Can NOT merge token buffers of different sources");
+        }
+
+        final var slot = size - base;
+        final var count = other.size - other.base;
+        if (slot + count > kinds.length) {
+            grow(Math.max(slot + count, slot * 2));
+        }
+
+        System.arraycopy(other.kinds, 0, kinds, slot, count);
+        System.arraycopy(other.starts, 0, starts, slot, count);
+        System.arraycopy(other.lengths, 0, lengths, slot, count);
+        for (int i = 0; i < count; i++) {
+            final var symbol = other.symbols[i];
+            symbols[slot + i] = remap == null || symbol == SymbolInterner.NOT_FOUND ? symbol : remap[symbol];
+        }
+        size += count;
+    }
+
+    /**
+     * 加入一个 Token, 其文本被追加到缓冲区自己持有的存储中
+     *
+     * @param token Token
+     * @return 该 Token 在缓冲区中的下标
+     * @throws RuntimeException 该缓冲区引用的是词法分析器的源文件, 不能向其追加文本
+     */
+    public int append(Token token) {
+        if (textual != null) {
+            throw new RuntimeException("Can NOT append tokens to a buffer backed by source file");
+        }
+
+        final var text = token.getText().getBytes(StandardCharsets.ISO_8859_1);
+        final var start = ownedLength;
+        if (ownedLength + text.length > source.capacity()) {
+            final var grown = ByteBuffer.allocate(Math.max(64, (ownedLength + text.length) * 2));
+            grown.put(0, source, 0, ownedLength);
+            source = grown;
+        }
+
+        source.put(start, text);
+        ownedLength += text.length;
+        final var symbol = token.getKindId().equals(IDENTIFIER_KIND)
+            ? interner.intern(source, start, start + text.length)
+            : SymbolInterner.NOT_FOUND;
+        add(token.getKind().getCode(), start, text.length, symbol);
+        return size - 1;
+    }
+
+    /**
+     * 声明下标小于 index 的词法单元不会再被读取. 按需扫描的缓冲区据此丢弃它们, 使占用的内存只与尚未丢弃的词法单元个数有关;
+     * 其它缓冲区保留所有词法单元, 调用此方法没有效果
+     * <br>
+     * 丢弃的个数达到剩余容量的一半时才真正移动数组, 因此每个词法单元的均摊开销是常数.
+     *
+     * @param index 之后仍可能被读取的第一个词法单元的下标
+     */
+    public void discardBefore(int index) {
+        final var discarded = Math.min(index, size) - base;
+        if (scanner == null || discarded < Math.max(MIN_DISCARD, kinds.length / 2)) {
+            return;
+        }
+
+        final var kept = size - base - discarded;
+        System.arraycopy(kinds, discarded, kinds, 0, kept);
+        System.arraycopy(starts, discarded, starts, 0, kept);
+        System.arraycopy(lengths, discarded, lengths, 0, kept);
+        System.arraycopy(symbols, discarded, symbols, 0, kept);
+        base += discarded;
+    }
+
+    /**
+     * @return 缓冲区引用的源文件
+     */
+    ByteBuffer source() {
+        return source;
+    }
+
+    private boolean isTextual(int code) {
+        return textual == null || (code + 1 < textual.length && textual[code + 1]);
+    }
+
+    private void grow(int capacity) {
+        kinds = Arrays.copyOf(kinds, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        symbols = Arrays.copyOf(symbols, capacity);
+    }
+
+    /**
+     * 按需扫描时此方法可能替换各个数组, 因此必须先取得位置, 再读取数组
+     *
+     * @param index 词法单元下标
+     * @return 该词法单元在各数组中的位置
+     */
+    private int slot(int index) {
+        if (index < base || index >= size) {
+            fill(index);
+        }
+        return index - base;
+    }
+
+    /**
+     * 按需扫描到给定的下标为止
+     *
+     * @throws IndexOutOfBoundsException 下标越界, 或该词法单元已被丢弃
+     */
+    private void fill(int index) {
+        while (index >= size && scanner != null && scanner.hasNext()) {
+            scanner.scanNext(this);
+        }
+        if (index < base || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+    }
+
+    // 由 Token 构造缓冲区时, 此种类的 Token 被视为标识符并加入驻留表
+    private static final String IDENTIFIER_KIND = "id";
+    // 丢弃的词法单元少于此数时不移动数组
+    private static final int MIN_DISCARD = 1 << 10;
+
+    private ByteBuffer source;
+    // 为 null 时表示所有种类都保存文本 (由 Token 构造的缓冲区)
+    private final boolean[] textual;
+    private int ownedLength = 0;
+    // 由 Token 构造的缓冲区为标识符分配 ID 的驻留表; 引用源文件的缓冲区为 null, 其符号 ID 由词法分析器填入
+    private final SymbolInterner interner;
+    // 按需扫描时的扫描器, 以及数组中第一个词法单元的下标; 其它缓冲区的扫描器为 null, 下标从 0 开始
+    private final TokenScanner scanner;
+    private int base = 0;
+
+    private int[] kinds = new int[0];
+    private int[] starts = new int[0];
+    private int[] lengths = new int[0];
+    private int[] symbols = new int[0];
+    private int size = 0;
+}
@@ -29,6 +29,8 @@ public class TokenKind extends Term {
     // 允许用作 TokenKind 的 id 的字符串集合
     private static final Map<String, TokenKind> allowed = new HashMap<>();
     private static final TokenKind eof = new TokenKind("$", -1);
+    // 码点到 TokenKind 的直接索引, 下标为码点 + 1 (为 EOF 的 -1 留出位置)
+    private static TokenKind[] byCode = new TokenKind[0];
 
     /**
      * 从码点文件中读取允许的标识符集合
@@ -52,6 +54,12 @@ public class TokenKind extends Term {
 
         // EOF
         allowed.put("$", eof);
+
+        final var maxCode = allowed.values().stream().mapToInt(TokenKind::getCode).max().orElse(-1);
+        byCode = new TokenKind[maxCode + 2];
+        for (final var kind : allowed.values()) {
+            byCode[kind.getCode() + 1] = kind;
+        }
     }
 
     /**
@@ -86,6 +94,19 @@ public class TokenKind extends Term {
         return allowed.get(id);
     }
 
+    /**
+     * @param code 码点
+     * @return 具有该码点的 TokenKind
+     * @throws RuntimeException 码点文件尚未被读取, 或不存在具有该码点的 TokenKind
+     */
+    public static TokenKind fromCode(int code) {
+        if (code + 1 < 0 || code + 1 >= byCode.length || byCode[code + 1] == null) {
+            throw new RuntimeException("Illegal code: " + code);
+        }
+
+        return byCode[code + 1];
+    }
+
     /**
      * @return 代表 EOF 的 TokenKind
      */
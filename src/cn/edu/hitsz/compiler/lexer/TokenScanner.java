@@ -0,0 +1,151 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import cn.edu.hitsz.compiler.symtab.SymbolInterner;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 按需从字节缓冲区中扫描出词法单元的扫描器
+ * <br>
+ * 扫描器只持有当前读取位置, 每次调用 {@link #next()} 才向前扫描一个词法单元, 因此其占用的内存只与当前词法单元的长度有关,
+ * 而与源文件大小无关. 源语言只包含 ASCII 字符, 所以这里直接在字节上进行扫描, 不做字符集解码;
+ * 非 ASCII 字节 (UTF-8 多字节序列的每个字节都不小于 0x80) 与其它无法识别的字符一样被直接跳过.
+ * <br>
+ * 具体的识别工作由规则文件生成的 {@link LexerDfa} 完成, 此处只负责跳过空白, 查询关键字与维护符号表.
+ * 标识符直接以其在源文件中的字节经由 {@link SymbolTable#intern} 查询驻留表并加入符号表, 不直接访问驻留表,
+ * 所以多个扫描器可以同时扫描进同一个 {@link cn.edu.hitsz.compiler.symtab.ConcurrentSymbolTable}.
+ */
+class TokenScanner implements Iterator<Token> {
+    TokenScanner(LexerDfa dfa, ByteBuffer source, SymbolTable symbolTable) {
+        this.dfa = dfa;
+        this.source = source;
+        this.symbolTable = symbolTable;
+        this.pos = source.position();
+        this.limit = source.limit();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !eofReturned;
+    }
+
+    /**
+     * 扫描下一个词法单元, 在源文件末尾返回 EOF
+     *
+     * @return 下一个词法单元
+     */
+    @Override
+    public Token next() {
+        final var code = advance();
+        if (code == EOF_CODE) {
+            return Token.eof();
+        }
+
+        final var kind = TokenKind.fromCode(code);
+        if (code == dfa.identifierCode()) {
+            return Token.normal(kind, symbolTable.get(tokenSymbol).getText());
+        }
+
+        return dfa.isTextual(code) ? Token.normal(kind, textOf(tokenStart, tokenEnd)) : Token.simple(kind);
+    }
+
+    /**
+     * 将剩余的所有词法单元扫描进缓冲区
+     *
+     * @param buffer    词法单元缓冲区
+     * @param appendEof 是否在末尾加入 EOF; 并行扫描中除整个文件的末尾外, 各分块都不应加入 EOF
+     */
+    void scanInto(TokenBuffer buffer, boolean appendEof) {
+        for (var code = advance(); code != EOF_CODE; code = advance()) {
+            buffer.add(code, tokenStart, tokenEnd - tokenStart, tokenSymbol);
+        }
+
+        if (appendEof) {
+            buffer.add(EOF_CODE, tokenStart, 0, SymbolInterner.NOT_FOUND);
+        }
+    }
+
+    /**
+     * 扫描下一个词法单元并加入缓冲区, 在源文件末尾加入 EOF
+     *
+     * @param buffer 词法单元缓冲区
+     */
+    void scanNext(TokenBuffer buffer) {
+        final var code = advance();
+        buffer.add(code, tokenStart, tokenEnd - tokenStart, tokenSymbol);
+    }
+
+    /**
+     * 向前扫描一个词法单元, 但不构造 Token 对象. 词素的位置与符号 ID 可以随后通过 tokenStart, tokenEnd 与 tokenSymbol 取得
+     *
+     * @return 扫描到的词法单元的码点, 在源文件末尾返回 EOF 的码点
+     */
+    private int advance() {
+        if (eofReturned) {
+            throw new NoSuchElementException();
+        }
+
+        while (pos < limit) {
+            final var match = dfa.match(source, pos, limit);
+            if (match == LexerDfa.NO_MATCH) {
+                // 无法识别的字符直接跳过
+                pos++;
+                continue;
+            }
+
+            final var begin = pos;
+            final var code = LexerDfa.codeOf(match);
+            pos = LexerDfa.endOf(match);
+
+            if (code == LexerDfa.SKIP) {
+                continue;
+            }
+
+            tokenStart = begin;
+            tokenEnd = pos;
+            tokenSymbol = SymbolInterner.NOT_FOUND;
+            if (code == dfa.identifierCode()) {
+                final var keyword = dfa.keywordCode(source, begin, pos);
+                if (keyword != LexerDfa.NONE) {
+                    return keyword;
+                }
+
+                // 直接由源文件中的字节得到符号 ID, 不构造字符串
+                tokenSymbol = symbolTable.intern(source, begin, pos);
+            }
+
+            return code;
+        }
+
+        eofReturned = true;
+        tokenStart = limit;
+        tokenEnd = limit;
+        tokenSymbol = SymbolInterner.NOT_FOUND;
+        return EOF_CODE;
+    }
+
+    private String textOf(int begin, int end) {
+        final var bytes = new byte[end - begin];
+        source.get(begin, bytes);
+        // 词素中只可能出现 ASCII 字符, 按 ISO-8859-1 逐字节转换即可
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static final int EOF_CODE = TokenKind.eof().getCode();
+
+    private final LexerDfa dfa;
+    private final ByteBuffer source;
+    private final SymbolTable symbolTable;
+    private final int limit;
+    private int pos;
+    private boolean eofReturned = false;
+
+    // 最近一次扫描到的词法单元的位置
+    private int tokenStart;
+    private int tokenEnd;
+    private int tokenSymbol;
+}
@@ -2,6 +2,8 @@ package cn.edu.hitsz.compiler.parser;
 
 
 import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenBuffer;
+import cn.edu.hitsz.compiler.lexer.TokenKind;
 import cn.edu.hitsz.compiler.parser.table.Production;
 import cn.edu.hitsz.compiler.parser.table.Status;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
@@ -32,6 +34,19 @@ public interface ActionObserver {
      */
     void whenShift(Status currentStatus, Token currentToken);
 
+    /**
+     * 当驱动程序从词法单元缓冲区中执行 Shift 动作时会调用此函数. 观察者可以覆盖此函数, 直接从缓冲区中读取码点或词素,
+     * 从而避免为每个词法单元构造 Token 对象; 默认实现会构造出 Token 并转交给 {@link #whenShift(Status, Token)}.
+     * 缓冲区可能是按需扫描的, 驱动程序移入之后便会丢弃该词法单元, 因此需要的码点, 符号 ID 或数值应在此函数中取出, 不能只保存下标.
+     *
+     * @param currentStatus 当前的状态
+     * @param tokens        词法单元缓冲区
+     * @param index         当前的词法单元在缓冲区中的下标
+     */
+    default void whenShift(Status currentStatus, TokenBuffer tokens, int index) {
+        whenShift(currentStatus, tokens.get(index));
+    }
+
     /**
      * 当驱动程序执行 Reduce 动作时会调用此函数. Goto 到的新状态可以直接从参数中获取:
      * {@code currentStatus.getGoto(production.head()) }
@@ -41,6 +56,57 @@ public interface ActionObserver {
      */
     void whenReduce(Status currentStatus, Production production);
 
+    /**
+     * 驱动程序在开始分析前会对文法中的每个产生式调用一次此函数, 之后只在规约此函数返回 true 的产生式时才调用 {@link #whenReduce}.
+     * 只处理少数几个产生式的观察者可以覆盖此函数, 没有人订阅的规约便不会产生任何回调
+     *
+     * @param production 产生式
+     * @return 是否需要收到该产生式的规约
+     */
+    default boolean observesReduce(Production production) {
+        return true;
+    }
+
+    /**
+     * 驱动程序在开始分析前会对每种词法单元类型调用一次此函数, 之后只在移入此函数返回 true 的类型时才调用 whenShift
+     *
+     * @param kind 词法单元类型
+     * @return 是否需要收到该类型的词法单元的移入
+     */
+    default boolean observesShift(TokenKind kind) {
+        return true;
+    }
+
+    /**
+     * 驱动程序融合单位产生式链 (见 {@link cn.edu.hitsz.compiler.parser.table.UnitChains}) 时, 只有此函数返回 true 的观察者
+     * 才会收到链上各个单位产生式 (体只有一个非终结符的产生式, 如 E -> A) 的 {@link #whenReduce} 回调.
+     * 在这类规约上什么也不做的观察者可以覆盖此函数并返回 false, 从而省去这些回调
+     *
+     * @return 是否需要收到单位产生式的规约
+     */
+    default boolean observesUnitReductions() {
+        return true;
+    }
+
+    /**
+     * 当驱动程序在规约之后执行 Goto 转移时会调用此函数, 只有 {@link #observesGoto()} 返回 true 的观察者才会收到.
+     * 该回调紧跟在对应的 {@link #whenReduce} 之后; 融合单位产生式链时, 链上的每一次规约之后也会补发一次转移,
+     * 因此观察者看到的转移与不融合时相同. 默认实现什么也不做
+     *
+     * @param from       弹出产生式体之后的栈顶状态
+     * @param production 刚刚规约的产生式, 转移所经过的非终结符为其头部
+     * @param to         转移到的状态
+     */
+    default void whenGoto(Status from, Production production, Status to) {
+    }
+
+    /**
+     * @return 是否需要收到 {@link #whenGoto} 回调. 没有观察者需要时驱动程序不会为转移做任何额外的工作
+     */
+    default boolean observesGoto() {
+        return false;
+    }
+
     /**
      * 当驱动程序执行 Accept 动作时会调用此函数.
      *
@@ -0,0 +1,123 @@
+package cn.edu.hitsz.compiler.parser;
+
+import java.util.Arrays;
+
+/**
+ * 具体语法树的结点存储区, 可以在多次分析之间重复使用
+ * <br>
+ * 每个结点只占四个 int: 种类, 第一个子结点, 下一个兄弟结点与词法单元下标, 分别存放在四个平行数组中, 结点以其在数组中的下标标识.
+ * 数组只在容量不足时倍增, 释放时只把结点数清零, 所以释放整棵树的耗时与结点数无关, 之后构造的树直接复用同一块内存.
+ * <br>
+ * 释放之后, 此前在该存储区中构造的树全部失效, 再访问它们会抛出异常.
+ *
+ * @see CstBuilder
+ */
+public final class CstArena {
+    /**
+     * 表示不存在的结点或词法单元
+     */
+    public static final int NONE = -1;
+
+    public CstArena() {
+        this(64);
+    }
+
+    /**
+     * @param capacity 初始能容纳的结点数
+     */
+    public CstArena(int capacity) {
+        final var initial = Math.max(1, capacity);
+        kinds = new int[initial];
+        firstChildren = new int[initial];
+        nextSiblings = new int[initial];
+        tokens = new int[initial];
+    }
+
+    /**
+     * 释放存储区中的所有结点, 耗时与结点数无关
+     */
+    public void release() {
+        count = 0;
+        generation++;
+    }
+
+    /**
+     * @return 当前已分配的结点数
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return 当前能容纳的结点数
+     */
+    public int capacity() {
+        return kinds.length;
+    }
+
+    /**
+     * 分配一个没有子结点与兄弟结点的结点
+     *
+     * @param kind  结点的种类
+     * @param token 词法单元下标, 非终结符结点为 {@link #NONE}
+     * @return 新结点
+     */
+    int allocate(int kind, int token) {
+        final var node = count;
+        if (node == kinds.length) {
+            grow(node * 2);
+        }
+
+        kinds[node] = kind;
+        firstChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        tokens[node] = token;
+        count++;
+        return node;
+    }
+
+    /**
+     * @return 释放的次数, 用于判断在此之前构造的树是否已经失效
+     */
+    int generation() {
+        return generation;
+    }
+
+    int kind(int node) {
+        return kinds[node];
+    }
+
+    int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    int token(int node) {
+        return tokens[node];
+    }
+
+    void setFirstChild(int node, int child) {
+        firstChildren[node] = child;
+    }
+
+    void setNextSibling(int node, int sibling) {
+        nextSiblings[node] = sibling;
+    }
+
+    private void grow(int capacity) {
+        kinds = Arrays.copyOf(kinds, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        tokens = Arrays.copyOf(tokens, capacity);
+    }
+
+    private int[] kinds;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] tokens;
+    private int count = 0;
+    private int generation = 0;
+}
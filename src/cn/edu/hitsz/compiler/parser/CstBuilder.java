@@ -0,0 +1,261 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenBuffer;
+import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.parser.table.Status;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * 在分析过程中构造具体语法树的观察者, 树的结点存放在 {@link CstArena} 的平行数组中, 不为每个结点构造对象
+ * <br>
+ * 移入时为词法单元分配一个叶结点, 规约时为产生式分配一个内部结点, 并把栈顶的若干结点按从左到右的顺序链接为它的子结点.
+ * 子结点总是先于父结点分配, 所以结点的编号顺序恰好是树的后序, 后序遍历只是顺序扫描一段连续的下标.
+ * 接受时栈中只剩下开始符号 (起始产生式的体) 的结点, 它就是树根.
+ * <br>
+ * 结点的种类以一个 int 表示: 叶结点为词法单元的码点 (非负), 内部结点为产生式编号按位取反 (负数).
+ * 叶结点记录词法单元在缓冲区中的下标, 即它是第几个被移入的词法单元; 按需扫描的缓冲区会丢弃已移入的词法单元,
+ * 需要按下标查询词素时应使用预先扫描完整的缓冲区.
+ * <br>
+ * 同一存储区中同一时刻只应有一棵树正在构造. 调用 {@link #release()} 或存储区的 {@link CstArena#release()} 之后树随即失效.
+ * 该观察者不是 {@link ParallelObserver}, 注册了它的 {@link SyntaxAnalyzer#runParallel} 会退化为顺序分析.
+ */
+public class CstBuilder implements ActionObserver {
+    public CstBuilder() {
+        this(new CstArena());
+    }
+
+    /**
+     * @param arena 存放结点的存储区, 可以在多次分析之间重复使用
+     */
+    public CstBuilder(CstArena arena) {
+        this.arena = arena;
+        this.generation = arena.generation();
+        this.base = arena.size();
+    }
+
+    @Override
+    public void whenShift(Status currentStatus, Token currentToken) {
+        push(arena.allocate(currentToken.getKind().getCode(), shifted++));
+    }
+
+    @Override
+    public void whenShift(Status currentStatus, TokenBuffer tokens, int index) {
+        shifted = index + 1;
+        push(arena.allocate(tokens.kind(index), index));
+    }
+
+    @Override
+    public void whenReduce(Status currentStatus, Production production) {
+        final var length = production.body().size();
+        if (length > top) {
+            throw new RuntimeException("Syntax tree stack underflow when reducing " + production);
+        }
+
+        final var node = arena.allocate(~production.index(), CstArena.NONE);
+        if (length > 0) {
+            top -= length;
+            arena.setFirstChild(node, stack[top]);
+            for (int i = top; i + 1 < top + length; i++) {
+                arena.setNextSibling(stack[i], stack[i + 1]);
+            }
+        }
+        push(node);
+    }
+
+    @Override
+    public void whenAccept(Status currentStatus) {
+        if (top != 1) {
+            throw new RuntimeException("Syntax tree stack holds %d nodes on accept".formatted(top));
+        }
+
+        root = stack[--top];
+    }
+
+    @Override
+    public void setSymbolTable(SymbolTable table) {
+        // do nothing
+    }
+
+    /**
+     * 释放整棵树, 耗时与结点数无关. 该树所在的存储区中的其它树也会一并失效
+     */
+    public void release() {
+        arena.release();
+        root = CstArena.NONE;
+    }
+
+    /**
+     * @return 树根, 保证在分析接受之后调用
+     */
+    public int root() {
+        checkValid();
+        if (root == CstArena.NONE) {
+            throw new RuntimeException("Syntax tree has not been built");
+        }
+
+        return root;
+    }
+
+    /**
+     * @return 树中的结点数
+     */
+    public int size() {
+        return root() - base + 1;
+    }
+
+    /**
+     * @param node 结点
+     * @return 结点的种类: 叶结点为码点, 内部结点为产生式编号按位取反
+     */
+    public int kind(int node) {
+        checkValid();
+        return arena.kind(node);
+    }
+
+    /**
+     * @param node 结点
+     * @return 是否为词法单元对应的叶结点
+     */
+    public boolean isToken(int node) {
+        return kind(node) >= 0;
+    }
+
+    /**
+     * @param node 内部结点
+     * @return 规约出该结点的产生式的编号
+     */
+    public int productionIndex(int node) {
+        final var kind = kind(node);
+        if (kind >= 0) {
+            throw new RuntimeException("Node %d is a token".formatted(node));
+        }
+
+        return ~kind;
+    }
+
+    /**
+     * @param node 结点
+     * @return 第一个子结点, 没有时为 {@link CstArena#NONE}
+     */
+    public int firstChild(int node) {
+        checkValid();
+        return arena.firstChild(node);
+    }
+
+    /**
+     * @param node 结点
+     * @return 下一个兄弟结点, 没有时为 {@link CstArena#NONE}
+     */
+    public int nextSibling(int node) {
+        checkValid();
+        return arena.nextSibling(node);
+    }
+
+    /**
+     * @param node 结点
+     * @return 叶结点的词法单元下标, 内部结点为 {@link CstArena#NONE}
+     */
+    public int tokenIndex(int node) {
+        checkValid();
+        return arena.token(node);
+    }
+
+    /**
+     * 按前序遍历树中的结点. 遍历只用一个深度与树高相当的 int 栈, 不为结点装箱
+     *
+     * @return 结点的迭代器
+     */
+    public PrimitiveIterator.OfInt preorder() {
+        final var start = root();
+        return new PrimitiveIterator.OfInt() {
+            @Override
+            public boolean hasNext() {
+                return depth > 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                checkValid();
+
+                // 先压入兄弟结点再压入子结点, 使子树先于兄弟结点被访问
+                final var node = pending[--depth];
+                final var sibling = arena.nextSibling(node);
+                if (sibling != CstArena.NONE && node != start) {
+                    pushPending(sibling);
+                }
+                final var child = arena.firstChild(node);
+                if (child != CstArena.NONE) {
+                    pushPending(child);
+                }
+                return node;
+            }
+
+            private void pushPending(int node) {
+                if (depth == pending.length) {
+                    pending = Arrays.copyOf(pending, depth * 2);
+                }
+                pending[depth++] = node;
+            }
+
+            private int[] pending = {start, 0, 0, 0, 0, 0, 0, 0};
+            private int depth = 1;
+        };
+    }
+
+    /**
+     * 按后序遍历树中的结点. 结点是按后序分配的, 所以遍历只是顺序扫描下标, 不需要沿指针访问
+     *
+     * @return 结点的迭代器
+     */
+    public PrimitiveIterator.OfInt postorder() {
+        final var end = root() + 1;
+        return new PrimitiveIterator.OfInt() {
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                checkValid();
+                return next++;
+            }
+
+            private int next = base;
+        };
+    }
+
+    private void push(int node) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+        }
+        stack[top++] = node;
+    }
+
+    private void checkValid() {
+        if (arena.generation() != generation) {
+            throw new RuntimeException("Syntax tree has been released");
+        }
+    }
+
+    private final CstArena arena;
+    // 构造时存储区的释放次数与结点数: 树的结点从 base 开始连续分配
+    private final int generation;
+    private final int base;
+    // 与驱动程序的状态栈对应的结点栈
+    private int[] stack = new int[16];
+    private int top = 0;
+    private int shifted = 0;
+    private int root = CstArena.NONE;
+}
@@ -0,0 +1,220 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenBuffer;
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.parser.table.GrammarInfo;
+import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.parser.table.Status;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 由 {@link cn.edu.hitsz.compiler.parser.table.ParserGenerator} 生成的语法分析器的基类
+ * <br>
+ * 生成的子类把分析表写成了代码: 每个状态是一个方法, 按当前词法单元的码点 switch 到对应的动作, 产生式长度与 goto 目标都是常量.
+ * 运行时不需要读取或编译分析表, JIT 看到的是直接的分支而不是查表. 此类提供与 {@link SyntaxAnalyzer} 相同的使用方式与观察者回调,
+ * 子类通过 {@link #shift}, {@link #reduce}, {@link #accept} 与 {@link #enter} 操作状态栈并通知观察者.
+ * <br>
+ * 传给观察者的 {@link Status} 只带有编号, 没有 action 与 goto 表, 因为生成的分析器中已经不存在分析表了.
+ * 构造时会检查生成时所用的产生式与终结符码点是否仍与 grammar.txt 和 coding_map.csv 一致, 不一致时说明需要重新生成.
+ */
+public abstract class GeneratedParser {
+    private final SymbolTable symbolTable;
+    private final List<ActionObserver> observers = new ArrayList<>();
+    // 与 SyntaxAnalyzer 相同, 只把事件分派给订阅了它的观察者
+    private ObserverDispatch dispatch;
+    private final Production[] productions;
+    // 传给观察者的状态对象, 按需构造
+    private final Status[] statuses;
+    private TokenBuffer tokens;
+    private int cursor = 0;
+    private int[] statusStack = new int[INITIAL_STACK_CAPACITY];
+    private int top = -1;
+    // 最近一次规约的产生式编号, 供随后的转移通知观察者
+    private int reduced = 0;
+
+    private static final int INITIAL_STACK_CAPACITY = 64;
+
+    /**
+     * 状态方法返回此值表示出错
+     */
+    protected static final int ERROR = -1;
+
+    /**
+     * 状态方法返回此值表示接受
+     */
+    protected static final int ACCEPTED = -2;
+
+    /**
+     * @param symbolTable    符号表
+     * @param stateCount     状态个数
+     * @param productions    以产生式编号为下标的产生式文本, 未被使用的编号为 null
+     * @param terminals      生成时用到的终结符
+     * @param terminalCodes  这些终结符在生成时的码点
+     */
+    protected GeneratedParser(SymbolTable symbolTable, int stateCount, String[] productions,
+                              String[] terminals, int[] terminalCodes) {
+        this.symbolTable = symbolTable;
+        this.statuses = new Status[stateCount];
+
+        // 语法文件中的优先级声明也占行号, 产生式的编号不一定连续, 因此按编号而不是按下标查找
+        final var grammar = new HashMap<Integer, Production>();
+        for (final var production : GrammarInfo.getProductionsInOrder()) {
+            grammar.put(production.index(), production);
+        }
+        this.productions = new Production[productions.length];
+        for (int index = 0; index < productions.length; index++) {
+            if (productions[index] == null) {
+                continue;
+            }
+            final var production = grammar.get(index);
+            if (production == null || !production.toString().equals(productions[index])) {
+                throw new RuntimeException("Generated parser is out of date, production %d is no longer: %s"
+                    .formatted(index, productions[index]));
+            }
+            this.productions[index] = production;
+        }
+
+        for (int i = 0; i < terminals.length; i++) {
+            if (!TokenKind.isAllowed(terminals[i]) || TokenKind.fromString(terminals[i]).getCode() != terminalCodes[i]) {
+                throw new RuntimeException("Generated parser is out of date, code of %s is no longer %d"
+                    .formatted(terminals[i], terminalCodes[i]));
+            }
+        }
+    }
+
+    /**
+     * 注册新的观察者
+     *
+     * @param observer 观察者
+     */
+    public void registerObserver(ActionObserver observer) {
+        observers.add(observer);
+        dispatch = null;
+        observer.setSymbolTable(symbolTable);
+    }
+
+    public void loadTokens(Iterable<Token> tokens) {
+        this.tokens = TokenBuffer.fromTokens(tokens, symbolTable.getInterner());
+        this.cursor = 0;
+    }
+
+    /**
+     * 执行语法分析, 输出与 {@link SyntaxAnalyzer#run()} 相同
+     */
+    public void run() {
+        if (dispatch == null) {
+            dispatch = ObserverDispatch.of(observers,
+                Arrays.stream(productions).filter(Objects::nonNull).toList());
+        }
+        top = 0;
+        statusStack[0] = initState();
+        if (parse() == ACCEPTED) {
+            System.out.println("Parser exits successfully!");
+        } else {
+            System.out.println("Parser exits with errors!");
+        }
+    }
+
+    /**
+     * @return 起始状态
+     */
+    protected abstract int initState();
+
+    /**
+     * 从起始状态开始执行分析, 直到接受或出错
+     *
+     * @return {@link #ACCEPTED} 或 {@link #ERROR}
+     */
+    protected abstract int parse();
+
+    /**
+     * @return 当前词法单元的码点
+     */
+    protected final int kind() {
+        return tokens.kind(cursor);
+    }
+
+    /**
+     * 移入当前词法单元
+     *
+     * @param state  当前状态
+     * @param target 移入后转移到的状态
+     * @return target
+     */
+    protected final int shift(int state, int target) {
+        if (dispatch.observesShift(tokens.kind(cursor))) {
+            dispatch.shift(status(state), tokens, cursor);
+        }
+        cursor++;
+        tokens.discardBefore(cursor);
+        push(target);
+        return target;
+    }
+
+    /**
+     * 按某产生式规约, 弹出产生式体对应的状态
+     *
+     * @param state      当前状态
+     * @param production 产生式编号
+     * @param length     产生式体的长度
+     * @return 弹出之后栈顶的状态, 随后应由 goto 决定转移到的状态并交给 {@link #enter}
+     */
+    protected final int reduce(int state, int production, int length) {
+        if (dispatch.observesReduce(production)) {
+            dispatch.reduce(status(state), productions[production]);
+        }
+        reduced = production;
+        top -= length;
+        return statusStack[top];
+    }
+
+    /**
+     * 规约之后转移到 goto 给出的状态
+     *
+     * @param target 应转移到的状态, 为 {@link #ERROR} 时表示 goto 表中没有对应的项
+     * @return target
+     */
+    protected final int enter(int target) {
+        if (target != ERROR) {
+            if (dispatch.observesGoto()) {
+                dispatch.gotoAfterReduce(status(statusStack[top]), productions[reduced], status(target));
+            }
+            push(target);
+        }
+        return target;
+    }
+
+    /**
+     * 接受
+     *
+     * @param state 当前状态
+     * @return {@link #ACCEPTED}
+     */
+    protected final int accept(int state) {
+        dispatch.accept(status(state));
+        return ACCEPTED;
+    }
+
+    private Status status(int state) {
+        var status = statuses[state];
+        if (status == null) {
+            status = Status.create(state);
+            statuses[state] = status;
+        }
+        return status;
+    }
+
+    private void push(int status) {
+        if (++top == statusStack.length) {
+            statusStack = Arrays.copyOf(statusStack, statusStack.length * 2);
+        }
+        statusStack[top] = status;
+    }
+}
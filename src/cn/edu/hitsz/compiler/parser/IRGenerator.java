@@ -6,6 +6,7 @@ import cn.edu.hitsz.compiler.ir.IRValue;
 import cn.edu.hitsz.compiler.ir.IRVariable;
 import cn.edu.hitsz.compiler.ir.Instruction;
 import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenBuffer;
 import cn.edu.hitsz.compiler.lexer.TokenKind;
 import cn.edu.hitsz.compiler.parser.table.Production;
 import cn.edu.hitsz.compiler.parser.table.Status;
@@ -21,9 +22,15 @@ import java.util.Stack;
 /**
  *
  */
-public class IRGenerator implements ActionObserver {
+public class IRGenerator implements ParallelObserver<IRGenerator> {
     private Stack<IRValue> irStack = new Stack<>();
     private List<Instruction> irs = new ArrayList<>();
+    private final int idCode = TokenKind.fromString("id").getCode();
+    private final int intConstCode = TokenKind.fromString("IntConst").getCode();
+    // 分块观察者按创建顺序记下的尚未分配的临时变量; 非分块观察者为 null, 直接创建真正的临时变量
+    private List<IRVariable> pendingTemps;
+    // 变量与临时变量的 ID 来自符号表的驻留表
+    private SymbolTable symbolTable;
 
     @Override
     public void whenShift(Status currentStatus, Token currentToken) {
@@ -31,7 +38,18 @@ public class IRGenerator implements ActionObserver {
         if (currentToken.getKindId().equals("IntConst")) {
             irStack.push(IRImmediate.of(Integer.parseInt(currentToken.getText())));
         } else if (currentToken.getKindId().equals("id")) {
-            irStack.push(IRVariable.named(currentToken.getText()));
+            irStack.push(IRVariable.named(symbolTable.getInterner(), currentToken.getText()));
+        }
+    }
+
+    @Override
+    public void whenShift(Status currentStatus, TokenBuffer tokens, int index) {
+        // 直接从缓冲区读取码点, 数值与符号 ID, 不构造 Token
+        final var code = tokens.kind(index);
+        if (code == intConstCode) {
+            irStack.push(IRImmediate.of(tokens.intValue(index)));
+        } else if (code == idCode) {
+            irStack.push(IRVariable.named(symbolTable.getInterner(), tokens.symbol(index)));
         }
     }
 
@@ -57,7 +75,7 @@ public class IRGenerator implements ActionObserver {
                 irStack.pop();
                 IRValue rhs = irStack.peek();
                 irStack.pop();
-                IRVariable t = IRVariable.temp();
+                IRVariable t = newTemp();
                 irs.add(Instruction.createAdd(t, rhs, lhs));
                 irStack.push(t);
                 break;
@@ -66,7 +84,7 @@ public class IRGenerator implements ActionObserver {
                 irStack.pop();
                 rhs = irStack.peek();
                 irStack.pop();
-                t = IRVariable.temp();
+                t = newTemp();
                 irs.add(Instruction.createSub(t, rhs, lhs));
                 irStack.push(t);
                 break;
@@ -75,7 +93,7 @@ public class IRGenerator implements ActionObserver {
                 irStack.pop();
                 rhs = irStack.peek();
                 irStack.pop();
-                t = IRVariable.temp();
+                t = newTemp();
                 irs.add(Instruction.createMul(t, rhs, lhs));
                 irStack.push(t);
                 break;
@@ -84,6 +102,47 @@ public class IRGenerator implements ActionObserver {
         }
     }
 
+    @Override
+    public boolean observesReduce(Production production) {
+        return switch (production.index()) {
+            case 6, 7, 8, 9, 11 -> true;
+            default -> false;
+        };
+    }
+
+    @Override
+    public boolean observesShift(TokenKind kind) {
+        // 只有 id 与 IntConst 会压入属性栈
+        return kind.getCode() == idCode || kind.getCode() == intConstCode;
+    }
+
+
+    @Override
+    public IRGenerator forChunk() {
+        final var chunk = new IRGenerator();
+        chunk.symbolTable = symbolTable;
+        chunk.pendingTemps = new ArrayList<>();
+        return chunk;
+    }
+
+    @Override
+    public void merge(IRGenerator chunk) {
+        // 按分块中创建的顺序分配临时变量, 编号与顺序生成时一致, 分块中的指令引用的正是这些变量
+        for (final var temp : chunk.pendingTemps) {
+            temp.assignTemp(symbolTable.getInterner());
+        }
+        irs.addAll(chunk.irs);
+    }
+
+    private IRVariable newTemp() {
+        if (pendingTemps == null) {
+            return IRVariable.temp(symbolTable.getInterner());
+        }
+
+        final var temp = IRVariable.pendingTemp();
+        pendingTemps.add(temp);
+        return temp;
+    }
 
     @Override
     public void whenAccept(Status currentStatus) {
@@ -93,6 +152,7 @@ public class IRGenerator implements ActionObserver {
     @Override
     public void setSymbolTable(SymbolTable table) {
         // TODO
+        symbolTable = table;
     }
 
     public List<Instruction> getIR() {
@@ -0,0 +1,190 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenBuffer;
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.parser.table.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * 观察者的分派表, 由驱动程序在开始分析前根据各观察者订阅的产生式与词法单元类型构造
+ * <br>
+ * 每个产生式 (以编号为下标) 与每个码点 (以码点 + 1 为下标) 的订阅者按注册顺序连续存放在一个扁平数组中,
+ * 编号为 i 的产生式的订阅者为 reduceObservers[reduceOffsets[i], reduceOffsets[i + 1]), 码点同理.
+ * 没有人订阅的规约与移入只需比较两个下标, 驱动程序连状态对象都不必取出.
+ * <br>
+ * 融合单位产生式链时补发的规约另有一张表, 只包含同时需要单位产生式规约的订阅者. Goto 转移只通知订阅了它的观察者,
+ * Accept 总是通知所有观察者.
+ */
+final class ObserverDispatch {
+    /**
+     * @param observers   按注册顺序排列的观察者
+     * @param productions 文法中的所有产生式
+     * @return 分派表
+     */
+    static ObserverDispatch of(List<ActionObserver> observers, List<Production> productions) {
+        return new ObserverDispatch(observers, productions);
+    }
+
+    /**
+     * @param code 码点
+     * @return 是否有观察者订阅了该码点的移入
+     */
+    boolean observesShift(int code) {
+        final var column = code + 1;
+        return column >= 0 && column < shiftOffsets.length - 1 && shiftOffsets[column] != shiftOffsets[column + 1];
+    }
+
+    /**
+     * 通知订阅了当前词法单元的观察者, 调用前应先以 {@link #observesShift} 确认存在订阅者
+     */
+    void shift(Status status, TokenBuffer tokens, int index) {
+        final var column = tokens.kind(index) + 1;
+        for (int i = shiftOffsets[column], end = shiftOffsets[column + 1]; i < end; i++) {
+            shiftObservers[i].whenShift(status, tokens, index);
+        }
+    }
+
+    /**
+     * 同 {@link #shift(Status, TokenBuffer, int)}, 用于以 Token 给出的词法单元
+     */
+    void shift(Status status, Token token) {
+        final var column = token.getKind().getCode() + 1;
+        for (int i = shiftOffsets[column], end = shiftOffsets[column + 1]; i < end; i++) {
+            shiftObservers[i].whenShift(status, token);
+        }
+    }
+
+    /**
+     * @param production 产生式编号
+     * @return 是否有观察者订阅了该产生式的规约
+     */
+    boolean observesReduce(int production) {
+        return production >= 0 && production < reduceOffsets.length - 1
+            && reduceOffsets[production] != reduceOffsets[production + 1];
+    }
+
+    /**
+     * 通知订阅了该产生式的观察者, 调用前应先以 {@link #observesReduce} 确认存在订阅者
+     */
+    void reduce(Status status, Production production) {
+        final var index = production.index();
+        for (int i = reduceOffsets[index], end = reduceOffsets[index + 1]; i < end; i++) {
+            reduceObservers[i].whenReduce(status, production);
+        }
+    }
+
+    /**
+     * @return 是否有观察者需要收到融合的单位产生式链上的规约
+     */
+    boolean observesUnitReductions() {
+        return unitObservers.length != 0;
+    }
+
+    /**
+     * @param production 产生式编号
+     * @return 是否有观察者需要收到融合的链上该产生式的规约
+     */
+    boolean observesUnitReduce(int production) {
+        return production >= 0 && production < unitOffsets.length - 1
+            && unitOffsets[production] != unitOffsets[production + 1];
+    }
+
+    /**
+     * 补发融合的链上的一次规约, 调用前应先以 {@link #observesUnitReduce} 确认存在订阅者
+     */
+    void unitReduce(Status status, Production production) {
+        final var index = production.index();
+        for (int i = unitOffsets[index], end = unitOffsets[index + 1]; i < end; i++) {
+            unitObservers[i].whenReduce(status, production);
+        }
+    }
+
+    /**
+     * @return 是否有观察者订阅了 Goto 转移
+     */
+    boolean observesGoto() {
+        return gotoObservers.length != 0;
+    }
+
+    /**
+     * 通知订阅了 Goto 转移的观察者, 调用前应先以 {@link #observesGoto} 确认存在订阅者
+     */
+    void gotoAfterReduce(Status from, Production production, Status to) {
+        for (final var observer : gotoObservers) {
+            observer.whenGoto(from, production, to);
+        }
+    }
+
+    void accept(Status status) {
+        for (final var observer : observers) {
+            observer.whenAccept(status);
+        }
+    }
+
+    private ObserverDispatch(List<ActionObserver> observers, List<Production> productions) {
+        this.observers = observers.toArray(new ActionObserver[0]);
+        this.gotoObservers = observers.stream().filter(ActionObserver::observesGoto).toArray(ActionObserver[]::new);
+
+        final var kinds = TokenKind.allAllowedTokenKinds().values();
+        final var kindColumns = new TokenKind[kinds.stream().mapToInt(TokenKind::getCode).max().orElse(-1) + 2];
+        for (final var kind : kinds) {
+            kindColumns[kind.getCode() + 1] = kind;
+        }
+        this.shiftOffsets = new int[kindColumns.length + 1];
+        this.shiftObservers = flatten(this.observers, kindColumns, ActionObserver::observesShift, shiftOffsets);
+
+        final var byIndex = new Production[productions.stream().mapToInt(Production::index).max().orElse(-1) + 1];
+        for (final var production : productions) {
+            byIndex[production.index()] = production;
+        }
+        this.reduceOffsets = new int[byIndex.length + 1];
+        this.reduceObservers = flatten(this.observers, byIndex, ActionObserver::observesReduce, reduceOffsets);
+        this.unitOffsets = new int[byIndex.length + 1];
+        this.unitObservers = flatten(this.observers, byIndex,
+            (observer, production) -> observer.observesUnitReductions() && observer.observesReduce(production),
+            unitOffsets);
+    }
+
+    /**
+     * 把每一行的订阅者依次排进一个数组
+     *
+     * @param rows       每一行对应的订阅对象, 为 null 的行没有订阅者
+     * @param subscribes 观察者是否订阅了某一行
+     * @param offsets    用于存放每一行的起始下标, 长度为行数 + 1
+     * @return 所有行的订阅者
+     */
+    private static <T> ActionObserver[] flatten(ActionObserver[] observers, T[] rows,
+                                                BiPredicate<ActionObserver, T> subscribes, int[] offsets) {
+        final var result = new ArrayList<ActionObserver>();
+        for (int row = 0; row < rows.length; row++) {
+            offsets[row] = result.size();
+            if (rows[row] == null) {
+                continue;
+            }
+            for (final var observer : observers) {
+                if (subscribes.test(observer, rows[row])) {
+                    result.add(observer);
+                }
+            }
+        }
+        offsets[rows.length] = result.size();
+        return result.toArray(new ActionObserver[0]);
+    }
+
+    private final ActionObserver[] observers;
+    private final ActionObserver[] gotoObservers;
+
+    private final int[] shiftOffsets;
+    private final ActionObserver[] shiftObservers;
+
+    private final int[] reduceOffsets;
+    private final ActionObserver[] reduceObservers;
+
+    private final int[] unitOffsets;
+    private final ActionObserver[] unitObservers;
+}
@@ -0,0 +1,267 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.TokenBuffer;
+import cn.edu.hitsz.compiler.parser.table.CompiledTable;
+import cn.edu.hitsz.compiler.parser.table.Production;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 流水线方式的观察者分派: 驱动程序把移入, 规约, 转移与接受事件写入一个单生产者多消费者的环形缓冲区,
+ * 每个观察者在自己的线程上按顺序消费这些事件
+ * <br>
+ * 每个事件是一个 long: 低 3 位为种类, 接着 29 位为状态编号, 高 32 位为词法单元下标或产生式编号.
+ * 转移事件记录的是弹出产生式体之后的栈顶状态与规约的产生式, 转移到的状态由消费者查表得到.
+ * 驱动程序只写入至少有一个观察者订阅的事件, 每写入一批才发布一次写游标; 每个消费者也每处理一批才发布一次读游标.
+ * 缓冲区满时驱动程序等待最慢的消费者, 消费者没有新事件时等待驱动程序. 等待时先自旋, 再让出处理器, 最后短暂休眠.
+ * <br>
+ * 每个观察者只在一个线程上被调用, 收到的事件及其顺序与同步分派时完全相同, 因此各自的输出不变;
+ * 但不同观察者之间不再有先后关系, 它们不应共享可变状态. 传给观察者的 Status 由各线程从编译后的表中按需取出,
+ * 同一状态在不同线程上可能得到相等但不同的对象.
+ * <br>
+ * 内置的观察者会修改共享的状态 (IR 临时变量从符号表的驻留表中分配 ID, 语义分析修改符号表), 所以对 {@link ParallelObserver},
+ * 消费者线程上观察的是由 {@link ParallelObserver#forChunk()} 得到的分块观察者, 它只把结果记在自己内部;
+ * 所有消费者结束之后, 再在驱动程序线程上把它并入注册的观察者, 并向注册的观察者补发接受事件.
+ */
+final class ObserverPipeline {
+    /**
+     * 为每个观察者启动一个消费者线程
+     *
+     * @param observers   按注册顺序排列的观察者
+     * @param productions 文法中的所有产生式
+     * @param table       驱动程序使用的表, 用于把事件中的编号还原为状态与产生式
+     * @param tokens      词法单元缓冲区, 分析过程中不再改变
+     * @return 已经启动的流水线
+     */
+    static ObserverPipeline start(List<ActionObserver> observers, List<Production> productions,
+                                  CompiledTable table, TokenBuffer tokens) {
+        final var pipeline = new ObserverPipeline(observers, productions, table, tokens);
+        for (final var consumer : pipeline.consumers) {
+            consumer.thread.start();
+        }
+        return pipeline;
+    }
+
+    void shift(int state, int index) {
+        put(event(SHIFT, state, index));
+    }
+
+    void reduce(int state, int production) {
+        put(event(REDUCE, state, production));
+    }
+
+    void unitReduce(int state, int production) {
+        put(event(UNIT_REDUCE, state, production));
+    }
+
+    void gotoAfterReduce(int from, int production) {
+        put(event(GOTO, from, production));
+    }
+
+    void accept(int state) {
+        put(event(ACCEPT, state, 0));
+    }
+
+    /**
+     * 通知所有消费者分析已经结束, 并等待它们处理完所有事件, 然后在当前线程上合并各分块观察者的结果
+     *
+     * @throws RuntimeException 某个观察者在处理事件时抛出了异常
+     */
+    void finish() {
+        put(event(END, 0, 0));
+        published.lazySet(cursor);
+
+        for (final var consumer : consumers) {
+            try {
+                consumer.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for observers", e);
+            }
+        }
+        for (final var consumer : consumers) {
+            if (consumer.failure != null) {
+                throw new RuntimeException("Observer failed: " + consumer.observer, consumer.failure);
+            }
+        }
+        for (final var consumer : consumers) {
+            if (consumer.target != consumer.observer) {
+                SyntaxAnalyzer.merge(consumer.observer, consumer.target);
+                if (consumer.accepted != NO_STATE) {
+                    consumer.observer.whenAccept(table.status(consumer.accepted));
+                }
+            }
+        }
+    }
+
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+    // 每隔这么多个事件发布一次游标
+    private static final int BATCH = 1 << 10;
+
+    private static final int SHIFT = 0;
+    private static final int REDUCE = 1;
+    private static final int UNIT_REDUCE = 2;
+    private static final int ACCEPT = 3;
+    private static final int END = 4;
+    private static final int GOTO = 5;
+    private static final int NO_STATE = -1;
+
+    private final long[] ring = new long[CAPACITY];
+    // 已发布的写游标, 此前的事件对消费者可见
+    private final AtomicLong published = new AtomicLong();
+    private final List<Consumer> consumers = new ArrayList<>();
+    private final CompiledTable table;
+    private final TokenBuffer tokens;
+    // 只由驱动程序线程读写: 下一个事件的序号, 以及上一次看到的最慢的消费者的读游标
+    private long cursor = 0;
+    private long gate = 0;
+
+    private ObserverPipeline(List<ActionObserver> observers, List<Production> productions,
+                             CompiledTable table, TokenBuffer tokens) {
+        this.table = table;
+        this.tokens = tokens;
+        for (int i = 0; i < observers.size(); i++) {
+            final var observer = observers.get(i);
+            final var target = observer instanceof ParallelObserver<?> parallel ? parallel.forChunk() : observer;
+            consumers.add(new Consumer(observer, target, ObserverDispatch.of(List.of(target), productions), i));
+        }
+    }
+
+    private static long event(int kind, int state, int argument) {
+        return ((long) argument << 32) | ((long) state << 3) | kind;
+    }
+
+    private void put(long event) {
+        final var sequence = cursor;
+        if (sequence - CAPACITY >= gate) {
+            // 缓冲区已满, 先发布已写入的事件, 再等待最慢的消费者腾出位置
+            published.lazySet(sequence);
+            for (int idle = 0; sequence - CAPACITY >= (gate = slowest()); idle++) {
+                pause(idle);
+            }
+        }
+
+        ring[(int) sequence & MASK] = event;
+        cursor = sequence + 1;
+        if ((cursor & (BATCH - 1)) == 0) {
+            published.lazySet(cursor);
+        }
+    }
+
+    private long slowest() {
+        var result = Long.MAX_VALUE;
+        for (final var consumer : consumers) {
+            result = Math.min(result, consumer.sequence.get());
+        }
+        return result;
+    }
+
+    private static void pause(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+
+    /**
+     * 一个观察者及其消费者线程
+     */
+    private final class Consumer implements Runnable {
+        // 注册的观察者, 以及在消费者线程上实际收到事件的观察者 (分块观察者或注册的观察者本身)
+        private final ActionObserver observer;
+        private final ActionObserver target;
+        // 只包含 target 的分派表, 用于跳过它没有订阅的事件
+        private final ObserverDispatch dispatch;
+        private final Thread thread;
+        // 已处理完的事件的个数; 出错之后为 Long.MAX_VALUE, 不再阻挡驱动程序
+        private final AtomicLong sequence = new AtomicLong();
+        private volatile Throwable failure;
+        // 分块观察者不接收接受事件, 由 finish() 在合并之后补发给注册的观察者
+        private int accepted = NO_STATE;
+
+        private Consumer(ActionObserver observer, ActionObserver target, ObserverDispatch dispatch, int index) {
+            this.observer = observer;
+            this.target = target;
+            this.dispatch = dispatch;
+            this.thread = new Thread(this, "parser-observer-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                var next = 0L;
+                var idle = 0;
+                while (true) {
+                    final var available = published.get();
+                    if (next == available) {
+                        pause(idle++);
+                        continue;
+                    }
+
+                    idle = 0;
+                    for (; next < available; next++) {
+                        if (!handle(ring[(int) next & MASK])) {
+                            return;
+                        }
+                        if (((next + 1) & (BATCH - 1)) == 0) {
+                            sequence.lazySet(next + 1);
+                        }
+                    }
+                    sequence.lazySet(next);
+                }
+            } catch (Throwable e) {
+                failure = e;
+                sequence.set(Long.MAX_VALUE);
+            }
+        }
+
+        /**
+         * @return 是否还有后续事件
+         */
+        private boolean handle(long event) {
+            final var kind = (int) event & 7;
+            final var state = (int) event >>> 3;
+            final var argument = (int) (event >>> 32);
+            switch (kind) {
+                case SHIFT:
+                    if (dispatch.observesShift(tokens.kind(argument))) {
+                        dispatch.shift(table.status(state), tokens, argument);
+                    }
+                    return true;
+                case REDUCE:
+                    if (dispatch.observesReduce(argument)) {
+                        dispatch.reduce(table.status(state), table.production(argument));
+                    }
+                    return true;
+                case UNIT_REDUCE:
+                    if (dispatch.observesUnitReduce(argument)) {
+                        dispatch.unitReduce(table.status(state), table.production(argument));
+                    }
+                    return true;
+                case GOTO:
+                    if (dispatch.observesGoto()) {
+                        dispatch.gotoAfterReduce(table.status(state), table.production(argument),
+                            table.status(table.gotoAfterReduce(state, argument)));
+                    }
+                    return true;
+                case ACCEPT:
+                    if (target != observer) {
+                        accepted = state;
+                    } else {
+                        dispatch.accept(table.status(state));
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package cn.edu.hitsz.compiler.parser;
+
+/**
+ * 可以分块并行工作的观察者, 供 {@link SyntaxAnalyzer#runParallel} 与 {@link SyntaxAnalyzer#runPipelined()} 使用
+ * <br>
+ * 并行分析时, 源程序在顶层的分号处被切分为若干块, 每一块由 {@link #forChunk()} 得到的新观察者在工作线程上独立观察.
+ * 分块观察者不应修改任何共享的状态 (如符号表, IR 临时变量的全局编号), 而应把结果记在自己内部.
+ * 所有分块都分析完毕之后, 驱动程序按分块的顺序依次调用 {@link #merge}, 把它们的结果并入此观察者.
+ * 合并之后此观察者的状态应与顺序地观察完这些块之后相同.
+ * <br>
+ * {@link SyntaxAnalyzer#runPipelined()} 也依赖这一约定: 消费者线程上观察整个分析过程的是一个分块观察者,
+ * 分析结束后它被并入此观察者, 之后此观察者才收到接受事件.
+ *
+ * @param <T> 分块观察者的类型, 一般即实现类自身
+ */
+public interface ParallelObserver<T extends ParallelObserver<T>> extends ActionObserver {
+    /**
+     * @return 一个用于观察某一块的新观察者, 它会在工作线程上收到该块中的所有回调
+     */
+    T forChunk();
+
+    /**
+     * 并入一块的结果, 驱动程序按分块在源程序中的顺序调用此函数
+     *
+     * @param chunk 由 {@link #forChunk()} 得到, 并已观察完一块的观察者
+     */
+    void merge(T chunk);
+}
@@ -0,0 +1,312 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenBuffer;
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.parser.table.GrammarInfo;
+import cn.edu.hitsz.compiler.parser.table.LRTable;
+import cn.edu.hitsz.compiler.parser.table.NonTerminal;
+import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.parser.table.Status;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+import cn.edu.hitsz.compiler.utils.FileUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * 统计语法分析中各状态, 产生式与词法单元类型出现次数的观察者, 用于找出分析过程中最频繁的部分
+ * <br>
+ * 统计移入的 (状态, 码点), 规约的 (状态, 产生式) 与转移的 (出发状态, 产生式) 的次数, 以及状态栈的最大深度.
+ * 计数存放在以状态编号为行的扁平 long 数组中, 每次回调只有一次数组自增; 数组在遇到更大的状态编号时翻倍.
+ * 栈深度由事件推算: 移入与转移各压入一个状态, 规约弹出产生式体长度个状态. 融合单位产生式链时驱动程序会补发链上的规约与转移,
+ * 所以统计结果与不融合时相同, 单位产生式所占的规约比例即消除单位产生式所能省去的工作.
+ * <br>
+ * 同一个实例可以在多次分析之间复用, 计数会累加. 结果可以输出为按次数排序的报告, 或与 {@link LRTable#dumpTable(String)} 逐格对齐的 CSV.
+ */
+public class ParserProfiler implements ParallelObserver<ParserProfiler> {
+    public ParserProfiler() {
+        this(1);
+    }
+
+    /**
+     * @param depth 分析开始时状态栈中已有的状态数
+     */
+    private ParserProfiler(int depth) {
+        final var productions = GrammarInfo.getProductionsInOrder();
+        this.productions = new Production[productions.stream().mapToInt(Production::index).max().orElse(0) + 1];
+        this.lengths = new int[this.productions.length];
+        for (final var production : productions) {
+            this.productions[production.index()] = production;
+            this.lengths[production.index()] = production.body().size();
+        }
+        this.kindColumns = TokenKind.allAllowedTokenKinds().values().stream()
+            .mapToInt(TokenKind::getCode).max().orElse(-1) + 2;
+        this.depth = depth;
+        this.maxDepth = depth;
+    }
+
+    @Override
+    public void whenShift(Status currentStatus, Token currentToken) {
+        shift(currentStatus.index(), currentToken.getKind().getCode());
+    }
+
+    @Override
+    public void whenShift(Status currentStatus, TokenBuffer tokens, int index) {
+        shift(currentStatus.index(), tokens.kind(index));
+    }
+
+    @Override
+    public void whenReduce(Status currentStatus, Production production) {
+        final var state = currentStatus.index();
+        reserve(state);
+        reductions[state * productions.length + production.index()]++;
+        depth -= lengths[production.index()];
+    }
+
+    @Override
+    public void whenGoto(Status from, Production production, Status to) {
+        final var state = from.index();
+        reserve(state);
+        gotos[state * productions.length + production.index()]++;
+        maxDepth = Math.max(maxDepth, ++depth);
+    }
+
+    @Override
+    public boolean observesGoto() {
+        return true;
+    }
+
+    @Override
+    public void whenAccept(Status currentStatus) {
+        // 为下一次分析重新从起始状态开始推算栈深度
+        depth = 1;
+    }
+
+    @Override
+    public void setSymbolTable(SymbolTable table) {
+        // do nothing
+    }
+
+    @Override
+    public ParserProfiler forChunk() {
+        // 分块的栈深度从分块的起始状态算起, 合并时再加上起始状态以下的深度
+        return new ParserProfiler(0);
+    }
+
+    @Override
+    public void merge(ParserProfiler chunk) {
+        reserve(chunk.stateRows - 1);
+        add(shifts, chunk.shifts);
+        add(reductions, chunk.reductions);
+        add(gotos, chunk.gotos);
+        maxDepth = Math.max(maxDepth, depth + chunk.maxDepth);
+        depth += chunk.depth;
+    }
+
+    /**
+     * @return 状态栈曾经达到的最大深度 (状态个数)
+     */
+    public int getMaxStackDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return 移入的总次数
+     */
+    public long getShiftCount() {
+        return Arrays.stream(shifts).sum();
+    }
+
+    /**
+     * @return 规约的总次数, 包括融合的单位产生式链上的规约
+     */
+    public long getReductionCount() {
+        return Arrays.stream(reductions).sum();
+    }
+
+    /**
+     * @return 转移的总次数
+     */
+    public long getGotoCount() {
+        return Arrays.stream(gotos).sum();
+    }
+
+    /**
+     * 输出按次数从高到低排序的报告: 各产生式的规约次数 (标出单位产生式), 各 (状态, 词法单元类型) 的移入次数,
+     * 各 (状态, 非终结符) 的转移次数, 以及各状态上发生的事件总数
+     *
+     * @param path 输出路径
+     */
+    public void dumpReport(String path) {
+        final var byProduction = new long[productions.length];
+        final var byState = new long[stateRows];
+        for (int state = 0; state < stateRows; state++) {
+            for (int production = 0; production < productions.length; production++) {
+                final var cell = state * productions.length + production;
+                byProduction[production] += reductions[cell];
+                byState[state] += reductions[cell] + gotos[cell];
+            }
+            for (int column = 0; column < kindColumns; column++) {
+                byState[state] += shifts[state * kindColumns + column];
+            }
+        }
+
+        final var shiftCount = getShiftCount();
+        final var reductionCount = getReductionCount();
+        final var gotoCount = getGotoCount();
+        final var unitCount = IntStream.range(0, productions.length)
+            .filter(production -> isUnit(productions[production])).mapToLong(production -> byProduction[production]).sum();
+
+        final var lines = new ArrayList<String>();
+        lines.add("shifts: %d".formatted(shiftCount));
+        lines.add("reductions: %d (unit productions: %d, %s)".formatted(reductionCount, unitCount, share(unitCount, reductionCount)));
+        lines.add("gotos: %d".formatted(gotoCount));
+        lines.add("max stack depth: %d".formatted(maxDepth));
+
+        lines.add("");
+        lines.add("== reductions by production ==");
+        for (final var production : ranked(byProduction)) {
+            lines.add("%12d %7s  %s%s".formatted(byProduction[production], share(byProduction[production], reductionCount),
+                productions[production], isUnit(productions[production]) ? "  [unit]" : ""));
+        }
+
+        lines.add("");
+        lines.add("== shifts by (state, token kind) ==");
+        for (final var cell : ranked(shifts)) {
+            lines.add("%12d %7s  state %d, %s".formatted(shifts[cell], share(shifts[cell], shiftCount),
+                cell / kindColumns, TokenKind.fromCode(cell % kindColumns - 1)));
+        }
+
+        lines.add("");
+        lines.add("== gotos by (state, non-terminal) ==");
+        // 同一状态经同一非终结符的转移可能来自不同的产生式, 先按非终结符合并再排序
+        final var byHead = new HashMap<String, long[]>();
+        for (int cell = 0; cell < gotos.length; cell++) {
+            if (gotos[cell] != 0) {
+                final var head = productions[cell % productions.length].head();
+                byHead.computeIfAbsent("state %d, %s".formatted(cell / productions.length, head), key -> new long[1])[0] += gotos[cell];
+            }
+        }
+        byHead.entrySet().stream()
+            .sorted(Comparator.comparingLong(entry -> -entry.getValue()[0]))
+            .limit(REPORT_LIMIT)
+            .forEach(entry -> lines.add("%12d %7s  %s".formatted(entry.getValue()[0], share(entry.getValue()[0], gotoCount), entry.getKey())));
+
+        lines.add("");
+        lines.add("== events by state ==");
+        final var eventCount = shiftCount + reductionCount + gotoCount;
+        for (final var state : ranked(byState)) {
+            lines.add("%12d %7s  state %d".formatted(byState[state], share(byState[state], eventCount), state));
+        }
+
+        FileUtils.writeLines(path, lines);
+    }
+
+    /**
+     * 输出与 {@link LRTable#dumpTable(String)} 表头, 行与列完全相同的 CSV, 可直接并排对照或绘制热力图:
+     * ACTION 部分的每一格为该状态下移入该终结符的次数, GOTO 部分的每一格为从该状态经该非终结符转移的次数, 次数为 0 的格留空
+     *
+     * @param path  输出路径
+     * @param table 分析所用的表
+     */
+    public void dumpHeatmap(String path, LRTable table) {
+        final var byHead = new HashMap<NonTerminal, List<Integer>>();
+        for (final var production : productions) {
+            if (production != null) {
+                byHead.computeIfAbsent(production.head(), head -> new ArrayList<>()).add(production.index());
+            }
+        }
+
+        table.dumpTable(path,
+            (status, terminal) -> {
+                final var column = terminal.getCode() + 1;
+                return status.index() < stateRows && column >= 0 && column < kindColumns
+                    ? cell(shifts[status.index() * kindColumns + column]) : "";
+            },
+            (status, nonTerminal) -> {
+                var count = 0L;
+                if (status.index() < stateRows) {
+                    for (final var production : byHead.getOrDefault(nonTerminal, List.of())) {
+                        count += gotos[status.index() * productions.length + production];
+                    }
+                }
+                return cell(count);
+            });
+    }
+
+    private void shift(int state, int code) {
+        reserve(state);
+        shifts[state * kindColumns + code + 1]++;
+        maxDepth = Math.max(maxDepth, ++depth);
+    }
+
+    /**
+     * 保证计数数组中有第 state 行
+     */
+    private void reserve(int state) {
+        if (state < stateRows) {
+            return;
+        }
+
+        stateRows = Math.max(INITIAL_STATE_ROWS, Math.max(state + 1, stateRows * 2));
+        shifts = Arrays.copyOf(shifts, stateRows * kindColumns);
+        reductions = Arrays.copyOf(reductions, stateRows * productions.length);
+        gotos = Arrays.copyOf(gotos, stateRows * productions.length);
+    }
+
+    private static void add(long[] counts, long[] chunk) {
+        for (int i = 0; i < chunk.length; i++) {
+            counts[i] += chunk[i];
+        }
+    }
+
+    /**
+     * @return 计数不为 0 的下标, 按计数从高到低排列, 至多 {@link #REPORT_LIMIT} 个
+     */
+    private static List<Integer> ranked(long[] counts) {
+        return IntStream.range(0, counts.length)
+            .filter(i -> counts[i] != 0)
+            .boxed()
+            .sorted(Comparator.comparingLong(i -> -counts[i]))
+            .limit(REPORT_LIMIT)
+            .toList();
+    }
+
+    private static boolean isUnit(Production production) {
+        return production != null && production.body().size() == 1 && production.body().get(0) instanceof NonTerminal;
+    }
+
+    private static String share(long count, long total) {
+        return "%.2f%%".formatted(total == 0 ? 0.0 : 100.0 * count / total);
+    }
+
+    private static String cell(long count) {
+        return count == 0 ? "" : Long.toString(count);
+    }
+
+    // 报告中每一节列出的条目数
+    private static final int REPORT_LIMIT = 20;
+    private static final int INITIAL_STATE_ROWS = 64;
+
+    // 以产生式编号为下标
+    private final Production[] productions;
+    // 各产生式体的长度, 即规约时弹出的状态数
+    private final int[] lengths;
+    // 码点 + 1 的上界, 为 EOF 的 -1 留出位置
+    private final int kindColumns;
+    // 计数数组当前的行数
+    private int stateRows = 0;
+    // [状态][码点 + 1]: 在该状态下移入该类型的词法单元的次数
+    private long[] shifts = new long[0];
+    // [状态][产生式编号]: 在该状态下按该产生式规约的次数
+    private long[] reductions = new long[0];
+    // [弹出产生式体之后的栈顶状态][产生式编号]: 规约该产生式之后从该状态转移的次数
+    private long[] gotos = new long[0];
+    private int depth;
+    private int maxDepth;
+}
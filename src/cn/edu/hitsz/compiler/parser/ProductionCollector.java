@@ -1,6 +1,7 @@
 package cn.edu.hitsz.compiler.parser;
 
 import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenKind;
 import cn.edu.hitsz.compiler.parser.table.Production;
 import cn.edu.hitsz.compiler.parser.table.Status;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
@@ -15,7 +16,7 @@ import java.util.List;
  * 该类将自己注册为 LR 驱动程序的动作观察者, 在每次 reduce 将规约的产生式存起来, 待到语法分析结束之后便能按规约顺序输出所有规约到产生式.
  * 该类的输出结果会被作为判断实验二代码正误的根据.
  */
-public class ProductionCollector implements ActionObserver {
+public class ProductionCollector implements ParallelObserver<ProductionCollector> {
     public ProductionCollector(Production beginProduction) {
         this.beginProduction = beginProduction;
     }
@@ -43,6 +44,22 @@ public class ProductionCollector implements ActionObserver {
         // do nothing
     }
 
+    @Override
+    public boolean observesShift(TokenKind kind) {
+        // 只记录规约, 不需要任何移入
+        return false;
+    }
+
+    @Override
+    public ProductionCollector forChunk() {
+        return new ProductionCollector(beginProduction);
+    }
+
+    @Override
+    public void merge(ProductionCollector chunk) {
+        reducedProductions.addAll(chunk.reducedProductions);
+    }
+
     @Override
     public void whenAccept(Status currentStatus) {
         // 当接受时, 记录下对起始产生式的规约
@@ -2,56 +2,101 @@ package cn.edu.hitsz.compiler.parser;
 
 import cn.edu.hitsz.compiler.NotImplementedException;
 import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenBuffer;
 import cn.edu.hitsz.compiler.lexer.TokenKind;
 import cn.edu.hitsz.compiler.parser.table.Production;
 import cn.edu.hitsz.compiler.parser.table.Status;
 import cn.edu.hitsz.compiler.parser.table.Term;
 import cn.edu.hitsz.compiler.symtab.SourceCodeType;
+import cn.edu.hitsz.compiler.symtab.SymbolInterner;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
 import cn.edu.hitsz.compiler.symtab.SymbolTableEntry;
 
-import java.util.Stack;
+import java.util.Arrays;
 
 // TODO: 实验三: 实现语义分析
-public class SemanticAnalyzer implements ActionObserver {
+public class SemanticAnalyzer implements ParallelObserver<SemanticAnalyzer> {
     private SymbolTable symbolTable;
-    private Stack<String> attributeStack = new Stack<>();
+    // 最近一次移入的 id 的符号 ID. 声明语句 S -> D id 规约时, 最近移入的 id 正是被声明的标识符;
+    // 在移入时就从缓冲区中取出, 因为按需扫描的缓冲区在移入之后可能丢弃该词法单元
+    private int lastSymbol = SymbolInterner.NOT_FOUND;
+    private final int idCode = TokenKind.fromString("id").getCode();
+    // 分块观察者不修改符号表, 只按顺序记下被声明的符号, 合并时再设置类型; 非分块观察者为 null
+    private int[] declared;
+    private int declaredCount = 0;
 
     @Override
     public void whenAccept(Status currentStatus) {
         // TODO: 该过程在遇到 Accept 时要采取的代码动作
-        attributeStack.clear();
+        lastSymbol = SymbolInterner.NOT_FOUND;
     }
 
     @Override
     public void whenReduce(Status currentStatus, Production production) {
         // TODO: 该过程在遇到 reduce production 时要采取的代码动作
-        if (attributeStack.empty()) {
+        if (lastSymbol == SymbolInterner.NOT_FOUND) {
             return;
         }
 
         // just for symbols
-        switch (production.index()) {
-            case 5:
-                attributeStack.pop();
-                break;
-            case 4:
-                if (symbolTable.has(attributeStack.peek())) {
-                    symbolTable.get(attributeStack.peek()).setType(SourceCodeType.Int);
+        if (production.index() == 4) {
+            if (declared == null) {
+                declare(lastSymbol);
+            } else {
+                if (declaredCount == declared.length) {
+                    declared = Arrays.copyOf(declared, declaredCount * 2);
                 }
-                attributeStack.pop();
-                break;
-            default:
-                break;
+                declared[declaredCount++] = lastSymbol;
+            }
+            lastSymbol = SymbolInterner.NOT_FOUND;
         }
     }
 
+    private void declare(int symbol) {
+        if (symbolTable.has(symbol)) {
+            symbolTable.get(symbol).setType(SourceCodeType.Int);
+        }
+    }
+
+    @Override
+    public SemanticAnalyzer forChunk() {
+        final var chunk = new SemanticAnalyzer();
+        chunk.symbolTable = symbolTable;
+        chunk.declared = new int[16];
+        return chunk;
+    }
+
+    @Override
+    public void merge(SemanticAnalyzer chunk) {
+        for (int i = 0; i < chunk.declaredCount; i++) {
+            declare(chunk.declared[i]);
+        }
+    }
+
+    @Override
+    public boolean observesReduce(Production production) {
+        // 只有 S -> D id 需要设置符号的类型
+        return production.index() == 4;
+    }
+
+    @Override
+    public boolean observesShift(TokenKind kind) {
+        return kind.getCode() == idCode;
+    }
+
     @Override
     public void whenShift(Status currentStatus, Token currentToken) {
         // TODO: 该过程在遇到 shift 时要采取的代码动作
-//        if (currentToken.getKindId().equals("int") || currentToken.getKindId().equals("id")) {
-            attributeStack.push(currentToken.getText());
-//        }
+        if (currentToken.getKind().getCode() == idCode) {
+            lastSymbol = symbolTable.getInterner().find(currentToken.getText());
+        }
+    }
+
+    @Override
+    public void whenShift(Status currentStatus, TokenBuffer tokens, int index) {
+        if (tokens.kind(index) == idCode) {
+            lastSymbol = tokens.symbol(index);
+        }
     }
 
     @Override
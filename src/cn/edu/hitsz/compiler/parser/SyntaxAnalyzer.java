@@ -2,13 +2,17 @@ package cn.edu.hitsz.compiler.parser;
 
 import cn.edu.hitsz.compiler.NotImplementedException;
 import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenBuffer;
 import cn.edu.hitsz.compiler.lexer.TokenKind;
 import cn.edu.hitsz.compiler.parser.table.*;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
 
-import java.util.*;
-
-import static cn.edu.hitsz.compiler.parser.table.Action.ActionKind.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 //TODO: 实验二: 实现 LR 语法分析驱动程序
 
@@ -23,9 +27,20 @@ import static cn.edu.hitsz.compiler.parser.table.Action.ActionKind.*;
 public class SyntaxAnalyzer {
     private final SymbolTable symbolTable;
     private final List<ActionObserver> observers = new ArrayList<>();
-    private List<Token> buffer = new LinkedList<>();
-    private Stack<Term> symbolStack = new Stack<>();
-    private Stack<Status> statusStack = new Stack<>();
+    // 按各观察者订阅的产生式与码点排好的分派表, 注册新的观察者后失效, 在下一次分派前重新构造
+    private ObserverDispatch dispatch;
+    // 以流水线方式分析时, 事件写入此处而不是直接回调观察者
+    private ObserverPipeline pipeline;
+    private TokenBuffer tokens;
+    private int cursor = 0;
+    private CompiledTable table;
+    // 表未要求融合单位产生式链时为 null
+    private UnitChains unitChains;
+    // 状态栈, 满时容量翻倍; 分析过程中只读写此数组, 不为每个词法单元分配对象
+    private int[] statusStack = new int[INITIAL_STACK_CAPACITY];
+    private int top = -1;
+
+    private static final int INITIAL_STACK_CAPACITY = 64;
 
     public SyntaxAnalyzer(SymbolTable symbolTable) {
         this.symbolTable = symbolTable;
@@ -38,30 +53,77 @@ public class SyntaxAnalyzer {
      */
     public void registerObserver(ActionObserver observer) {
         observers.add(observer);
+        dispatch = null;
         observer.setSymbolTable(symbolTable);
     }
 
+    private ObserverDispatch dispatch() {
+        if (dispatch == null) {
+            dispatch = ObserverDispatch.of(observers, GrammarInfo.getProductionsInOrder());
+        }
+        return dispatch;
+    }
+
     /**
-     * 在执行 shift 动作时通知各个观察者
+     * 在执行 shift 动作时通知订阅了该词法单元类型的观察者
      *
      * @param currentStatus 当前状态
      * @param currentToken  当前词法单元
      */
     public void callWhenInShift(Status currentStatus, Token currentToken) {
-        for (final var listener : observers) {
-            listener.whenShift(currentStatus, currentToken);
+        final var dispatch = dispatch();
+        if (dispatch.observesShift(currentToken.getKind().getCode())) {
+            dispatch.shift(currentStatus, currentToken);
         }
     }
 
     /**
-     * 在执行 reduce 动作时通知各个观察者
+     * 在执行 reduce 动作时通知订阅了该产生式的观察者
      *
      * @param currentStatus 当前状态
      * @param production    待规约的产生式
      */
     public void callWhenInReduce(Status currentStatus, Production production) {
-        for (final var listener : observers) {
-            listener.whenReduce(currentStatus, production);
+        final var dispatch = dispatch();
+        if (dispatch.observesReduce(production.index())) {
+            dispatch.reduce(currentStatus, production);
+        }
+    }
+
+    /**
+     * 融合单位产生式链时, 向需要的观察者依次补发链上的每一次规约, 以及每次规约之后的转移
+     *
+     * @param below 弹出产生式体之后的栈顶状态, 链上的转移都从这里出发
+     * @param chain 链的编号
+     */
+    private void callWhenInUnitReduce(ObserverDispatch dispatch, int below, int chain) {
+        for (int step = 0; step < unitChains.length(chain); step++) {
+            final var production = unitChains.production(chain, step);
+            if (dispatch.observesUnitReduce(production)) {
+                if (pipeline != null) {
+                    pipeline.unitReduce(unitChains.state(chain, step), production);
+                } else {
+                    dispatch.unitReduce(table.status(unitChains.state(chain, step)), table.production(production));
+                }
+            }
+            if (dispatch.observesGoto()) {
+                callWhenInGoto(dispatch, below, production);
+            }
+        }
+    }
+
+    /**
+     * 在规约之后的转移时通知订阅了转移的观察者
+     *
+     * @param from       弹出产生式体之后的栈顶状态
+     * @param production 规约的产生式编号
+     */
+    private void callWhenInGoto(ObserverDispatch dispatch, int from, int production) {
+        if (pipeline != null) {
+            pipeline.gotoAfterReduce(from, production);
+        } else {
+            dispatch.gotoAfterReduce(table.status(from), table.production(production),
+                table.status(table.gotoAfterReduce(from, production)));
         }
     }
 
@@ -71,9 +133,7 @@ public class SyntaxAnalyzer {
      * @param currentStatus 当前状态
      */
     public void callWhenInAccept(Status currentStatus) {
-        for (final var listener : observers) {
-            listener.whenAccept(currentStatus);
-        }
+        dispatch().accept(currentStatus);
     }
 
     public void loadTokens(Iterable<Token> tokens) {
@@ -81,15 +141,22 @@ public class SyntaxAnalyzer {
         // 你可以自行选择要如何存储词法单元, 譬如使用迭代器, 或是栈, 或是干脆使用一个 list 全存起来
         // 需要注意的是, 在实现驱动程序的过程中, 你会需要面对只读取一个 token 而不能消耗它的情况,
         // 在自行设计的时候请加以考虑此种情况
-        // 我觉得直接简单粗暴用个list吧，比较对这玩意的操作不就是read head和pop吗（）或者用队列也行
-        tokens.forEach(buffer::add);
+        // 词法单元统一存放在紧凑的缓冲区中, 用一个游标指向当前的词法单元, 读取与消耗都不需要分配对象
+        // 传入按需扫描的缓冲区 (LexicalAnalyzer#getTokenStream) 时, 游标前进到哪里才扫描到哪里, 移入过的词法单元随即丢弃
+        this.tokens = TokenBuffer.fromTokens(tokens, symbolTable.getInterner());
+        this.cursor = 0;
     }
 
     public void loadLRTable(LRTable table) {
         // TODO: 加载 LR 分析表
         // 你可以自行选择要如何使用该表格:
         // 是直接对 LRTable 调用 getAction/getGoto, 抑或是直接将 initStatus 存起来使用
-        statusStack.push(table.getInit());
+        // 分析表被编译为稠密的 int 数组, 驱动程序只使用编译后的表
+        this.table = table.compile();
+        // 要求融合时, 规约之后连同其后的单位产生式链一步转移到链的终点
+        this.unitChains = table.unitChains();
+        this.top = 0;
+        this.statusStack[0] = this.table.initState();
     }
 
     public void run() {
@@ -97,44 +164,304 @@ public class SyntaxAnalyzer {
         // 你需要根据上面的输入来实现 LR 语法分析的驱动程序
         // 请分别在遇到 Shift, Reduce, Accept 的时候调用上面的 callWhenInShift, callWhenInReduce, callWhenInAccept
         // 否则用于为实验二打分的产生式输出可能不会正常工作
-        symbolStack.push(TokenKind.eof());
-        while(true) {
-            Status status = statusStack.peek();
-            Token symbol = buffer.get(0);
-            Action action = status.getAction(symbol);
-            switch (action.getKind()) {
-                case Reduce:
-                    Production production = action.getProduction();
-                    callWhenInReduce(status, production);
-                    int length = production.body().size();
-                    for (int i = 0; i < length; i++) {
-                        symbolStack.pop();
-                        statusStack.pop();
+        // 符号栈只与状态栈同步变化, 没有人读取它, 因此只维护状态栈
+        final var table = this.table;
+        final var unitChains = this.unitChains;
+        // 只有订阅者存在时才取出状态对象并回调, 没有人订阅的移入与规约只剩两次数组读取
+        final var dispatch = dispatch();
+        final var observesGoto = dispatch.observesGoto();
+        // 订阅了转移的观察者也需要链上的每一次转移
+        final var replayUnits = dispatch.observesUnitReductions() || observesGoto;
+        while (true) {
+            final var status = statusStack[top];
+            final var code = tokens.kind(cursor);
+            final var action = table.action(status, code);
+
+            if (CompiledTable.isShift(action)) {
+                if (dispatch.observesShift(code)) {
+                    if (pipeline != null) {
+                        pipeline.shift(status, cursor);
+                    } else {
+                        dispatch.shift(table.status(status), tokens, cursor);
                     }
-                    symbolStack.push(production.head());
-                    statusStack.push(statusStack.peek().getGoto(production.head()));
-                    break;
-
-                case Shift:
-                    callWhenInShift(status, symbol);
-                    symbolStack.push(symbol.getKind());
-                    buffer.remove(0);
-                    statusStack.push(action.getStatus());
-                    break;
-
-                case Accept:
-                    callWhenInAccept(status);
-                    System.out.println("Parser exits successfully!");
-                    return ;
+                }
+                cursor++;
+                // 流水线中的观察者稍后才读取词法单元, 此时不能丢弃
+                if (pipeline == null) {
+                    tokens.discardBefore(cursor);
+                }
+                push(CompiledTable.shiftTarget(action));
 
-                case Error:
+            } else if (CompiledTable.isReduce(action)) {
+                final var production = CompiledTable.reducedProduction(action);
+                if (dispatch.observesReduce(production)) {
+                    if (pipeline != null) {
+                        pipeline.reduce(status, production);
+                    } else {
+                        dispatch.reduce(table.status(status), table.production(production));
+                    }
+                }
+                top -= table.productionLength(production);
+                final var below = statusStack[top];
+                var next = table.gotoAfterReduce(below, production);
+                if (next < 0) {
                     System.out.println("Parser exits with errors!");
                     return ;
+                }
+                if (observesGoto) {
+                    callWhenInGoto(dispatch, below, production);
+                }
+                if (unitChains != null) {
+                    final var chain = unitChains.find(below, next, code);
+                    if (chain >= 0) {
+                        if (replayUnits) {
+                            callWhenInUnitReduce(dispatch, below, chain);
+                        }
+                        next = unitChains.target(chain);
+                    }
+                }
+                push(next);
 
-                default:
-                    System.out.println("Unknown action kind.");
-                    return ;
+            } else if (action == CompiledTable.ACCEPT) {
+                if (pipeline != null) {
+                    pipeline.accept(status);
+                } else {
+                    dispatch.accept(table.status(status));
+                }
+                System.out.println("Parser exits successfully!");
+                return ;
+
+            } else {
+                System.out.println("Parser exits with errors!");
+                return ;
+            }
+        }
+    }
+
+    /**
+     * 以流水线方式执行语法分析: 每个观察者在自己的线程上按顺序收到与 {@link #run()} 完全相同的回调,
+     * 驱动程序只负责把事件写入缓冲区. 返回时所有观察者都已处理完所有事件, 输出与 {@link #run()} 相同.
+     * <br>
+     * 分析的总时间接近最慢的一个观察者而不是所有观察者之和, 但观察者之间不能共享可变状态;
+     * {@link ParallelObserver} 在流水线上由其分块观察者代为观察, 返回前才并入 (见 {@link ObserverPipeline}).
+     * <br>
+     * 观察者线程会读取词法单元缓冲区, 而按需扫描会扩容缓冲区并写入符号表, 所以按需扫描的缓冲区会在观察者启动之前先扫描到底,
+     * 此时内存占用与预先执行词法分析相同.
+     *
+     * @throws RuntimeException 某个观察者在处理事件时抛出了异常
+     */
+    public void runPipelined() {
+        scanToEnd();
+        pipeline = ObserverPipeline.start(observers, GrammarInfo.getProductionsInOrder(), table, tokens);
+        try {
+            run();
+        } finally {
+            final var started = pipeline;
+            pipeline = null;
+            started.finish();
+        }
+    }
+
+    /**
+     * 并行地执行语法分析, 输出与 {@link #run()} 完全一致
+     * <br>
+     * 源程序是顶层语句的列表, 于是在顶层的分号之后把词法单元切分为若干块, 每一块都由若干条完整的语句组成.
+     * 第一块只含第一条语句, 在当前线程上分析, 它结束时的栈顶状态即其余各块的起始状态;
+     * 其余各块在线程池上各自从该状态开始独立分析, 使用由 {@link ParallelObserver#forChunk()} 得到的观察者.
+     * 之后依次检查每一块结束时的栈顶是否确为下一块的起始状态, 且分析中没有弹出起始状态,
+     * 再按分块顺序把各块的观察者并入注册的观察者, 把各块留下的状态依次压入状态栈, 最后从最后一块之后继续顺序分析.
+     * 分块中的规约因而与顺序分析完全相同, 包括各条语句之后才能进行的规约 (如右递归的语句列表) 在内.
+     * <br>
+     * 若有观察者不是 {@link ParallelObserver}, 文件过小, 或任何一块的检查不通过 (包括语法错误), 则退化为顺序分析.
+     *
+     * @param pool 执行分析的线程池
+     */
+    public void runParallel(ForkJoinPool pool) {
+        final var cuts = findCuts(pool.getParallelism());
+        if (cuts.size() <= 2 || !observers.stream().allMatch(observer -> observer instanceof ParallelObserver)) {
+            run();
+            return;
+        }
+
+        final var results = new ArrayList<ChunkResult>();
+        final var first = new ChunkTask(cuts.get(0), cuts.get(1), statusStack[top]).compute();
+        if (first.states() == null) {
+            run();
+            return;
+        }
+        results.add(first);
+
+        final var start = first.states()[first.states().length - 1];
+        final var chunks = new ArrayList<ChunkTask>();
+        for (int i = 1; i + 1 < cuts.size(); i++) {
+            chunks.add(new ChunkTask(cuts.get(i), cuts.get(i + 1), start));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(chunks)));
+        for (final var chunk : chunks) {
+            results.add(chunk.join());
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            final var states = results.get(i).states();
+            if (states == null || (i + 1 < results.size() && states[states.length - 1] != start)) {
+                run();
+                return;
             }
         }
+
+        for (final var result : results) {
+            for (int i = 0; i < observers.size(); i++) {
+                merge(observers.get(i), result.observers().get(i));
+            }
+            for (final var state : result.states()) {
+                push(state);
+            }
+        }
+        cursor = cuts.get(cuts.size() - 1);
+        run();
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T extends ParallelObserver<T>> void merge(ActionObserver observer, ActionObserver chunk) {
+        ((T) observer).merge((T) chunk);
+    }
+
+    /**
+     * 在顶层的分号之后寻找切分点, 同时把按需扫描的缓冲区扫描到底
+     *
+     * @param parallelism 线程池的并行度
+     * @return 各分块的边界 (词法单元下标), 首个为当前的游标, 第二个在第一条语句之后, 最后一个在最后一个分号之后
+     */
+    private List<Integer> findCuts(int parallelism) {
+        final var cuts = new ArrayList<Integer>();
+        cuts.add(cursor);
+
+        final var cut = TokenKind.fromString(CUT_KIND).getCode();
+        final var count = scanToEnd();
+
+        // 分块数取并行度的若干倍, 以便在分块大小不均时平衡负载
+        final var chunkSize = Math.max(MIN_CHUNK_SIZE, count / (parallelism * CHUNKS_PER_THREAD));
+        var next = cursor;
+        for (int index = cursor; index < cursor + count; index++) {
+            if (tokens.kind(index) == cut && index >= next) {
+                cuts.add(index + 1);
+                next = index + 1 + chunkSize;
+            }
+        }
+        return cuts;
+    }
+
+    /**
+     * 把按需扫描的缓冲区扫描到 EOF 为止, 之后读取缓冲区不会再修改它
+     *
+     * @return 游标到 EOF 之间 (不含 EOF) 的词法单元个数
+     */
+    private int scanToEnd() {
+        final var eof = TokenKind.eof().getCode();
+        var count = 0;
+        while (tokens.kind(cursor + count) != eof) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 一块的分析结果
+     *
+     * @param observers 观察该块的观察者, 与注册的观察者一一对应
+     * @param states    分析完该块之后起始状态之上的各个状态, 自栈底向栈顶; 分析失败时为 null
+     */
+    private record ChunkResult(List<ActionObserver> observers, int[] states) {
+    }
+
+    private class ChunkTask extends RecursiveTask<ChunkResult> {
+        ChunkTask(int begin, int end, int startState) {
+            this.begin = begin;
+            this.end = end;
+            this.startState = startState;
+            this.observers = SyntaxAnalyzer.this.observers.stream()
+                .map(observer -> (ActionObserver) ((ParallelObserver<?>) observer).forChunk())
+                .toList();
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            final var dispatch = ObserverDispatch.of(observers, GrammarInfo.getProductionsInOrder());
+            var stack = new int[INITIAL_STACK_CAPACITY];
+            var top = 0;
+            stack[0] = startState;
+
+            for (int cursor = begin; cursor < end; ) {
+                final var status = stack[top];
+                final var code = tokens.kind(cursor);
+                final var action = table.action(status, code);
+                if (CompiledTable.isShift(action)) {
+                    if (dispatch.observesShift(code)) {
+                        dispatch.shift(table.status(status), tokens, cursor);
+                    }
+                    cursor++;
+                    if (++top == stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top] = CompiledTable.shiftTarget(action);
+
+                } else if (CompiledTable.isReduce(action)) {
+                    final var production = CompiledTable.reducedProduction(action);
+                    if (dispatch.observesReduce(production)) {
+                        dispatch.reduce(table.status(status), table.production(production));
+                    }
+                    // 起始状态之下的状态属于前面的块, 需要弹出它们说明切分点并不独立, 交给顺序分析
+                    top -= table.productionLength(production);
+                    if (top < 0) {
+                        return new ChunkResult(observers, null);
+                    }
+                    final var below = stack[top];
+                    var next = table.gotoAfterReduce(below, production);
+                    if (next < 0) {
+                        return new ChunkResult(observers, null);
+                    }
+                    if (dispatch.observesGoto()) {
+                        callWhenInGoto(dispatch, below, production);
+                    }
+                    if (unitChains != null) {
+                        final var chain = unitChains.find(below, next, code);
+                        if (chain >= 0) {
+                            if (dispatch.observesUnitReductions() || dispatch.observesGoto()) {
+                                callWhenInUnitReduce(dispatch, below, chain);
+                            }
+                            next = unitChains.target(chain);
+                        }
+                    }
+                    if (++top == stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top] = next;
+
+                } else {
+                    // 块中不应出现接受; 出错时交给顺序分析报告
+                    return new ChunkResult(observers, null);
+                }
+            }
+            return new ChunkResult(observers, Arrays.copyOfRange(stack, 1, top + 1));
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final int begin;
+        private final int end;
+        private final int startState;
+        private final List<ActionObserver> observers;
+    }
+
+    // 顶层语句之间的分隔符
+    private static final String CUT_KIND = "Semicolon";
+    private static final int MIN_CHUNK_SIZE = 1 << 12;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private void push(int status) {
+        if (++top == statusStack.length) {
+            statusStack = Arrays.copyOf(statusStack, statusStack.length * 2);
+        }
+        statusStack[top] = status;
     }
 }
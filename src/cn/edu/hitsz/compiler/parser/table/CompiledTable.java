@@ -0,0 +1,347 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 编译为 int 数组的 LR 分析表, 由 {@link LRTable#compile()} 构造, 供驱动程序使用
+ * <br>
+ * 每个动作编码为一个有符号 int:
+ * <ul>
+ *     <li>{@link #ERROR} (0): 错误</li>
+ *     <li>正数 s: 移入并转移到状态 s - 1</li>
+ *     <li>负数 -p: 按编号为 p 的产生式规约</li>
+ *     <li>{@link #ACCEPT} ({@link Integer#MIN_VALUE}): 接受</li>
+ * </ul>
+ * 数组的具体布局由子类决定 ({@link TableLayout}): {@link DenseTable} 将整张表展开为稠密数组, 查询最快;
+ * {@link PackedTable} 对稀疏的大表进行压缩.
+ * <br>
+ * 驱动程序在分析过程中只查询编码后的动作, 不需要分配对象; 通知观察者所需的 {@link Status} 与 {@link Production}
+ * 对象按下标存放在数组中. 没有现成状态对象的表 (如从 {@link TableCache} 读出的表, 或压缩后的表) 在某个状态第一次被需要时
+ * 才构造它的状态对象, 其 action 与 goto 是直接查询此表的只读视图, 不复制表的内容.
+ */
+public abstract class CompiledTable {
+    /**
+     * 错误动作
+     */
+    public static final int ERROR = 0;
+
+    /**
+     * 接受动作
+     */
+    public static final int ACCEPT = Integer.MIN_VALUE;
+
+    /**
+     * 查询 action 表
+     *
+     * @param state 当前状态
+     * @param code  当前词法单元的码点
+     * @return 编码后的动作
+     */
+    public abstract int action(int state, int code);
+
+    /**
+     * 查询 goto 表
+     *
+     * @param state       当前状态
+     * @param nonTerminal 非终结符在 goto 表中的列号
+     * @return 应转移到的状态; 不存在时返回 -1
+     */
+    public abstract int gotoOf(int state, int nonTerminal);
+
+    /**
+     * 按编号递增的顺序枚举 goto 表某一列中有转移的状态
+     *
+     * @param nonTerminal 非终结符在 goto 表中的列号
+     * @param from        从此状态开始查找 (含)
+     * @return 不小于 from 且在该列上有转移的第一个状态; 不存在时返回 -1
+     */
+    int nextGotoSource(int nonTerminal, int from) {
+        for (int state = from; state < stateCount; state++) {
+            if (gotoOf(state, nonTerminal) >= 0) {
+                return state;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 查询规约某产生式之后应转移到的状态
+     *
+     * @param state      弹出产生式体之后栈顶的状态
+     * @param production 被规约的产生式编号
+     * @return 应转移到的状态; 不存在时返回 -1
+     */
+    public int gotoAfterReduce(int state, int production) {
+        return gotoOf(state, productionHeads[production]);
+    }
+
+    /**
+     * @return 表占用的内存 (字节), 只计入查询时会访问的数组
+     */
+    public abstract long sizeInBytes();
+
+    /**
+     * @param production 产生式编号
+     * @return 该产生式体的长度, 即规约时需要弹出的状态个数
+     */
+    public int productionLength(int production) {
+        return productionLengths[production];
+    }
+
+    /**
+     * @param production 产生式编号
+     * @return 该编号对应的产生式
+     */
+    public Production production(int production) {
+        return productions[production];
+    }
+
+    /**
+     * @param state 状态编号
+     * @return 该编号对应的状态
+     */
+    public Status status(int state) {
+        var status = statuses[state];
+        if (status == null) {
+            status = new Status(state, new ActionView(state), new GotoView(state));
+            statuses[state] = status;
+        }
+        return status;
+    }
+
+    /**
+     * @return 起始状态
+     */
+    public int initState() {
+        return initState;
+    }
+
+    /**
+     * @param action 编码后的动作
+     * @return 是否为移入动作
+     */
+    public static boolean isShift(int action) {
+        return action > 0;
+    }
+
+    /**
+     * @param action 编码后的动作
+     * @return 是否为规约动作
+     */
+    public static boolean isReduce(int action) {
+        return action < 0 && action != ACCEPT;
+    }
+
+    /**
+     * @param action 编码后的移入动作
+     * @return 移入后应转移到的状态
+     */
+    public static int shiftTarget(int action) {
+        return action - 1;
+    }
+
+    /**
+     * @param action 编码后的规约动作
+     * @return 待规约的产生式编号
+     */
+    public static int reducedProduction(int action) {
+        return -action;
+    }
+
+    /**
+     * @return action 表的列所对应的终结符, 按原表中的顺序
+     */
+    List<TokenKind> terminals() {
+        return terminals;
+    }
+
+    /**
+     * @return goto 表的列所对应的非终结符, 按原表中的顺序
+     */
+    List<NonTerminal> nonTerminals() {
+        return nonTerminals;
+    }
+
+    /**
+     * @return 所有状态, 按编号排列
+     */
+    List<Status> statuses() {
+        final var result = new ArrayList<Status>(stateCount);
+        for (int state = 0; state < stateCount; state++) {
+            result.add(status(state));
+        }
+        return result;
+    }
+
+    int stateCount() {
+        return stateCount;
+    }
+
+    /**
+     * @return action 表的列数, 即最大码点 + 2
+     */
+    int terminalColumns() {
+        return terminalColumns;
+    }
+
+    /**
+     * @return 产生式编号的上界, 所有产生式的编号都小于此值
+     */
+    int productionColumns() {
+        return productions.length;
+    }
+
+    List<Production> productions() {
+        return Arrays.stream(productions).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * @param initState    起始状态
+     * @param stateCount   状态个数, 状态编号为 0 到 stateCount - 1
+     * @param terminals    action 表各列对应的终结符
+     * @param nonTerminals goto 表各列对应的非终结符
+     * @param productions  表中会被规约的所有产生式
+     * @param statuses     与表的内容一致的状态对象, 以编号为下标; 为 null 时按需构造
+     */
+    protected CompiledTable(int initState, int stateCount, List<TokenKind> terminals, List<NonTerminal> nonTerminals,
+                            List<Production> productions, Status[] statuses) {
+        this.initState = initState;
+        this.stateCount = stateCount;
+        this.terminals = terminals;
+        this.nonTerminals = nonTerminals;
+        this.terminalColumns = terminals.stream().mapToInt(TokenKind::getCode).max().orElse(-1) + 2;
+        this.statuses = statuses != null ? statuses : new Status[stateCount];
+
+        final var productionColumns = productions.stream().mapToInt(Production::index).max().orElse(0) + 1;
+        this.productions = new Production[productionColumns];
+        this.productionLengths = new int[productionColumns];
+        this.productionHeads = new int[productionColumns];
+        for (final var production : productions) {
+            productionHeads[production.index()] = nonTerminals.indexOf(production.head());
+            if (productionHeads[production.index()] < 0) {
+                throw new RuntimeException("No goto column for head of production: " + production);
+            }
+            this.productions[production.index()] = production;
+            this.productionLengths[production.index()] = production.body().size();
+        }
+    }
+
+    /**
+     * @param production 产生式编号
+     * @return 该产生式的头在 goto 表中的列号
+     */
+    protected int productionHead(int production) {
+        return productionHeads[production];
+    }
+
+    /**
+     * 将编码后的动作还原为 {@link Action}
+     */
+    private Action decode(int action) {
+        if (isShift(action)) {
+            return Action.shift(status(shiftTarget(action)));
+        } else if (isReduce(action)) {
+            return Action.reduce(productions[reducedProduction(action)]);
+        } else if (action == ACCEPT) {
+            return Action.accept();
+        } else {
+            return Action.error();
+        }
+    }
+
+    /**
+     * 某个状态的 action 表的只读视图, 错误动作不出现在视图中
+     */
+    private final class ActionView extends AbstractMap<TokenKind, Action> {
+        ActionView(int state) {
+            this.state = state;
+        }
+
+        @Override
+        public Action get(Object key) {
+            if (!(key instanceof TokenKind terminal) || !terminals.contains(terminal)) {
+                return null;
+            }
+
+            final var action = action(state, terminal.getCode());
+            return action == ERROR ? null : decode(action);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<TokenKind, Action>> entrySet() {
+            final var entries = new LinkedHashSet<Entry<TokenKind, Action>>();
+            for (final var terminal : terminals) {
+                final var action = get(terminal);
+                if (action != null) {
+                    entries.add(new SimpleImmutableEntry<>(terminal, action));
+                }
+            }
+            return Collections.unmodifiableSet(entries);
+        }
+
+        private final int state;
+    }
+
+    /**
+     * 某个状态的 goto 表的只读视图, 错误状态不出现在视图中
+     */
+    private final class GotoView extends AbstractMap<NonTerminal, Status> {
+        GotoView(int state) {
+            this.state = state;
+        }
+
+        @Override
+        public Status get(Object key) {
+            final var column = key instanceof NonTerminal ? nonTerminals.indexOf(key) : -1;
+            if (column < 0) {
+                return null;
+            }
+
+            final var target = gotoOf(state, column);
+            return target < 0 ? null : status(target);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<NonTerminal, Status>> entrySet() {
+            final var entries = new LinkedHashSet<Entry<NonTerminal, Status>>();
+            for (final var nonTerminal : nonTerminals) {
+                final var target = get(nonTerminal);
+                if (target != null) {
+                    entries.add(new SimpleImmutableEntry<>(nonTerminal, target));
+                }
+            }
+            return Collections.unmodifiableSet(entries);
+        }
+
+        private final int state;
+    }
+
+    private final int initState;
+    private final int stateCount;
+    private final List<TokenKind> terminals;
+    private final List<NonTerminal> nonTerminals;
+    private final int terminalColumns;
+    private final int[] productionLengths;
+    private final int[] productionHeads;
+    private final Production[] productions;
+    private final Status[] statuses;
+}
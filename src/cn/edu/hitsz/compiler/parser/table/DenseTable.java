@@ -0,0 +1,132 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * 稠密布局的 LR 分析表 ({@link TableLayout#DENSE})
+ * <br>
+ * action 表按 [状态][终结符码点 + 1] 展开为一维数组; goto 表除按 [状态][非终结符] 展开外, 还预先按 [状态][产生式编号]
+ * 展开一份, 规约时不需要再查询产生式的头. 每次查询都只是一次数组读取, 代价是表的大小与状态数和文法符号数的乘积成正比.
+ */
+final class DenseTable extends CompiledTable {
+    @Override
+    public int action(int state, int code) {
+        final var column = code + 1;
+        if (column < 0 || column >= terminalColumns) {
+            return ERROR;
+        }
+        return actions[state * terminalColumns + column];
+    }
+
+    @Override
+    public int gotoOf(int state, int nonTerminal) {
+        return nonTerminalGotos[state * nonTerminalColumns + nonTerminal];
+    }
+
+    @Override
+    public int gotoAfterReduce(int state, int production) {
+        return gotos[state * productionColumns + production];
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return (long) Integer.BYTES * (actions.length + nonTerminalGotos.length + gotos.length);
+    }
+
+    int[] actions() {
+        return actions;
+    }
+
+    int[] nonTerminalGotos() {
+        return nonTerminalGotos;
+    }
+
+    /**
+     * 由 {@link Status} 对象构造的 LR 表编译
+     */
+    static DenseTable compile(Status init, List<Status> statusInIndexOrder, List<TokenKind> terminals, List<NonTerminal> nonTerminals) {
+        final var stateCount = statusInIndexOrder.stream().mapToInt(Status::index).max().orElse(-1) + 1;
+        final var statuses = new Status[stateCount];
+        for (final var status : statusInIndexOrder) {
+            statuses[status.index()] = status;
+        }
+
+        // 表中出现的所有产生式
+        final var reduced = new TreeMap<Integer, Production>();
+        for (final var status : statusInIndexOrder) {
+            for (final var action : status.action().values()) {
+                if (action.getKind() == Action.ActionKind.Reduce) {
+                    reduced.put(action.getProduction().index(), action.getProduction());
+                }
+            }
+        }
+
+        final var terminalColumns = terminals.stream().mapToInt(TokenKind::getCode).max().orElse(-1) + 2;
+        final var actions = new int[stateCount * terminalColumns];
+        final var nonTerminalGotos = new int[stateCount * nonTerminals.size()];
+        Arrays.fill(nonTerminalGotos, -1);
+        for (final var status : statusInIndexOrder) {
+            final var row = status.index();
+            for (final var terminal : terminals) {
+                actions[row * terminalColumns + terminal.getCode() + 1] = encode(status.getAction(terminal));
+            }
+            for (int column = 0; column < nonTerminals.size(); column++) {
+                final var target = status.getGoto(nonTerminals.get(column));
+                nonTerminalGotos[row * nonTerminals.size() + column] = target.isError() ? -1 : target.index();
+            }
+        }
+
+        return new DenseTable(init.index(), stateCount, terminals, nonTerminals,
+            actions, nonTerminalGotos, List.copyOf(reduced.values()), statuses);
+    }
+
+    /**
+     * @param initState        起始状态
+     * @param stateCount       状态个数, 状态编号为 0 到 stateCount - 1
+     * @param terminals        action 表各列对应的终结符
+     * @param nonTerminals     goto 表各列对应的非终结符
+     * @param actions          编码后的 action 表, 按 [状态][终结符码点 + 1] 展开
+     * @param nonTerminalGotos goto 表, 按 [状态][非终结符在 nonTerminals 中的下标] 展开, -1 表示错误
+     * @param productions      表中会被规约的所有产生式
+     * @param statuses         与数组内容一致的状态对象; 为 null 时按需构造
+     */
+    DenseTable(int initState, int stateCount, List<TokenKind> terminals, List<NonTerminal> nonTerminals,
+               int[] actions, int[] nonTerminalGotos, List<Production> productions, Status[] statuses) {
+        super(initState, stateCount, terminals, nonTerminals, productions, statuses);
+        this.terminalColumns = terminalColumns();
+        this.nonTerminalColumns = nonTerminals.size();
+        this.productionColumns = productionColumns();
+        this.actions = actions;
+        this.nonTerminalGotos = nonTerminalGotos;
+
+        // 预先按产生式展开 goto 表, 规约时不必再查询产生式的头
+        this.gotos = new int[stateCount * productionColumns];
+        Arrays.fill(gotos, -1);
+        for (int state = 0; state < stateCount; state++) {
+            for (final var production : productions) {
+                gotos[state * productionColumns + production.index()]
+                    = gotoOf(state, productionHead(production.index()));
+            }
+        }
+    }
+
+    private static int encode(Action action) {
+        return switch (action.getKind()) {
+            case Shift -> action.getStatus().index() + 1;
+            case Reduce -> -action.getProduction().index();
+            case Accept -> ACCEPT;
+            case Error -> ERROR;
+        };
+    }
+
+    private final int terminalColumns;
+    private final int nonTerminalColumns;
+    private final int productionColumns;
+    private final int[] actions;
+    private final int[] nonTerminalGotos;
+    private final int[] gotos;
+}
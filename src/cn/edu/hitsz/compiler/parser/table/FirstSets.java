@@ -0,0 +1,131 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 文法符号的 nullable 性质与 FIRST 集合, 供 LALR(1) 与 LR(1) 的构造使用
+ * <br>
+ * 终结符以其在构造时给出的终结符列表中的下标表示, FIRST 集合是以该下标为位的 {@link BitSet}. 两者都以不动点迭代计算,
+ * 可以正确处理左递归与可空的非终结符.
+ */
+final class FirstSets {
+    /**
+     * @param productions 所有产生式
+     * @param terminals   所有终结符, 其下标即 FIRST 集合中的位
+     */
+    FirstSets(List<Production> productions, List<TokenKind> terminals) {
+        this.terminals = terminals;
+        for (int i = 0; i < terminals.size(); i++) {
+            terminalIndex.put(terminals.get(i), i);
+        }
+
+        // nullable: 产生式体中的所有符号都可空时, 产生式头可空
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (final var production : productions) {
+                if (!nullable.contains(production.head())
+                    && production.body().stream().allMatch(nullable::contains)) {
+                    nullable.add(production.head());
+                    changed = true;
+                }
+            }
+        }
+
+        // FIRST: 产生式体中直到第一个不可空的符号为止, 各符号的 FIRST 都属于产生式头的 FIRST
+        for (final var production : productions) {
+            first.putIfAbsent(production.head(), new BitSet());
+        }
+        changed = true;
+        while (changed) {
+            changed = false;
+            for (final var production : productions) {
+                final var result = first.get(production.head());
+                final var before = result.cardinality();
+                firstOfSequence(production.body(), 0, result);
+                changed |= result.cardinality() != before;
+            }
+        }
+    }
+
+    /**
+     * @param term 文法符号
+     * @return 该符号能否推导出空串
+     */
+    boolean nullable(Term term) {
+        return nullable.contains(term);
+    }
+
+    /**
+     * @param terms 文法符号串
+     * @param from  起始下标
+     * @return 从 from 开始的后缀能否推导出空串
+     */
+    boolean nullable(List<Term> terms, int from) {
+        for (int i = from; i < terms.size(); i++) {
+            if (!nullable.contains(terms.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 将 FIRST(terms[from..]) 并入 result
+     *
+     * @param terms  文法符号串
+     * @param from   起始下标
+     * @param result 结果
+     * @return 该后缀能否推导出空串
+     */
+    boolean firstOfSequence(List<Term> terms, int from, BitSet result) {
+        for (int i = from; i < terms.size(); i++) {
+            final var term = terms.get(i);
+            if (term instanceof TokenKind terminal) {
+                result.set(indexOf(terminal));
+                return false;
+            }
+
+            final var set = first.get(term);
+            if (set != null) {
+                result.or(set);
+            }
+            if (!nullable.contains(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param terminal 终结符
+     * @return 该终结符在 FIRST 集合中对应的位
+     */
+    int indexOf(TokenKind terminal) {
+        final var index = terminalIndex.get(terminal);
+        if (index == null) {
+            throw new RuntimeException("Unknown terminal: " + terminal);
+        }
+        return index;
+    }
+
+    /**
+     * @param index 位
+     * @return 该位对应的终结符
+     */
+    TokenKind terminal(int index) {
+        return terminals.get(index);
+    }
+
+    private final List<TokenKind> terminals;
+    private final Map<TokenKind, Integer> terminalIndex = new HashMap<>();
+    private final Set<Term> nullable = new HashSet<>();
+    private final Map<Term, BitSet> first = new HashMap<>();
+}
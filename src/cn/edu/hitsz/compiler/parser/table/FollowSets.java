@@ -0,0 +1,59 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 非终结符的 FOLLOW 集合, 供 SLR(1) 的构造使用
+ * <br>
+ * 与 {@link FirstSets} 一样以终结符的下标为位, 以不动点迭代计算: 对每条产生式 A -> α B β, FIRST(β) 属于 FOLLOW(B),
+ * 若 β 可空则 FOLLOW(A) 也属于 FOLLOW(B). 增广产生式的头的 FOLLOW 为 EOF.
+ */
+final class FollowSets {
+    /**
+     * @param productions 所有产生式, 第一条为增广产生式
+     * @param firstSets   各文法符号的 FIRST 集合
+     */
+    FollowSets(List<Production> productions, FirstSets firstSets) {
+        for (final var production : productions) {
+            follow.putIfAbsent(production.head(), new BitSet());
+        }
+        follow.get(productions.get(0).head()).set(firstSets.indexOf(TokenKind.eof()));
+
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (final var production : productions) {
+                final var body = production.body();
+                for (int i = 0; i < body.size(); i++) {
+                    if (!(body.get(i) instanceof NonTerminal nonTerminal)) {
+                        continue;
+                    }
+
+                    final var result = follow.computeIfAbsent(nonTerminal, key -> new BitSet());
+                    final var before = result.cardinality();
+                    if (firstSets.firstOfSequence(body, i + 1, result)) {
+                        result.or(follow.get(production.head()));
+                    }
+                    changed |= result.cardinality() != before;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param nonTerminal 非终结符
+     * @return 其 FOLLOW 集合, 不应修改
+     */
+    BitSet follow(NonTerminal nonTerminal) {
+        return follow.getOrDefault(nonTerminal, EMPTY);
+    }
+
+    private static final BitSet EMPTY = new BitSet();
+
+    private final Map<NonTerminal, BitSet> follow = new HashMap<>();
+}
@@ -9,12 +9,18 @@ import java.util.*;
 /**
  * 读取语法文件 (grammar.txt), 获得产生式的原始字符串和非终结符
  * <br>
+ * 除产生式外, 语法文件中还可以有形如 `%left + -;`, `%right =;` 与 `%nonassoc <;` 的优先级声明 (见 {@link Precedence}),
+ * 产生式也可以以 `%prec UMINUS` 结尾来指定自己的优先级. 声明同样占一行, 产生式的标号仍与其行号相同.
+ * <br>
  * 你不应该修改此文件
  */
 public class GrammarInfo {
     private final Map<String, NonTerminal> nonTerminals = new HashMap<>();
     private final Map<String, Production> productions = new HashMap<>();
     private final List<Production> productionsInOrder = new ArrayList<>();
+    private final Map<String, Precedence> precedences = new HashMap<>();
+    private final Map<Production, Precedence> productionPrecedences = new HashMap<>();
+    private int precedenceLevels = 0;
 
     private NonTerminal getOrCreateNonTerminal(String name) {
         nonTerminals.computeIfAbsent(name, NonTerminal::new);
@@ -23,14 +29,30 @@ public class GrammarInfo {
 
     private GrammarInfo() {
         final var lines = FileUtils.readLines(FilePathConfig.GRAMMAR_PATH);
+        // %prec 引用的名字可以在之后才声明, 读完整个文件后再确定产生式的优先级
+        final var precNames = new HashMap<Production, String>();
         for (int idx = 0; idx < lines.size(); idx++) {
             final var line = lines.get(idx);
+            if (line.startsWith("%")) {
+                // 形如 `%left + -;` 的优先级声明, 每一行的优先级比之前的都高
+                declarePrecedence(line.replace(";", "").split(" "));
+                continue;
+            }
+
             // 形如 `A -> B ( id intConst ) C;` 的产生式
             // 先删除分号, 按 -> 切, 再按空格切 body
-            final var withoutComma = line.replace(";", "");
-            final var words = withoutComma.split(" -> ");
+            var withoutComma = line.replace(";", "");
+            var words = withoutComma.split(" -> ");
             final var headString = words[0];
-            final var bodyStrings = words[1].split(" ");
+            var bodyStrings = words[1].split(" ");
+
+            // 形如 `E -> - E %prec UMINUS;` 的产生式, 切掉 %prec 部分之后与普通的产生式相同
+            String precName = null;
+            if (bodyStrings.length >= 2 && bodyStrings[bodyStrings.length - 2].equals("%prec")) {
+                precName = bodyStrings[bodyStrings.length - 1];
+                bodyStrings = Arrays.copyOf(bodyStrings, bodyStrings.length - 2);
+                withoutComma = headString + " -> " + String.join(" ", bodyStrings);
+            }
 
             final var head = getOrCreateNonTerminal(headString);
 
@@ -47,6 +69,50 @@ public class GrammarInfo {
             final var production = new Production(idx + 1, head, body);
             productionsInOrder.add(production);
             productions.put(withoutComma, production);
+            if (precName != null) {
+                precNames.put(production, precName);
+            }
+        }
+
+        for (final var production : productionsInOrder) {
+            final var precName = precNames.get(production);
+            if (precName != null) {
+                if (!precedences.containsKey(precName)) {
+                    throw new RuntimeException("Undeclared precedence %s in production: %s".formatted(precName, production));
+                }
+                productionPrecedences.put(production, precedences.get(precName));
+                continue;
+            }
+
+            // 没有 %prec 时取产生式体中最后一个终结符的优先级, 与 yacc 相同
+            for (int i = production.body().size() - 1; i >= 0; i--) {
+                if (production.body().get(i) instanceof TokenKind terminal) {
+                    final var precedence = precedences.get(terminal.getIdentifier());
+                    if (precedence != null) {
+                        productionPrecedences.put(production, precedence);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param words 声明切分后的各个词, 第一个为 %left, %right 或 %nonassoc, 其余为被声明的符号
+     */
+    private void declarePrecedence(String[] words) {
+        final var associativity = switch (words[0]) {
+            case "%left" -> Precedence.Associativity.LEFT;
+            case "%right" -> Precedence.Associativity.RIGHT;
+            case "%nonassoc" -> Precedence.Associativity.NONASSOC;
+            default -> throw new RuntimeException("Unknown declaration in grammar file: " + words[0]);
+        };
+
+        final var precedence = new Precedence(++precedenceLevels, associativity);
+        for (int i = 1; i < words.length; i++) {
+            if (precedences.put(words[i], precedence) != null) {
+                throw new RuntimeException("Precedence of %s is declared twice".formatted(words[i]));
+            }
         }
     }
 
@@ -95,4 +161,19 @@ public class GrammarInfo {
     public static List<Production> getProductionsInOrder() {
         return Collections.unmodifiableList(getInstance().productionsInOrder);
     }
+
+    /**
+     * @return 以符号名为键的优先级声明, 键可以是终结符, 也可以是只在 %prec 中使用的名字
+     */
+    public static Map<String, Precedence> getPrecedences() {
+        return Collections.unmodifiableMap(getInstance().precedences);
+    }
+
+    /**
+     * @param production 产生式
+     * @return 该产生式的优先级; 没有优先级时返回 null
+     */
+    public static Precedence getPrecedence(Production production) {
+        return getInstance().productionPrecedences.get(production);
+    }
 }
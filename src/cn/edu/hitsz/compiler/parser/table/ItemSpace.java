@@ -0,0 +1,178 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 以 int 编码的 LR(0) 项目与文法符号, 供 {@link TableGenerator} 构造项目集族使用
+ * <br>
+ * 文法符号按给定的顺序编号, 非终结符在前, 终结符在后. 产生式按其在列表中的位置依次排开, 第 p 条产生式的点位于 dot 处的项目编号为
+ * base[p] + dot, 所以一个项目的后继项目 (点右移一位) 的编号就是它的编号加一. 每个项目的产生式与点后的符号都预先存放在数组中,
+ * 项目集就可以直接用以项目编号为位的 {@link java.util.BitSet} 表示.
+ */
+final class ItemSpace {
+    /**
+     * @param productions  所有产生式, 第一条为增广产生式
+     * @param nonTerminals 所有非终结符, 其顺序决定符号编号
+     * @param terminals    所有终结符, 其顺序决定符号编号
+     */
+    ItemSpace(List<Production> productions, List<NonTerminal> nonTerminals, List<TokenKind> terminals) {
+        this.nonTerminalCount = nonTerminals.size();
+        this.symbols = new ArrayList<>(nonTerminals);
+        this.symbols.addAll(terminals);
+        for (int i = 0; i < symbols.size(); i++) {
+            symbolIds.put(symbols.get(i), i);
+        }
+
+        var itemCount = 0;
+        for (final var production : productions) {
+            itemCount += production.body().size() + 1;
+        }
+
+        this.itemProductions = new Production[itemCount];
+        this.itemDots = new int[itemCount];
+        this.itemSymbols = new int[itemCount];
+
+        final var startItems = new ArrayList<List<Integer>>();
+        for (int i = 0; i < nonTerminalCount; i++) {
+            startItems.add(new ArrayList<>());
+        }
+
+        var item = 0;
+        for (final var production : productions) {
+            startItems.get(symbolOf(production.head())).add(item);
+            final var body = production.body();
+            for (int dot = 0; dot <= body.size(); dot++, item++) {
+                itemProductions[item] = production;
+                itemDots[item] = dot;
+                itemSymbols[item] = dot < body.size() ? symbolOf(body.get(dot)) : -1;
+            }
+        }
+
+        this.startItems = new int[nonTerminalCount][];
+        for (int i = 0; i < nonTerminalCount; i++) {
+            this.startItems[i] = startItems.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @return 项目的个数, 所有项目的编号都小于此值
+     */
+    int itemCount() {
+        return itemProductions.length;
+    }
+
+    /**
+     * @return 文法符号的个数
+     */
+    int symbolCount() {
+        return symbols.size();
+    }
+
+    /**
+     * @param symbol 符号编号
+     * @return 该符号是否为非终结符
+     */
+    boolean isNonTerminal(int symbol) {
+        return symbol < nonTerminalCount;
+    }
+
+    /**
+     * @param symbol 符号编号
+     * @return 该编号对应的文法符号
+     */
+    Term symbol(int symbol) {
+        return symbols.get(symbol);
+    }
+
+    /**
+     * @param term 文法符号
+     * @return 该符号的编号
+     */
+    int symbolOf(Term term) {
+        final var id = symbolIds.get(term);
+        if (id == null) {
+            throw new RuntimeException("Unknown term: " + term);
+        }
+        return id;
+    }
+
+    /**
+     * @return 起始项目 S -> . S' 的编号
+     */
+    int initItem() {
+        return 0;
+    }
+
+    /**
+     * @param item 项目编号
+     * @return 该项目的产生式
+     */
+    Production production(int item) {
+        return itemProductions[item];
+    }
+
+    /**
+     * @param item 项目编号
+     * @return 该项目中点的位置
+     */
+    int dot(int item) {
+        return itemDots[item];
+    }
+
+    /**
+     * @param item 项目编号
+     * @return 点后的符号编号; 点在末尾时返回 -1
+     */
+    int afterDot(int item) {
+        return itemSymbols[item];
+    }
+
+    /**
+     * @param nonTerminal 非终结符的符号编号
+     * @return 以该非终结符为头的所有产生式的点在开头的项目
+     */
+    int[] startItems(int nonTerminal) {
+        return startItems[nonTerminal];
+    }
+
+    /**
+     * @param item 项目编号
+     * @return 形如 A -> B . C 的字符串
+     */
+    String toString(int item) {
+        final var builder = new StringBuilder();
+
+        final var production = itemProductions[item];
+        builder.append(production.head());
+        builder.append(" -> ");
+
+        final var body = production.body();
+        final var dot = itemDots[item];
+        for (int i = 0; i < body.size(); i++) {
+            if (i == dot) {
+                builder.append(" .");
+            }
+            builder.append(" ").append(body.get(i));
+        }
+
+        if (dot == body.size()) {
+            builder.append(" .");
+        }
+
+        return builder.toString();
+    }
+
+    private final int nonTerminalCount;
+    private final List<Term> symbols;
+    private final Map<Term, Integer> symbolIds = new HashMap<>();
+
+    private final Production[] itemProductions;
+    private final int[] itemDots;
+    private final int[] itemSymbols;
+    private final int[][] startItems;
+}
@@ -5,6 +5,7 @@ import cn.edu.hitsz.compiler.lexer.TokenKind;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 
 import java.util.List;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -39,10 +40,71 @@ public class LRTable {
      * @return 起始状态
      */
     public Status getInit() {
-        return statusInIndexOrder.get(0);
+        return statusInIndexOrder().get(0);
+    }
+
+    /**
+     * 将此表按构造时选择的布局编译为 int 数组, 供驱动程序使用. 编译结果会被缓存, 多次调用返回同一个对象
+     *
+     * @return 编译后的分析表
+     */
+    public CompiledTable compile() {
+        if (compiled == null) {
+            compiled = switch (layout) {
+                case DENSE -> dense();
+                case PACKED -> PackedTable.pack(dense());
+            };
+        }
+        return compiled;
+    }
+
+    /**
+     * 令驱动程序将单位产生式的规约链融合为一步 (见 {@link UnitChains}). 表的内容不变, 关心单位产生式的观察者仍会按原来的顺序
+     * 收到链上的每一次规约, 需要在把表交给驱动程序之前调用
+     */
+    public void fuseUnitChains() {
+        fuseUnitChains = true;
+    }
+
+    /**
+     * @return 编译后的表中的单位产生式链; 未调用 {@link #fuseUnitChains()} 时返回 null. 结果会被缓存
+     */
+    public UnitChains unitChains() {
+        if (!fuseUnitChains) {
+            return null;
+        }
+        if (unitChains == null) {
+            unitChains = UnitChains.of(compile());
+        }
+        return unitChains;
+    }
+
+    /**
+     * @return 稠密布局的编译结果, 用于写入缓存与压缩
+     */
+    DenseTable dense() {
+        if (dense == null) {
+            dense = DenseTable.compile(getInit(), statusInIndexOrder(), terminals, nonTerminals);
+        }
+        return dense;
     }
 
     public void dumpTable(String path) {
+        dumpTable(path,
+            (status, terminal) -> status.getAction(terminal).toString(),
+            (status, nonTerminal) -> convertToGotoString(status.getGoto(nonTerminal)));
+    }
+
+    /**
+     * 按与 {@link #dumpTable(String)} 完全相同的表头, 行与列输出一张表, 只是每一格的内容由参数决定.
+     * 可以用来输出与分析表逐格对齐的统计数据, 例如各状态下各动作的执行次数
+     *
+     * @param path       输出路径
+     * @param actionCell 给出 ACTION 部分一格的内容
+     * @param gotoCell   给出 GOTO 部分一格的内容
+     */
+    public void dumpTable(String path, BiFunction<Status, TokenKind, String> actionCell,
+                          BiFunction<Status, NonTerminal, String> gotoCell) {
         final var text = new StringBuilder();
         // table head
         text.append("Status,ACTION").append(",".repeat(terminals.size()))
@@ -56,12 +118,12 @@ public class LRTable {
             .append(nonTerminals.stream().map(Term::toString).collect(Collectors.joining(",")))
             .append("\n");
 
-        for (final var status : statusInIndexOrder) {
+        for (final var status : statusInIndexOrder()) {
             text.append(status)
                 .append(",")
-                .append(terminals.stream().map(status::getAction).map(Action::toString).collect(Collectors.joining(",")))
+                .append(terminals.stream().map(terminal -> actionCell.apply(status, terminal)).collect(Collectors.joining(",")))
                 .append(",")
-                .append(nonTerminals.stream().map(status::getGoto).map(this::convertToGotoString).collect(Collectors.joining(",")))
+                .append(nonTerminals.stream().map(nonTerminal -> gotoCell.apply(status, nonTerminal)).collect(Collectors.joining(",")))
                 .append("\n");
         }
 
@@ -76,13 +138,40 @@ public class LRTable {
         }
     }
 
-    LRTable(List<Status> statusInIndexOrder, List<TokenKind> terminals, List<NonTerminal> nonTerminals) {
+    LRTable(List<Status> statusInIndexOrder, List<TokenKind> terminals, List<NonTerminal> nonTerminals, TableLayout layout) {
         this.statusInIndexOrder = statusInIndexOrder;
         this.terminals = terminals;
         this.nonTerminals = nonTerminals;
+        this.layout = layout;
+    }
+
+    /**
+     * 由稠密布局的编译结果构造, 状态对象在第一次需要时才由编译后的表构造出来
+     *
+     * @param dense  稠密布局的编译结果
+     * @param layout 驱动程序使用的布局
+     */
+    LRTable(DenseTable dense, TableLayout layout) {
+        this.statusInIndexOrder = null;
+        this.terminals = dense.terminals();
+        this.nonTerminals = dense.nonTerminals();
+        this.layout = layout;
+        this.dense = dense;
+    }
+
+    private List<Status> statusInIndexOrder() {
+        if (statusInIndexOrder == null) {
+            statusInIndexOrder = dense.statuses();
+        }
+        return statusInIndexOrder;
     }
 
-    private final List<Status> statusInIndexOrder;
+    private List<Status> statusInIndexOrder;
     private final List<TokenKind> terminals;
     private final List<NonTerminal> nonTerminals;
+    private final TableLayout layout;
+    private DenseTable dense = null;
+    private CompiledTable compiled = null;
+    private boolean fuseUnitChains = false;
+    private UnitChains unitChains = null;
 }
@@ -0,0 +1,399 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * LR(0) 规范项目集族及其转移, 供 SLR(1) 与 LALR(1) 使用
+ * <br>
+ * 状态以其核 (kernel) 唯一确定, 核以升序排列的 {@link ItemSpace} 项目编号表示, 所以只需以核查找已有状态.
+ * 闭包是以项目编号为位的 {@link BitSet}, 只在展开状态时临时计算, 不随状态保存.
+ * <br>
+ * 闭包中点在开头的项目只取决于核中各项目点后的非终结符, 因此预先为每个非终结符 A 求出
+ * { B -> . γ | A 能最左推导出以 B 开头的串 }, 求闭包时只需将核中点后各非终结符对应的集合并起来.
+ */
+final class Lr0Automaton {
+    /**
+     * 以 BFS 的顺序构造所有状态. 展开一个状态时按符号编号的顺序处理各后继, 所以状态编号只取决于符号的编号顺序
+     *
+     * @param space 项目编码
+     */
+    Lr0Automaton(ItemSpace space) {
+        this.space = space;
+        this.leftClosures = computeLeftClosures(space);
+        this.hasNullProductions = hasNullProductions(space);
+        constructSequentially();
+    }
+
+    /**
+     * 在线程池上逐层并行地构造所有状态, 结果与 {@link #Lr0Automaton(ItemSpace)} 完全一致
+     * <br>
+     * BFS 的每一层中, 各状态的闭包与后继核在线程池上并发地计算, 并通过并发的哈希表以核去重, 新状态的临时编号取决于线程调度.
+     * 构造完成后从起始状态出发, 按顺序构造时的次序 (状态按编号, 后继按符号编号) 再做一次 BFS 为状态重新编号,
+     * 这正是顺序构造时分配编号的次序, 所以最终的编号与线程调度无关.
+     *
+     * @param space 项目编码
+     * @param pool  执行展开的线程池
+     */
+    Lr0Automaton(ItemSpace space, ForkJoinPool pool) {
+        this.space = space;
+        this.leftClosures = computeLeftClosures(space);
+        this.hasNullProductions = hasNullProductions(space);
+        constructInParallel(pool);
+    }
+
+    /**
+     * @return 状态个数
+     */
+    int size() {
+        return kernels.size();
+    }
+
+    /**
+     * @param state 状态编号
+     * @return 该状态的闭包
+     */
+    BitSet closure(int state) {
+        final var result = new BitSet();
+        closure(kernels.get(state), result);
+        return result;
+    }
+
+    /**
+     * 点在末尾的项目要么在核中, 要么是闭包中空产生式的项目, 因此不需要求出整个闭包
+     *
+     * @param state 状态编号
+     * @return 该状态的闭包中点在末尾的项目, 按编号升序排列
+     */
+    int[] reduceItems(int state) {
+        final var result = IntStream.builder();
+        for (final var item : kernels.get(state)) {
+            final var symbol = space.afterDot(item);
+            if (symbol < 0) {
+                result.add(item);
+            } else if (hasNullProductions && space.isNonTerminal(symbol)) {
+                final var closure = leftClosures[symbol];
+                for (var start = closure.nextSetBit(0); start >= 0; start = closure.nextSetBit(start + 1)) {
+                    if (space.afterDot(start) < 0) {
+                        result.add(start);
+                    }
+                }
+            }
+        }
+        return result.build().sorted().distinct().toArray();
+    }
+
+    /**
+     * @param state 状态编号
+     * @return 该状态在各文法符号上的转移
+     */
+    Map<Term, Integer> transitions(int state) {
+        final var stateSymbols = symbols.get(state);
+        final var stateTargets = targets.get(state);
+        final var result = new LinkedHashMap<Term, Integer>();
+        for (int i = 0; i < stateSymbols.length; i++) {
+            result.put(space.symbol(stateSymbols[i]), stateTargets[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 一个状态的展开结果: 按符号编号排列的各后继符号与后继核
+     */
+    private record Expansion(int[] symbols, int[][] kernels) {
+    }
+
+    /**
+     * 并行构造时一个任务的结果
+     *
+     * @param states     被展开的状态的临时编号
+     * @param expansions 各状态的展开结果
+     * @param targets    各状态的各后继的临时编号
+     * @param created    本任务创建的新状态
+     */
+    private record ChunkResult(int[] states, Expansion[] expansions, int[][] targets, List<NewState> created) {
+    }
+
+    /**
+     * @param state  新状态的临时编号
+     * @param kernel 新状态的核
+     */
+    private record NewState(int state, int[] kernel) {
+    }
+
+    /**
+     * 以核查找状态时使用的键
+     * <br>
+     * 核中的项目编号往往只差一两个, {@link Arrays#hashCode(int[])} 的多项式散列在它们之间冲突较多,
+     * 所以另外按各个项目编号混合出散列值, 并在构造时算好
+     */
+    private record Kernel(int[] items, int hash) {
+        static Kernel of(int[] items) {
+            var hash = 0L;
+            for (final var item : items) {
+                hash = (hash + item + 1) * 0x9E3779B97F4A7C15L;
+            }
+            return new Kernel(items, (int) (hash ^ (hash >>> 32)));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Kernel kernel && kernel.hash == hash && Arrays.equals(kernel.items, items);
+        }
+    }
+
+    /**
+     * 展开状态时使用的临时空间, 每个线程一份
+     */
+    private final class Expander {
+        private final BitSet closure = new BitSet();
+        private final BitSet touched = new BitSet();
+        // 以符号编号为下标, 点后为该符号的项目的后继项目
+        private final int[][] successors = new int[space.symbolCount()][];
+        private final int[] counts = new int[space.symbolCount()];
+
+        /**
+         * 计算状态的闭包, 并按点后的符号对闭包中的项目分组, 其后继项目 (编号加一) 就是各后继状态的核.
+         * 闭包按项目编号升序遍历, 所以各后继核也是升序的
+         *
+         * @param kernel 状态的核
+         * @return 展开结果
+         */
+        Expansion expand(int[] kernel) {
+            Lr0Automaton.this.closure(kernel, closure);
+            for (var item = closure.nextSetBit(0); item >= 0; item = closure.nextSetBit(item + 1)) {
+                final var symbol = space.afterDot(item);
+                if (symbol < 0) {
+                    continue;
+                }
+
+                if (successors[symbol] == null) {
+                    successors[symbol] = new int[4];
+                } else if (counts[symbol] == successors[symbol].length) {
+                    successors[symbol] = Arrays.copyOf(successors[symbol], counts[symbol] * 2);
+                }
+                successors[symbol][counts[symbol]++] = item + 1;
+                touched.set(symbol);
+            }
+
+            final var result = touched.stream().toArray();
+            final var resultKernels = new int[result.length][];
+            for (int i = 0; i < result.length; i++) {
+                resultKernels[i] = Arrays.copyOf(successors[result[i]], counts[result[i]]);
+                counts[result[i]] = 0;
+            }
+            touched.clear();
+            return new Expansion(result, resultKernels);
+        }
+    }
+
+    private final ItemSpace space;
+    private final BitSet[] leftClosures;
+    private final boolean hasNullProductions;
+
+    private final List<int[]> kernels = new ArrayList<>();
+    private final List<int[]> symbols = new ArrayList<>();
+    private final List<int[]> targets = new ArrayList<>();
+
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private void constructSequentially() {
+        final var expander = new Expander();
+        final var byKernel = new HashMap<Kernel, Integer>();
+        final var initKernel = new int[]{space.initItem()};
+        kernels.add(initKernel);
+        byKernel.put(Kernel.of(initKernel), 0);
+
+        for (int state = 0; state < kernels.size(); state++) {
+            final var expansion = expander.expand(kernels.get(state));
+            final var stateTargets = new int[expansion.symbols().length];
+            for (int i = 0; i < stateTargets.length; i++) {
+                final var kernel = expansion.kernels()[i];
+                stateTargets[i] = byKernel.computeIfAbsent(Kernel.of(kernel), key -> {
+                    kernels.add(kernel);
+                    return kernels.size() - 1;
+                });
+            }
+            symbols.add(expansion.symbols());
+            targets.add(stateTargets);
+        }
+    }
+
+    private void constructInParallel(ForkJoinPool pool) {
+        final var byKernel = new ConcurrentHashMap<Kernel, Integer>();
+        final var nextId = new AtomicInteger();
+        final var initKernel = new int[]{space.initItem()};
+        byKernel.put(Kernel.of(initKernel), nextId.getAndIncrement());
+
+        // 以临时编号为下标
+        final var tempKernels = new ArrayList<int[]>(List.of(initKernel));
+        final var tempExpansions = new ArrayList<Expansion>();
+        final var tempTargets = new ArrayList<int[]>();
+
+        var frontier = new int[]{0};
+        while (frontier.length > 0) {
+            final var chunkSize = Math.max(1, frontier.length / (pool.getParallelism() * CHUNKS_PER_THREAD));
+            final var tasks = new ArrayList<RecursiveTask<ChunkResult>>();
+            for (int begin = 0; begin < frontier.length; begin += chunkSize) {
+                final var states = Arrays.copyOfRange(frontier, begin, Math.min(frontier.length, begin + chunkSize));
+                tasks.add(new RecursiveTask<>() {
+                    @Override
+                    protected ChunkResult compute() {
+                        return expandChunk(states, tempKernels, byKernel, nextId);
+                    }
+                });
+            }
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+            // 工作线程只读取 tempKernels, 这一层的所有结果都在此处由当前线程写入
+            final var created = new ArrayList<Integer>();
+            for (final var task : tasks) {
+                final var result = task.join();
+                for (int i = 0; i < result.states().length; i++) {
+                    final var state = result.states()[i];
+                    setAt(tempExpansions, state, result.expansions()[i]);
+                    setAt(tempTargets, state, result.targets()[i]);
+                }
+                for (final var newState : result.created()) {
+                    setAt(tempKernels, newState.state(), newState.kernel());
+                    created.add(newState.state());
+                }
+            }
+            frontier = created.stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+
+        renumber(tempKernels, tempExpansions, tempTargets);
+    }
+
+    private ChunkResult expandChunk(int[] states, List<int[]> tempKernels,
+                                    ConcurrentHashMap<Kernel, Integer> byKernel, AtomicInteger nextId) {
+        final var expander = new Expander();
+        final var expansions = new Expansion[states.length];
+        final var chunkTargets = new int[states.length][];
+        final var created = new ArrayList<NewState>();
+
+        for (int i = 0; i < states.length; i++) {
+            final var expansion = expander.expand(tempKernels.get(states[i]));
+            expansions[i] = expansion;
+            chunkTargets[i] = new int[expansion.kernels().length];
+            for (int j = 0; j < expansion.kernels().length; j++) {
+                final var fresh = new boolean[1];
+                chunkTargets[i][j] = byKernel.computeIfAbsent(Kernel.of(expansion.kernels()[j]), kernel -> {
+                    fresh[0] = true;
+                    return nextId.getAndIncrement();
+                });
+                if (fresh[0]) {
+                    created.add(new NewState(chunkTargets[i][j], expansion.kernels()[j]));
+                }
+            }
+        }
+        return new ChunkResult(states, expansions, chunkTargets, created);
+    }
+
+    /**
+     * 从起始状态出发按状态编号与符号编号的顺序做 BFS, 以首次到达的顺序作为最终编号
+     */
+    private void renumber(List<int[]> tempKernels, List<Expansion> tempExpansions, List<int[]> tempTargets) {
+        final var count = tempKernels.size();
+        final var newId = new int[count];
+        Arrays.fill(newId, -1);
+        final var order = new int[count];
+        newId[0] = 0;
+        var numbered = 1;
+        for (int i = 0; i < numbered; i++) {
+            for (final var target : tempTargets.get(order[i])) {
+                if (newId[target] < 0) {
+                    newId[target] = numbered;
+                    order[numbered++] = target;
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            final var state = order[i];
+            kernels.add(tempKernels.get(state));
+            symbols.add(tempExpansions.get(state).symbols());
+            targets.add(Arrays.stream(tempTargets.get(state)).map(target -> newId[target]).toArray());
+        }
+    }
+
+    /**
+     * @param kernel 状态的核
+     * @param result 存放闭包, 原有内容会被清除
+     */
+    private void closure(int[] kernel, BitSet result) {
+        result.clear();
+        for (final var item : kernel) {
+            result.set(item);
+            final var symbol = space.afterDot(item);
+            if (symbol >= 0 && space.isNonTerminal(symbol)) {
+                result.or(leftClosures[symbol]);
+            }
+        }
+    }
+
+    private static <T> void setAt(List<T> list, int index, T value) {
+        while (list.size() <= index) {
+            list.add(null);
+        }
+        list.set(index, value);
+    }
+
+    /**
+     * @return 以非终结符的符号编号为下标, 从该非终结符出发的闭包中所有点在开头的项目
+     */
+    private static BitSet[] computeLeftClosures(ItemSpace space) {
+        final var result = new BitSet[space.symbolCount()];
+        final var pending = new ArrayList<Integer>();
+        for (int nonTerminal = 0; nonTerminal < result.length && space.isNonTerminal(nonTerminal); nonTerminal++) {
+            // 沿 "产生式体的第一个符号" 这一关系搜索所有可达的非终结符
+            final var closure = new BitSet();
+            final var reached = new BitSet();
+            reached.set(nonTerminal);
+            pending.add(nonTerminal);
+            while (!pending.isEmpty()) {
+                final var current = pending.remove(pending.size() - 1);
+                for (final var start : space.startItems(current)) {
+                    closure.set(start);
+                    final var first = space.afterDot(start);
+                    if (first >= 0 && space.isNonTerminal(first) && !reached.get(first)) {
+                        reached.set(first);
+                        pending.add(first);
+                    }
+                }
+            }
+            result[nonTerminal] = closure;
+        }
+        return result;
+    }
+
+    /**
+     * @return 文法中是否有空产生式, 即点在开头的项目同时点在末尾
+     */
+    private static boolean hasNullProductions(ItemSpace space) {
+        for (int nonTerminal = 0; nonTerminal < space.symbolCount() && space.isNonTerminal(nonTerminal); nonTerminal++) {
+            for (final var start : space.startItems(nonTerminal)) {
+                if (space.afterDot(start) < 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,254 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LR(1) 项目集族
+ * <br>
+ * 每个状态中核心相同的 LR(1) 项目被合并为一个 LR(0) 项目 (以 {@link ItemSpace} 中的编号表示) 与一个向前看符号集合
+ * ({@link BitSet}, 位为终结符在 {@link FirstSets} 中的下标). 两个状态相同当且仅当它们的核 (kernel) 中的项目与各项目的向前看符号集合都相同.
+ * <br>
+ * 若要求合并状态, 则在得到一个新的核时, 先在核心 (不计向前看符号的核) 相同的已有状态中寻找与之弱相容的状态
+ * (Pager, 1977), 找到时把新核的向前看符号并入该状态, 而不创建新状态. 弱相容保证合并不会引入新的规约-规约冲突.
+ * 被并入了新向前看符号的状态会被重新展开, 将新增的向前看符号沿已有的转移传播下去.
+ */
+final class Lr1Collection {
+    /**
+     * @param space     项目编码
+     * @param firstSets 各文法符号的 FIRST 集合
+     * @param merge     是否合并弱相容的状态
+     */
+    Lr1Collection(ItemSpace space, FirstSets firstSets, boolean merge) {
+        this.space = space;
+        this.firstSets = firstSets;
+        this.merge = merge;
+
+        final var initKernel = new LinkedHashMap<Integer, BitSet>();
+        final var eof = new BitSet();
+        eof.set(firstSets.indexOf(TokenKind.eof()));
+        initKernel.put(space.initItem(), eof);
+        addState(initKernel);
+
+        while (!unexpanded.isEmpty()) {
+            final var state = unexpanded.pollFirst();
+            queued.clear(state);
+            expand(state);
+        }
+    }
+
+    /**
+     * @return 状态个数
+     */
+    int size() {
+        return states.size();
+    }
+
+    /**
+     * @param state 状态编号
+     * @return 该状态的闭包中的所有项目及其向前看符号集合
+     */
+    Map<Integer, BitSet> items(int state) {
+        return states.get(state).closure;
+    }
+
+    /**
+     * @param state 状态编号
+     * @return 该状态在各文法符号上的转移
+     */
+    Map<Term, Integer> transitions(int state) {
+        return states.get(state).transitions;
+    }
+
+    private static final class State {
+        State(Map<Integer, BitSet> kernel) {
+            this.kernel = kernel;
+        }
+
+        final Map<Integer, BitSet> kernel;
+        Map<Integer, BitSet> closure = Map.of();
+        final Map<Term, Integer> transitions = new LinkedHashMap<>();
+    }
+
+    private final ItemSpace space;
+    private final FirstSets firstSets;
+    private final boolean merge;
+
+    private final List<State> states = new ArrayList<>();
+    // 不合并时以完整的核查找状态, 合并时以核心查找候选状态
+    private final Map<Map<Integer, BitSet>, Integer> byKernel = new HashMap<>();
+    private final Map<BitSet, List<Integer>> byCore = new HashMap<>();
+
+    private final ArrayDeque<Integer> unexpanded = new ArrayDeque<>();
+    private final BitSet queued = new BitSet();
+
+    /**
+     * 计算状态的闭包, 并将各后继核并入对应的后继状态
+     */
+    private void expand(int index) {
+        final var state = states.get(index);
+        state.closure = closure(state.kernel);
+
+        // 按点后的符号对闭包中的项目分组, 得到各后继状态的核
+        final var successors = new LinkedHashMap<Integer, Map<Integer, BitSet>>();
+        for (final var entry : state.closure.entrySet()) {
+            final int item = entry.getKey();
+            final var symbol = space.afterDot(item);
+            if (symbol < 0) {
+                continue;
+            }
+
+            successors.computeIfAbsent(symbol, key -> new LinkedHashMap<>())
+                .computeIfAbsent(item + 1, key -> new BitSet())
+                .or(entry.getValue());
+        }
+
+        for (final var entry : successors.entrySet()) {
+            final var term = space.symbol(entry.getKey());
+            final var existing = state.transitions.get(term);
+            if (existing != null) {
+                // 重新展开时, 新增的向前看符号沿已有的转移传播
+                mergeInto(existing, entry.getValue());
+            } else {
+                state.transitions.put(term, findOrAdd(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * LR(1) 闭包: 对 [A -> α . B β, L], 加入 [B -> . γ, FIRST(β L)]. 某个项目的向前看符号增加时重新处理它
+     */
+    private Map<Integer, BitSet> closure(Map<Integer, BitSet> kernel) {
+        final var result = new LinkedHashMap<Integer, BitSet>();
+        final var pending = new ArrayDeque<Integer>();
+        for (final var entry : kernel.entrySet()) {
+            result.put(entry.getKey(), (BitSet) entry.getValue().clone());
+            pending.add(entry.getKey());
+        }
+
+        while (!pending.isEmpty()) {
+            final int item = pending.pollFirst();
+            final var next = space.afterDot(item);
+            if (next < 0 || !space.isNonTerminal(next)) {
+                continue;
+            }
+
+            final var lookahead = new BitSet();
+            if (firstSets.firstOfSequence(space.production(item).body(), space.dot(item) + 1, lookahead)) {
+                lookahead.or(result.get(item));
+            }
+
+            for (final var expanded : space.startItems(next)) {
+                final var existing = result.get(expanded);
+                if (existing == null) {
+                    result.put(expanded, (BitSet) lookahead.clone());
+                    pending.add(expanded);
+                } else if (!contains(existing, lookahead)) {
+                    existing.or(lookahead);
+                    pending.add(expanded);
+                }
+            }
+        }
+        return result;
+    }
+
+    private int findOrAdd(Map<Integer, BitSet> kernel) {
+        if (!merge) {
+            final var existing = byKernel.get(kernel);
+            return existing != null ? existing : addState(kernel);
+        }
+
+        final var core = coreOf(kernel);
+        for (final var candidate : byCore.getOrDefault(core, List.of())) {
+            if (weaklyCompatible(states.get(candidate).kernel, kernel)) {
+                mergeInto(candidate, kernel);
+                return candidate;
+            }
+        }
+        return addState(kernel);
+    }
+
+    private int addState(Map<Integer, BitSet> kernel) {
+        final var index = states.size();
+        states.add(new State(kernel));
+        if (merge) {
+            byCore.computeIfAbsent(coreOf(kernel), key -> new ArrayList<>()).add(index);
+        } else {
+            byKernel.put(kernel, index);
+        }
+        schedule(index);
+        return index;
+    }
+
+    /**
+     * 将核中的向前看符号并入已有状态; 若有新增, 该状态需要重新展开
+     */
+    private void mergeInto(int index, Map<Integer, BitSet> kernel) {
+        final var target = states.get(index).kernel;
+        var changed = false;
+        for (final var entry : kernel.entrySet()) {
+            final var lookahead = target.get(entry.getKey());
+            if (!contains(lookahead, entry.getValue())) {
+                lookahead.or(entry.getValue());
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            schedule(index);
+        }
+    }
+
+    private void schedule(int index) {
+        if (!queued.get(index)) {
+            queued.set(index);
+            unexpanded.addLast(index);
+        }
+    }
+
+    /**
+     * Pager 的弱相容条件: 对核中任意两个不同的项目 i, j, 要么两状态交叉的向前看符号不相交,
+     * 要么其中某一个状态自身的 i, j 向前看符号就已经相交 (冲突已经存在, 合并不会引入新的冲突)
+     */
+    private static boolean weaklyCompatible(Map<Integer, BitSet> lhs, Map<Integer, BitSet> rhs) {
+        final var items = List.copyOf(lhs.keySet());
+        for (int i = 0; i < items.size(); i++) {
+            for (int j = i + 1; j < items.size(); j++) {
+                final var lhsI = lhs.get(items.get(i));
+                final var lhsJ = lhs.get(items.get(j));
+                final var rhsI = rhs.get(items.get(i));
+                final var rhsJ = rhs.get(items.get(j));
+                if (!lhsI.intersects(rhsJ) && !rhsI.intersects(lhsJ)) {
+                    continue;
+                }
+                if (lhsI.intersects(lhsJ) || rhsI.intersects(rhsJ)) {
+                    continue;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 核心, 即核中的 LR(0) 项目
+     */
+    private static BitSet coreOf(Map<Integer, BitSet> kernel) {
+        final var core = new BitSet();
+        kernel.keySet().forEach(core::set);
+        return core;
+    }
+
+    private static boolean contains(BitSet set, BitSet subset) {
+        final var missing = (BitSet) subset.clone();
+        missing.andNot(set);
+        return missing.isEmpty();
+    }
+}
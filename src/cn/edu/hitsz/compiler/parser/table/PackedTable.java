@@ -0,0 +1,265 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+/**
+ * 压缩布局的 LR 分析表 ({@link TableLayout#PACKED})
+ * <br>
+ * 大文法的分析表非常稀疏, 并且每一行中大部分非错误的单元格都是同一个规约动作. 因此:
+ * <ul>
+ *     <li>每个状态记录一个默认动作 (该行中出现次数最多的非错误动作, 通常是一个规约), 与默认动作相同的单元格不再存储;</li>
+ *     <li>其余单元格按行位移 (comb vector) 压缩: 所有行共用一个 (check, value) 数组, 第 s 行的第 c 列存放在
+ *     base[s] + c 处, 当且仅当 check 中记录的行号为 s 时该位置属于此行, 否则取默认动作;</li>
+ *     <li>每行另有一张位图记录哪些列不是错误. 默认动作会填满该行的所有空位, 没有位图的话错误就会被推迟到之后的规约中才被发现,
+ *     而位图使查询结果与稠密表完全一致.</li>
+ * </ul>
+ * goto 表按列 (非终结符) 以同样的方式压缩, 每个非终结符记录一个默认目标, 并以位图区分错误.
+ */
+final class PackedTable extends CompiledTable {
+    @Override
+    public int action(int state, int code) {
+        final var column = code + 1;
+        if (column < 0 || column >= terminalColumns) {
+            return ERROR;
+        }
+
+        // long 的移位只取低 6 位, 所以 1L << column 就是 column 在其所在字中的位
+        if ((actionValid[state * actionWords + (column >>> 6)] & (1L << column)) == 0) {
+            return ERROR;
+        }
+
+        final var slot = actionSlots[actionBase[state] + column];
+        return (int) (slot >>> 32) == state ? (int) slot : defaultAction[state];
+    }
+
+    @Override
+    public int gotoOf(int state, int nonTerminal) {
+        if ((gotoValid[nonTerminal * gotoWords + (state >>> 6)] & (1L << state)) == 0) {
+            return -1;
+        }
+
+        final var slot = gotoSlots[gotoBase[nonTerminal] + state];
+        return (int) (slot >>> 32) == nonTerminal ? (int) slot : defaultGoto[nonTerminal];
+    }
+
+    @Override
+    int nextGotoSource(int nonTerminal, int from) {
+        // 直接扫描该列的位图, 每次跳过 64 个状态
+        final var words = nonTerminal * gotoWords;
+        var word = from >>> 6;
+        if (word >= gotoWords) {
+            return -1;
+        }
+
+        var bits = gotoValid[words + word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == gotoWords) {
+                return -1;
+            }
+            bits = gotoValid[words + word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    @Override
+    public long sizeInBytes() {
+        final long ints = defaultAction.length + actionBase.length + defaultGoto.length + gotoBase.length;
+        final long longs = actionSlots.length + actionValid.length + gotoSlots.length + gotoValid.length;
+        return Integer.BYTES * ints + Long.BYTES * longs;
+    }
+
+    /**
+     * 压缩一张已经编译好的表
+     *
+     * @param table 任意布局的表
+     * @return 查询结果与之完全相同的压缩表
+     */
+    static PackedTable pack(CompiledTable table) {
+        return new PackedTable(table);
+    }
+
+    private PackedTable(CompiledTable table) {
+        // 状态对象按需构造, 不保留原表的状态对象, 它们所持有的哈希表可以被回收
+        super(table.initState(), table.stateCount(), table.terminals(), table.nonTerminals(), table.productions(), null);
+
+        final var stateCount = table.stateCount();
+        final var nonTerminalCount = table.nonTerminals().size();
+        terminalColumns = table.terminalColumns();
+        actionWords = (terminalColumns + 63) >>> 6;
+        gotoWords = (stateCount + 63) >>> 6;
+
+        // action 表按行压缩
+        final var actionRows = new int[stateCount][];
+        defaultAction = new int[stateCount];
+        actionValid = new long[stateCount * actionWords];
+        for (int state = 0; state < stateCount; state++) {
+            final var row = new int[terminalColumns];
+            for (int column = 0; column < terminalColumns; column++) {
+                row[column] = table.action(state, column - 1);
+                if (row[column] != ERROR) {
+                    actionValid[state * actionWords + (column >>> 6)] |= 1L << column;
+                }
+            }
+            defaultAction[state] = mostFrequent(row, ERROR);
+            actionRows[state] = row;
+        }
+        final var actionComb = new Comb();
+        actionBase = actionComb.placeAll(actionRows, defaultAction, ERROR);
+        actionSlots = actionComb.slots(terminalColumns);
+
+        // goto 表按列压缩
+        final var gotoColumns = new int[nonTerminalCount][];
+        defaultGoto = new int[nonTerminalCount];
+        gotoValid = new long[nonTerminalCount * gotoWords];
+        for (int nonTerminal = 0; nonTerminal < nonTerminalCount; nonTerminal++) {
+            final var column = new int[stateCount];
+            for (int state = 0; state < stateCount; state++) {
+                column[state] = table.gotoOf(state, nonTerminal);
+                if (column[state] >= 0) {
+                    gotoValid[nonTerminal * gotoWords + (state >>> 6)] |= 1L << state;
+                }
+            }
+            defaultGoto[nonTerminal] = mostFrequent(column, -1);
+            gotoColumns[nonTerminal] = column;
+        }
+        final var gotoComb = new Comb();
+        gotoBase = gotoComb.placeAll(gotoColumns, defaultGoto, -1);
+        gotoSlots = gotoComb.slots(stateCount);
+    }
+
+    /**
+     * @param cells 一行单元格
+     * @param error 表示错误的值
+     * @return 出现次数最多的非错误值; 全为错误时返回 error
+     */
+    private static int mostFrequent(int[] cells, int error) {
+        final var counts = new HashMap<Integer, Integer>();
+        var result = error;
+        var best = 0;
+        for (final var cell : cells) {
+            if (cell == error) {
+                continue;
+            }
+
+            final var count = counts.merge(cell, 1, Integer::sum);
+            if (count > best) {
+                best = count;
+                result = cell;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 行位移压缩: 将若干稀疏的行错开叠放进同一个数组中
+     */
+    private static final class Comb {
+        /**
+         * 按非默认单元格从多到少的顺序依次为每一行寻找第一个不冲突的位移 (first fit). 先放较满的行, 较空的行更容易填进剩下的空隙
+         *
+         * @param rows     各行
+         * @param defaults 各行的默认值, 与之相同的单元格不需要存放
+         * @param error    表示错误的值, 错误由位图表示, 也不需要存放
+         * @return 各行的位移
+         */
+        int[] placeAll(int[][] rows, int[] defaults, int error) {
+            final var entries = new int[rows.length][];
+            for (int row = 0; row < rows.length; row++) {
+                final var cells = rows[row];
+                final var value = defaults[row];
+                entries[row] = IntStream.range(0, cells.length)
+                    .filter(column -> cells[column] != error && cells[column] != value)
+                    .toArray();
+            }
+
+            final var order = IntStream.range(0, rows.length).boxed()
+                .sorted(Comparator.comparingInt((Integer row) -> entries[row].length).reversed())
+                .mapToInt(Integer::intValue).toArray();
+
+            final var bases = new int[rows.length];
+            for (final var row : order) {
+                bases[row] = place(row, entries[row], rows[row]);
+            }
+            return bases;
+        }
+
+        /**
+         * check 与 value 交错存放在同一个 long 中 (高 32 位为 check, 低 32 位为 value), 一次查询只需访问一个位置
+         *
+         * @param width 每行的列数
+         * @return 长度足以容纳任意一行在其位移处的任意一列的数组, 未被占用的位置的 check 为 -1
+         */
+        long[] slots(int width) {
+            final var result = new long[size + width];
+            for (int i = 0; i < result.length; i++) {
+                final var check = i < checks.length ? checks[i] : -1;
+                final var value = i < values.length ? values[i] : 0;
+                result[i] = (long) check << 32 | (value & 0xffffffffL);
+            }
+            return result;
+        }
+
+        private int place(int row, int[] columns, int[] cells) {
+            if (columns.length == 0) {
+                return 0;
+            }
+
+            for (var base = Math.max(0, firstFree - columns[0]); ; base++) {
+                if (fits(base, columns)) {
+                    for (final var column : columns) {
+                        ensureCapacity(base + column + 1);
+                        values[base + column] = cells[column];
+                        checks[base + column] = row;
+                    }
+                    size = Math.max(size, base + columns[columns.length - 1] + 1);
+                    while (firstFree < checks.length && checks[firstFree] != -1) {
+                        firstFree++;
+                    }
+                    return base;
+                }
+            }
+        }
+
+        private boolean fits(int base, int[] columns) {
+            for (final var column : columns) {
+                final var index = base + column;
+                if (index < checks.length && checks[index] != -1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > checks.length) {
+                final var grown = Math.max(capacity, checks.length * 2);
+                values = Arrays.copyOf(values, grown);
+                final var oldLength = checks.length;
+                checks = Arrays.copyOf(checks, grown);
+                Arrays.fill(checks, oldLength, grown, -1);
+            }
+        }
+
+        private int[] values = new int[0];
+        private int[] checks = new int[0];
+        private int size = 0;
+        private int firstFree = 0;
+    }
+
+    private final int terminalColumns;
+    private final int actionWords;
+    private final int gotoWords;
+
+    private final int[] defaultAction;
+    private final int[] actionBase;
+    private final long[] actionSlots;
+    private final long[] actionValid;
+
+    private final int[] defaultGoto;
+    private final int[] gotoBase;
+    private final long[] gotoSlots;
+    private final long[] gotoValid;
+}
@@ -0,0 +1,186 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.utils.FileUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 将 LR 分析表生成为语法分析器的 Java 源代码
+ * <br>
+ * 生成的类继承 {@link cn.edu.hitsz.compiler.parser.GeneratedParser}. 每个状态生成一个方法, 以当前词法单元的码点 switch 到动作;
+ * 每个非终结符生成一个 goto 方法, 以状态 switch 到目标状态. 规约时产生式的编号, 长度与 goto 方法都直接写在代码中.
+ * 动作相同的码点 (或目标相同的状态) 合并为同一个 case.
+ * <br>
+ * 生成的源代码需要编译进项目才能使用, 此后分析时不再需要读取与编译分析表. 文法或码点改变后需要重新生成,
+ * 生成的分析器在构造时会检查这一点.
+ */
+public class ParserGenerator {
+    /**
+     * @param table 要生成为代码的分析表
+     */
+    public ParserGenerator(LRTable table) {
+        this.table = table.dense();
+    }
+
+    /**
+     * @param packageName 生成的类所在的包
+     * @param className   生成的类名
+     * @return 生成的源代码
+     */
+    public String generate(String packageName, String className) {
+        final var out = new StringBuilder();
+        out.append("package ").append(packageName).append(";\n\n");
+        if (!packageName.equals(PARSER_PACKAGE)) {
+            out.append("import ").append(PARSER_PACKAGE).append(".GeneratedParser;\n");
+        }
+        out.append("import cn.edu.hitsz.compiler.symtab.SymbolTable;\n\n");
+        out.append("/**\n");
+        out.append(" * 由 {@link cn.edu.hitsz.compiler.parser.table.ParserGenerator} 根据 LR 分析表生成, 请勿手动修改\n");
+        out.append(" */\n");
+        out.append("public final class ").append(className).append(" extends GeneratedParser {\n");
+
+        out.append("    public ").append(className).append("(SymbolTable symbolTable) {\n");
+        out.append("        super(symbolTable, STATE_COUNT, PRODUCTIONS, TERMINALS, TERMINAL_CODES);\n");
+        out.append("    }\n\n");
+
+        out.append("    @Override\n");
+        out.append("    protected int initState() {\n");
+        out.append("        return ").append(table.initState()).append(";\n");
+        out.append("    }\n\n");
+
+        appendParse(out);
+        for (int state = 0; state < table.stateCount(); state++) {
+            appendState(out, state);
+        }
+        for (int column = 0; column < table.nonTerminals().size(); column++) {
+            appendGoto(out, column);
+        }
+        appendConstants(out);
+
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * 生成源代码并写入文件
+     *
+     * @param path        源文件路径
+     * @param packageName 生成的类所在的包
+     * @param className   生成的类名
+     */
+    public void dumpSource(String path, String packageName, String className) {
+        FileUtils.writeFile(path, generate(packageName, className));
+    }
+
+    private final DenseTable table;
+
+    private static final String PARSER_PACKAGE = "cn.edu.hitsz.compiler.parser";
+
+    private void appendParse(StringBuilder out) {
+        out.append("    @Override\n");
+        out.append("    protected int parse() {\n");
+        out.append("        var state = initState();\n");
+        out.append("        while (state >= 0) {\n");
+        out.append("            state = switch (state) {\n");
+        for (int state = 0; state < table.stateCount(); state++) {
+            out.append("                case %d -> state%d();\n".formatted(state, state));
+        }
+        out.append("                default -> ERROR;\n");
+        out.append("            };\n");
+        out.append("        }\n");
+        out.append("        return state;\n");
+        out.append("    }\n\n");
+    }
+
+    private void appendState(StringBuilder out, int state) {
+        // 以动作对应的代码为键, 收集执行该动作的所有终结符
+        final var cases = new LinkedHashMap<String, List<String>>();
+        for (final var terminal : table.terminals()) {
+            final var action = table.action(state, terminal.getCode());
+            final String code;
+            if (CompiledTable.isShift(action)) {
+                code = "shift(%d, %d)".formatted(state, CompiledTable.shiftTarget(action));
+            } else if (CompiledTable.isReduce(action)) {
+                final var production = CompiledTable.reducedProduction(action);
+                code = "enter(goto%d(reduce(%d, %d, %d)))".formatted(table.productionHead(production), state,
+                    production, table.productionLength(production));
+            } else if (action == CompiledTable.ACCEPT) {
+                code = "accept(%d)".formatted(state);
+            } else {
+                continue;
+            }
+            cases.computeIfAbsent(code, key -> new ArrayList<>()).add(label(terminal.getCode(), terminal.toString()));
+        }
+
+        out.append("    private int state%d() {\n".formatted(state));
+        out.append("        return switch (kind()) {\n");
+        appendCases(out, cases);
+        out.append("        };\n");
+        out.append("    }\n\n");
+    }
+
+    private void appendGoto(StringBuilder out, int column) {
+        final var cases = new LinkedHashMap<String, List<String>>();
+        for (int state = 0; state < table.stateCount(); state++) {
+            final var target = table.gotoOf(state, column);
+            if (target >= 0) {
+                cases.computeIfAbsent(Integer.toString(target), key -> new ArrayList<>()).add(Integer.toString(state));
+            }
+        }
+
+        out.append("    // ").append(table.nonTerminals().get(column)).append("\n");
+        out.append("    private static int goto%d(int state) {\n".formatted(column));
+        out.append("        return switch (state) {\n");
+        appendCases(out, cases);
+        out.append("        };\n");
+        out.append("    }\n\n");
+    }
+
+    private static void appendCases(StringBuilder out, Map<String, List<String>> cases) {
+        for (final var entry : cases.entrySet()) {
+            out.append("            case ").append(String.join(", ", entry.getValue()))
+                .append(" -> ").append(entry.getKey()).append(";\n");
+        }
+        out.append("            default -> ERROR;\n");
+    }
+
+    private void appendConstants(StringBuilder out) {
+        out.append("    private static final int STATE_COUNT = ").append(table.stateCount()).append(";\n\n");
+
+        final var productions = new String[table.productionColumns()];
+        for (final var production : table.productions()) {
+            productions[production.index()] = production.toString();
+        }
+        out.append("    private static final String[] PRODUCTIONS = {\n");
+        for (final var production : productions) {
+            out.append("        ").append(production == null ? "null" : literal(production)).append(",\n");
+        }
+        out.append("    };\n\n");
+
+        out.append("    private static final String[] TERMINALS = {\n");
+        for (final var terminal : table.terminals()) {
+            out.append("        ").append(literal(terminal.getIdentifier())).append(",\n");
+        }
+        out.append("    };\n\n");
+
+        out.append("    private static final int[] TERMINAL_CODES = {\n");
+        out.append("        ").append(table.terminals().stream()
+            .map(terminal -> Integer.toString(terminal.getCode())).collect(Collectors.joining(", "))).append(",\n");
+        out.append("    };\n");
+    }
+
+    /**
+     * @return 带有终结符名称注释的 case 标签
+     */
+    private static String label(int code, String name) {
+        return name.contains("*/") ? Integer.toString(code) : "%d /* %s */".formatted(code, name);
+    }
+
+    private static String literal(String text) {
+        return '"' + text.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+}
@@ -0,0 +1,47 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+/**
+ * 语法文件中以 %left, %right 或 %nonassoc 声明的优先级与结合性, 用于消解移入-规约冲突
+ * <br>
+ * 同一行声明的符号优先级相同, 越靠后的行优先级越高. 产生式的优先级由 %prec 指定, 没有指定时取产生式体中最后一个终结符的优先级 (若其声明了优先级).
+ *
+ * @param level         优先级, 越大越优先
+ * @param associativity 结合性
+ */
+public record Precedence(int level, Associativity associativity) {
+    public enum Associativity {
+        /**
+         * 左结合, 优先级相同时规约
+         */
+        LEFT,
+
+        /**
+         * 右结合, 优先级相同时移入
+         */
+        RIGHT,
+
+        /**
+         * 不结合, 优先级相同时报错
+         */
+        NONASSOC,
+    }
+
+    /**
+     * 按 yacc 的规则决定移入-规约冲突中应采取的动作
+     *
+     * @param rule      待规约的产生式的优先级
+     * @param lookahead 待移入的终结符的优先级
+     * @return 应采取的动作的种类: Reduce, Shift 或 Error
+     */
+    static Action.ActionKind resolve(Precedence rule, Precedence lookahead) {
+        if (rule.level != lookahead.level) {
+            return rule.level > lookahead.level ? Action.ActionKind.Reduce : Action.ActionKind.Shift;
+        }
+
+        return switch (lookahead.associativity) {
+            case LEFT -> Action.ActionKind.Reduce;
+            case RIGHT -> Action.ActionKind.Shift;
+            case NONASSOC -> Action.ActionKind.Error;
+        };
+    }
+}
@@ -98,6 +98,13 @@ public record Status(int index, Map<TokenKind, Action> action, Map<NonTerminal,
         this.action.put(terminal, action);
     }
 
+    /**
+     * 以优先级消解移入-规约冲突之后, 用决定出的动作覆盖已有的动作, 不检查冲突
+     */
+    void overrideAction(TokenKind terminal, Action action) {
+        this.action.put(terminal, action);
+    }
+
     void setGoto(NonTerminal nonTerminal, Status goto_) {
         // 有可能 set 相同的 goto, 这时候不能报错
         if (inAndNotEqual(this.goto_, nonTerminal, goto_)) {
@@ -0,0 +1,306 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.utils.FilePathConfig;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * LR 分析表的二进制缓存
+ * <br>
+ * 第一次加载某张 CSV 分析表时, 将编译后的稠密表 ({@link DenseTable}) 连同产生式与文法符号一起写入一个二进制文件;
+ * 之后的加载直接将该文件映射进内存, 按块读出 action 与 goto 数组, 不需要逐个单元格地切分字符串, 也不需要读取语法文件.
+ * <br>
+ * 文件头记录了语法文件, 码点文件与 CSV 分析表三者内容的 SHA-256, 任何一个发生变化时缓存都会失效并被重新生成.
+ * 文件头中还有其后所有内容的 CRC-32, 文件被截断或损坏时同样当作没有缓存, 重新生成并覆盖它.
+ * <br>
+ * 文件格式 (大端序):
+ * <pre>
+ * magic, version, 其后所有内容的 CRC-32            int, int, int
+ * digest                                       32 字节
+ * initState, stateCount                        int, int
+ * terminalCount, 各终结符的码点                 int, int...
+ * nonTerminalCount, 各非终结符的名字            int, string...
+ * productionCount, 各产生式                     int, (index, head 的列号, bodySize, (1, 码点 | 0, 名字)...)...
+ * actions                                      int[stateCount * (最大码点 + 2)]
+ * nonTerminalGotos                             int[stateCount * nonTerminalCount]
+ * </pre>
+ * 其中 string 为 int 长度后跟 ISO-8859-1 编码的字节.
+ */
+final class TableCache {
+    /**
+     * 从缓存中读取分析表; 缓存不存在或已失效时, 调用 {@code build} 构造分析表并写入缓存
+     *
+     * @param csvPath   CSV 分析表路径
+     * @param cachePath 缓存文件路径
+     * @param layout    驱动程序使用的布局, 缓存中总是存放稠密布局
+     * @param build     由 CSV 构造分析表的方法
+     * @return 分析表
+     */
+    static LRTable loadOrBuild(String csvPath, String cachePath, TableLayout layout, Supplier<LRTable> build) {
+        final var digest = digestOf(FilePathConfig.GRAMMAR_PATH, FilePathConfig.CODING_MAP_PATH, csvPath);
+
+        final var cached = tryLoad(Paths.get(cachePath), digest);
+        if (cached != null) {
+            return new LRTable(cached, layout);
+        }
+
+        final var table = build.get();
+        tryStore(Paths.get(cachePath), digest, table.dense());
+        return table;
+    }
+
+    private static DenseTable tryLoad(Path path, byte[] digest) {
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            final var checksum = buffer.getInt();
+            final var crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+
+            final var storedDigest = new byte[digest.length];
+            buffer.get(storedDigest);
+            if (!Arrays.equals(storedDigest, digest)) {
+                return null;
+            }
+
+            return read(buffer);
+        } catch (IOException | RuntimeException e) {
+            // 缓存文件不存在或已损坏时当作没有缓存, 重新生成并覆盖即可. 校验和之外的损坏 (如不合法的码点或下标)
+            // 会在读取时以各种运行时异常的形式出现, 同样当作没有缓存
+            return null;
+        }
+    }
+
+    private static DenseTable read(ByteBuffer buffer) {
+        final var initState = buffer.getInt();
+        final var stateCount = buffer.getInt();
+
+        final var terminals = new ArrayList<TokenKind>();
+        final var terminalCount = buffer.getInt();
+        for (int i = 0; i < terminalCount; i++) {
+            terminals.add(TokenKind.fromCode(buffer.getInt()));
+        }
+
+        final var nonTerminals = new ArrayList<NonTerminal>();
+        final var nonTerminalCount = buffer.getInt();
+        for (int i = 0; i < nonTerminalCount; i++) {
+            nonTerminals.add(new NonTerminal(readString(buffer)));
+        }
+
+        final var productions = new ArrayList<Production>();
+        final var productionCount = buffer.getInt();
+        for (int i = 0; i < productionCount; i++) {
+            final var index = buffer.getInt();
+            final var head = nonTerminals.get(buffer.getInt());
+            final var body = new ArrayList<Term>();
+            final var bodySize = buffer.getInt();
+            for (int j = 0; j < bodySize; j++) {
+                final var isTerminal = buffer.get() != 0;
+                body.add(isTerminal ? TokenKind.fromCode(buffer.getInt()) : new NonTerminal(readString(buffer)));
+            }
+            productions.add(new Production(index, head, body));
+        }
+
+        final var terminalColumns = terminals.stream().mapToInt(TokenKind::getCode).max().orElse(-1) + 2;
+        final var actions = readInts(buffer, stateCount * terminalColumns);
+        final var nonTerminalGotos = readInts(buffer, stateCount * nonTerminalCount);
+        checkReferences(initState, stateCount, actions, nonTerminalGotos, productions);
+
+        return new DenseTable(initState, stateCount, List.copyOf(terminals), List.copyOf(nonTerminals),
+            actions, nonTerminalGotos, productions, null);
+    }
+
+    /**
+     * 校验和只能发现意外的损坏. 这里再检查表中引用的状态与产生式都存在, 使内容不一致的缓存在加载时当作没有缓存,
+     * 而不是在语法分析时才越界
+     */
+    private static void checkReferences(int initState, int stateCount, int[] actions, int[] nonTerminalGotos,
+                                        List<Production> productions) {
+        if (initState < 0 || initState >= stateCount) {
+            throw new RuntimeException("Illegal initial state in table cache: " + initState);
+        }
+
+        final var reducible = new HashSet<Integer>();
+        for (final var production : productions) {
+            if (!reducible.add(production.index())) {
+                throw new RuntimeException("Duplicate production in table cache: " + production.index());
+            }
+        }
+
+        for (final var action : actions) {
+            if (CompiledTable.isShift(action) && CompiledTable.shiftTarget(action) >= stateCount
+                || CompiledTable.isReduce(action) && !reducible.contains(CompiledTable.reducedProduction(action))) {
+                throw new RuntimeException("Illegal action in table cache: " + action);
+            }
+        }
+
+        for (final var target : nonTerminalGotos) {
+            if (target < -1 || target >= stateCount) {
+                throw new RuntimeException("Illegal goto in table cache: " + target);
+            }
+        }
+    }
+
+    /**
+     * 先写入临时文件再替换, 这样并发运行的其它进程永远不会读到写了一半的缓存
+     * <br>
+     * 缓存只用于加速, 写入失败 (如输出目录不可写) 时直接放弃, 不影响本次运行
+     */
+    private static void tryStore(Path path, byte[] digest, DenseTable table) {
+        final var nonTerminals = table.nonTerminals();
+        final var productions = table.productions();
+
+        var size = 5 * Integer.BYTES + digest.length;
+        size += Integer.BYTES * (1 + table.terminals().size());
+        size += Integer.BYTES;
+        for (final var nonTerminal : nonTerminals) {
+            size += Integer.BYTES + nonTerminal.getTermName().length();
+        }
+        size += Integer.BYTES;
+        for (final var production : productions) {
+            size += 3 * Integer.BYTES + production.body().size() * (1 + Integer.BYTES);
+            for (final var term : production.body()) {
+                if (term instanceof NonTerminal) {
+                    size += term.getTermName().length();
+                }
+            }
+        }
+        size += Integer.BYTES * (table.actions().length + table.nonTerminalGotos().length);
+
+        final var buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(0).put(digest);
+        buffer.putInt(table.initState()).putInt(table.stateCount());
+
+        buffer.putInt(table.terminals().size());
+        for (final var terminal : table.terminals()) {
+            buffer.putInt(terminal.getCode());
+        }
+
+        buffer.putInt(nonTerminals.size());
+        for (final var nonTerminal : nonTerminals) {
+            writeString(buffer, nonTerminal.getTermName());
+        }
+
+        buffer.putInt(productions.size());
+        for (final var production : productions) {
+            buffer.putInt(production.index()).putInt(nonTerminals.indexOf(production.head()));
+            buffer.putInt(production.body().size());
+            for (final var term : production.body()) {
+                if (term instanceof TokenKind tokenKind) {
+                    buffer.put((byte) 1).putInt(tokenKind.getCode());
+                } else {
+                    // 产生式体中的非终结符不一定在 goto 表中有对应的列, 因此直接记录名字
+                    buffer.put((byte) 0);
+                    writeString(buffer, term.getTermName());
+                }
+            }
+        }
+
+        buffer.asIntBuffer().put(table.actions()).put(table.nonTerminalGotos());
+
+        final var crc = new CRC32();
+        crc.update(buffer.position(HEADER_SIZE).limit(buffer.capacity()));
+        buffer.putInt(2 * Integer.BYTES, (int) crc.getValue()).rewind();
+
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (final var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 放弃写入缓存
+            deleteQuietly(temp);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // 临时文件删除失败不影响结果
+        }
+    }
+
+    private static byte[] digestOf(String... paths) {
+        try {
+            final var digest = MessageDigest.getInstance("SHA-256");
+            for (final var path : paths) {
+                final var content = Files.readAllBytes(Paths.get(path));
+                // 记入长度以区分文件之间的边界
+                digest.update(ByteBuffer.allocate(Long.BYTES).putLong(content.length).array());
+                digest.update(content);
+            }
+            return digest.digest();
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on hashing table inputs", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        if (count < 0 || count > buffer.remaining() / Integer.BYTES) {
+            throw new BufferUnderflowException();
+        }
+
+        final var result = new int[count];
+        buffer.asIntBuffer().get(result);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return result;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final var length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        final var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void writeString(ByteBuffer buffer, String text) {
+        final var bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static final int MAGIC = 0x4c525442; // "LRTB"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    private TableCache() {
+    }
+}
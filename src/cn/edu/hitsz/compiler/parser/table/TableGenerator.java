@@ -4,16 +4,39 @@ import cn.edu.hitsz.compiler.lexer.TokenKind;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * 根据语法文件构造 LR 分析表.
  * <br>
  * 此文件为非必需的框架文件, 用于提升整个编译器处理流程的统一性以及为学生提供 SLR(1) 分析表生成程序的参考. 正常情况下你不需要了解该文件.
+ * <br>
+ * 除 SLR(1) 外, 还可以构造 LALR(1), 规范 LR(1) 与合并状态的 LR(1) 分析表 (见 {@link TableKind}), 它们都输出同样的 {@link LRTable}.
  */
 public class TableGenerator {
+    /**
+     * 构造一个生成 SLR(1) 分析表, 使用稠密布局的生成器
+     */
     public TableGenerator() {
+        this(TableKind.SLR, TableLayout.DENSE);
+    }
+
+    /**
+     * 构造一个生成 SLR(1) 分析表的生成器
+     *
+     * @param layout 生成的分析表在编译时使用的布局
+     */
+    public TableGenerator(TableLayout layout) {
+        this(TableKind.SLR, layout);
+    }
+
+    /**
+     * @param kind   要生成的分析表的种类
+     * @param layout 生成的分析表在编译时使用的布局
+     */
+    public TableGenerator(TableKind kind, TableLayout layout) {
+        this.kind = kind;
+        this.layout = layout;
         this.productions = GrammarInfo.getProductionsInOrder();
         this.terminals = new HashSet<>(TokenKind.allAllowedTokenKinds().values());
         this.nonTerminals = new HashSet<>(GrammarInfo.getNonTerminals().values());
@@ -21,28 +44,56 @@ public class TableGenerator {
         if (productions.get(0).body().size() != 1) {
             throw new RuntimeException("The first production in grammar file must like S -> S'");
         }
+
+        for (final var production : productions) {
+            productionsByHead.computeIfAbsent(production.head(), head -> new ArrayList<>()).add(production);
+        }
     }
 
     /**
-     * 主体方法
+     * 主体方法. 规范集族不会被自动打印, 需要调试时在此之后调用 {@link #dumpItems()}
      */
     public void run() {
-        calcFirst();
-        calcFollow();
-        constructDFA();
-        dumpItems();
+        run(null);
+    }
+
+    /**
+     * 与 {@link #run()} 相同, 但 LR(0) 项目集族在线程池上逐层并行地构造 (见 {@link Lr0Automaton}),
+     * 状态编号, 生成的分析表与其 CSV 输出都与 {@link #run()} 完全一致.
+     * LR(1) 项目集族的构造会随向前看符号的合并反复展开已有状态, 仍然顺序进行
+     *
+     * @param pool 构造项目集族的线程池
+     */
+    public void runParallel(ForkJoinPool pool) {
+        run(pool);
+    }
+
+    private void run(ForkJoinPool pool) {
+        // 非终结符在前, 终结符在后, 沿用集合本身的迭代顺序, 状态的编号因而与此前逐个符号求 GO(I, X) 的实现相同
+        space = new ItemSpace(productions, new ArrayList<>(nonTerminals), new ArrayList<>(terminals));
+        // 终结符按码点排序后作为向前看符号集合中的位, 使得生成的结果与哈希顺序无关
+        firstSets = new FirstSets(productions, terminals.stream().sorted(Comparator.comparingInt(TokenKind::getCode)).toList());
+
+        constructDFA(pool);
+        switch (kind) {
+            case SLR -> followSets = new FollowSets(productions, firstSets);
+            case LALR -> calcLalrLookaheads();
+            default -> {
+            }
+        }
         genTable();
     }
 
     /**
-     * 将该分析表生成的 LR(0) 规范集族打印到某个文件之中, 用于调试
+     * 将该分析表生成的规范集族打印到某个文件之中, 用于调试. LR(1) 项目只打印其核心
      */
     public void dumpItems() {
         final var lines = new ArrayList<String>();
         for (final var status : allStatusInIndexOrder) {
             lines.add("%d: ".formatted(status.index()));
-            for (final var item : including.get(status)) {
-                lines.add("    " + item);
+            final var items = itemsOf(status.index());
+            for (var item = items.nextSetBit(0); item >= 0; item = items.nextSetBit(item + 1)) {
+                lines.add("    " + space.toString(item));
             }
         }
 
@@ -53,358 +104,309 @@ public class TableGenerator {
      * @return 构造出的 LR 表
      */
     public LRTable getTable() {
-        return new LRTable(allStatusInIndexOrder, new ArrayList<>(terminals), new ArrayList<>(nonTerminals));
+        return new LRTable(allStatusInIndexOrder, new ArrayList<>(terminals), new ArrayList<>(nonTerminals), layout);
     }
 
+    private final TableKind kind;
+    private final TableLayout layout;
     private final List<Production> productions;
     private final Set<TokenKind> terminals;
     private final Set<NonTerminal> nonTerminals;
+    private final Map<NonTerminal, List<Production>> productionsByHead = new HashMap<>();
+
+    // 项目与文法符号的编码
+    private ItemSpace space = null;
+    // 向前看符号以其在 firstSets 中的下标表示
+    private FirstSets firstSets = null;
+    // 仅用于 SLR(1)
+    private FollowSets followSets = null;
 
-    private final Map<Term, Set<TokenKind>> first = new HashMap<>();
-    private final Map<Term, Set<TokenKind>> follow = new HashMap<>();
+    private final List<Status> allStatusInIndexOrder = new ArrayList<>();
+    // 以状态编号为下标, 各状态在每个文法符号上转移到的状态编号
+    private final List<Map<Term, Integer>> transitions = new ArrayList<>();
 
-    private final Set<Term> visited = new HashSet<>();
+    // 仅用于 SLR(1) 与 LALR(1): LR(0) 项目集族
+    private Lr0Automaton lr0Automaton = null;
+    // 仅用于 LR(1): 各状态中每个项目的向前看符号
+    private Lr1Collection lr1Collection = null;
+    // 仅用于 LALR(1): 各状态中每个可规约的产生式的向前看符号
+    private final List<Map<Production, BitSet>> lalrLookaheads = new ArrayList<>();
 
     /**
-     * 计算所有符号的 first 集合 <br>
-     * 终结符的 first 就是它自身, 非终结符的 first 则递归计算
+     * 构造出所有状态及其转移
+     *
+     * @param pool 构造 LR(0) 项目集族的线程池; 为 null 时顺序构造
      */
-    private void calcFirst() {
-        for (final var terminal : terminals) {
-            first.put(terminal, Set.of(terminal));
+    private void constructDFA(ForkJoinPool pool) {
+        final int stateCount;
+        if (kind == TableKind.LR1 || kind == TableKind.LR1_MERGED) {
+            lr1Collection = new Lr1Collection(space, firstSets, kind == TableKind.LR1_MERGED);
+            stateCount = lr1Collection.size();
+        } else {
+            lr0Automaton = pool != null ? new Lr0Automaton(space, pool) : new Lr0Automaton(space);
+            stateCount = lr0Automaton.size();
         }
 
-        for (final var nonTerminal : nonTerminals) {
-            visited.clear();
-            calcFirst(nonTerminal);
+        for (int idx = 0; idx < stateCount; idx++) {
+            allStatusInIndexOrder.add(Status.create(idx));
+            transitions.add(lr0Automaton != null ? lr0Automaton.transitions(idx) : lr1Collection.transitions(idx));
         }
-
     }
 
     /**
-     * 递归计算特定非终结符的 first
-     *
-     * @param nonTerminal 非终结符
-     * @return 其 first 集合
+     * @param state 状态编号
+     * @return 该状态的闭包中所有项目的编号
      */
-    private Set<TokenKind> calcFirst(Term nonTerminal) {
-        // 如果已经被计算, 则直接返回缓存的结果
-        if (first.containsKey(nonTerminal)) {
-            return first.get(nonTerminal);
+    private BitSet itemsOf(int state) {
+        if (lr0Automaton != null) {
+            return lr0Automaton.closure(state);
         }
 
-        final var result = new LinkedHashSet<TokenKind>();
-        for (final var production : productions) {
-            if (nonTerminal == production.head()) {
-                // 在文法中寻找以该非终结符为头的产生式
-                final var firstSymbol = production.body().get(0);
-                // 记录已经在栈中的递归过的非终结符, 防止直接或间接的左递归导致程序死循环
-                if (!visited.contains(firstSymbol)) {
-                    // 随后递归查找该产生式体的第一个文法符号的 first 集合
-                    // 它的 first 集合也是该非终结符的 first 集合
-                    visited.add(firstSymbol);
-                    result.addAll(calcFirst(firstSymbol));
-                }
-            }
-        }
-
-        first.put(nonTerminal, result);
-        return result;
+        final var items = new BitSet();
+        lr1Collection.items(state).keySet().forEach(items::set);
+        return items;
     }
 
-
     /**
-     * 计算所有非终结符的 follow 集合
+     * @param state 状态编号
+     * @return 该状态的闭包中点在末尾的项目的编号, 升序排列
      */
-    private void calcFollow() {
-        for (final var nonTerminal : nonTerminals) {
-            visited.clear();
-            calcFollow(nonTerminal);
+    private int[] reduceItemsOf(int state) {
+        if (lr0Automaton != null) {
+            return lr0Automaton.reduceItems(state);
         }
 
-        // 对于找完所有产生式了都还没没有 follow 的非终结符
-        // 它必然是一个没有被使用的非终结符, 这意味着它的 follow 就是 EOF
-        nonTerminals.stream()
-            .map(follow::get).filter(Set::isEmpty)
-            .forEach(set -> set.add(TokenKind.eof()));
+        return lr1Collection.items(state).keySet().stream()
+            .mapToInt(Integer::intValue).filter(item -> space.afterDot(item) < 0).sorted().toArray();
     }
 
     /**
-     * 递归计算给定非终结符的 follow 集合
-     *
-     * @param nonTerminal 给定的非终止符
-     * @return 其 follow 集合
+     * 以 DeRemer-Pennello 算法在 LR(0) 自动机上计算 LALR(1) 向前看符号
+     * <br>
+     * 对每个非终结符转移 (p, A):
+     * <ul>
+     *     <li>DR(p, A): GO(p, A) 上的终结符转移;</li>
+     *     <li>(p, A) reads (r, C): r = GO(p, A), 且 C 可空;</li>
+     *     <li>(p, A) includes (p', B): 存在 B -> β A γ, γ 可空, 且 p' 经 β 到达 p;</li>
+     *     <li>(q, A -> ω) lookback (p, A): p 经 ω 到达 q.</li>
+     * </ul>
+     * Read = DR 沿 reads 的闭包, Follow = Read 沿 includes 的闭包, LA(q, A -> ω) 为其所有 lookback 的 Follow 之并.
+     * 两次闭包都以求强连通分量的方式在线性时间内完成.
      */
-    private Set<TokenKind> calcFollow(NonTerminal nonTerminal) {
-        // 与 first 类似, 先查找缓存
-        if (follow.containsKey(nonTerminal)) {
-            return follow.get(nonTerminal);
+    private void calcLalrLookaheads() {
+        // 为所有非终结符转移编号
+        final var stateCount = allStatusInIndexOrder.size();
+        final var fromState = new ArrayList<Integer>();
+        final var symbols = new ArrayList<NonTerminal>();
+        final var ids = new ArrayList<Map<NonTerminal, Integer>>();
+        for (int state = 0; state < stateCount; state++) {
+            final var idsOfState = new HashMap<NonTerminal, Integer>();
+            for (final var term : transitions.get(state).keySet()) {
+                if (term instanceof NonTerminal nonTerminal) {
+                    idsOfState.put(nonTerminal, fromState.size());
+                    fromState.add(state);
+                    symbols.add(nonTerminal);
+                }
+            }
+            ids.add(idsOfState);
         }
 
-        final var result = new LinkedHashSet<TokenKind>();
-        for (final var production : productions) {
-            final var body = production.body();
-
-            // 对该非终结符在每条产生式体中的可能出现, 我们都要将紧跟在该出现后面的项的 first 加入其 follow 集合
-            // 我们直接枚举每条产生式体的每个项
-            for (int i = 0; i < body.size() - 1; i++) {
-                // 如果发现目前的 curr 的话, 后面跟着的符号的 first 就是它的 follow
-                final var symbol = body.get(i);
-                final var next = body.get(i + 1);
-
-                if (symbol.equals(nonTerminal)) {
-                    result.addAll(first.get(next));
+        // DR 与 reads
+        final var transitionCount = fromState.size();
+        final var read = new BitSet[transitionCount];
+        final var reads = new ArrayList<List<Integer>>();
+        final var includes = new ArrayList<List<Integer>>();
+        for (int x = 0; x < transitionCount; x++) {
+            reads.add(new ArrayList<>());
+            includes.add(new ArrayList<>());
+        }
+        for (int state = 0; state < stateCount; state++) {
+            for (final var entry : ids.get(state).entrySet()) {
+                final var x = entry.getValue();
+                final var target = transitions.get(state).get(entry.getKey());
+                read[x] = new BitSet();
+                for (final var term : transitions.get(target).keySet()) {
+                    if (term instanceof TokenKind terminal) {
+                        read[x].set(firstSets.indexOf(terminal));
+                    } else if (firstSets.nullable(term)) {
+                        reads.get(x).add(ids.get(target).get((NonTerminal) term));
+                    }
                 }
             }
+        }
 
-            // 如果该非终结符出现在产生式的末尾, 那么该产生式的头的 follow 集合也要加入其 follow 集合中
-            final var lastInBody = body.get(body.size() - 1);
-            if (lastInBody.equals(nonTerminal)) {
-                final var head = production.head();
-                if (visited.contains(head)) {
-                    // 如果该产生式头已经在栈中了, 那么意味着这个非终结符有可能一直展开自己
-                    // 这时候 EOF 也可能是它的 Follow
-                    result.add(TokenKind.eof());
-                } else {
-                    // 否则直接递归查找
-                    visited.add(head);
-                    result.addAll(calcFollow(head));
+        // 增广产生式 S -> S' 在读入 S' 之后遇到 EOF 即接受, 所以 EOF 直接属于 (0, S') 的 DR
+        final var start = (NonTerminal) productions.get(0).body().get(0);
+        read[ids.get(0).get(start)].set(firstSets.indexOf(TokenKind.eof()));
+        Digraph.close(reads, read);
+
+        // includes 与 lookback
+        final var lookback = new ArrayList<Map<Production, List<Integer>>>();
+        for (int state = 0; state < stateCount; state++) {
+            lookback.add(new HashMap<>());
+        }
+        for (int x = 0; x < transitionCount; x++) {
+            final var from = fromState.get(x);
+            for (final var production : productionsByHead.getOrDefault(symbols.get(x), List.of())) {
+                final var body = production.body();
+                var state = from;
+                for (int i = 0; i < body.size(); i++) {
+                    final var term = body.get(i);
+                    if (term instanceof NonTerminal nonTerminal && firstSets.nullable(body, i + 1)) {
+                        includes.get(ids.get(state).get(nonTerminal)).add(x);
+                    }
+                    state = transitions.get(state).get(term);
                 }
+                lookback.get(state).computeIfAbsent(production, key -> new ArrayList<>()).add(x);
             }
         }
-
-        follow.put(nonTerminal, result);
-        return result;
+        // 此后 read 中保存的就是 Follow
+        Digraph.close(includes, read);
+
+        for (int state = 0; state < stateCount; state++) {
+            final var lookaheads = new HashMap<Production, BitSet>();
+            for (final var entry : lookback.get(state).entrySet()) {
+                final var result = new BitSet();
+                entry.getValue().forEach(x -> result.or(read[x]));
+                lookaheads.put(entry.getKey(), result);
+            }
+            lalrLookaheads.add(lookaheads);
+        }
     }
 
     /**
-     * 表示一个项目
-     * <br>
-     * 对于 A -> B . C, 其 production 为 A -> B C, dot 为 1 (其下一个项 C 的索引) <br>
-     * 对于 A -> B C ., 其 production 为 A -> B C, dot 为 2 (其产生式体的项数量) <br>
-     *
-     * @param production 产生式
-     * @param dot        目前解析到的位置
+     * DeRemer 与 Pennello 的 digraph 算法: 对关系 R 与初值 F, 求 F'(x) = F(x) ∪ ⋃{F'(y) | x R y}.
+     * 同一强连通分量中的所有元素的结果相同
      */
-    private record Item(Production production, int dot) {
-        /**
-         * @return 点的位置是否在产生式的末尾
-         */
-        public boolean isDotAtEnd() {
-            return production.body().size() == dot;
-        }
-
-        /**
-         * @return 获得点后面的文法符号; 若点的位置在末尾则返回空
-         */
-        public Optional<Term> getAfterDot() {
-            if (isDotAtEnd()) {
-                return Optional.empty();
-            } else {
-                return Optional.of(production.body().get(dot));
+    private static final class Digraph {
+        static void close(List<List<Integer>> relation, BitSet[] sets) {
+            final var digraph = new Digraph(relation, sets);
+            for (int x = 0; x < sets.length; x++) {
+                if (digraph.depth[x] == 0) {
+                    digraph.traverse(x);
+                }
             }
         }
 
-        /**
-         * @return 获得当前项目的后继项; 若点的位置在末尾则返回空
-         */
-        public Optional<Item> getNextItem() {
-            if (isDotAtEnd()) {
-                return Optional.empty();
-            } else {
-                return Optional.of(new Item(production, dot + 1));
-            }
+        private Digraph(List<List<Integer>> relation, BitSet[] sets) {
+            this.relation = relation;
+            this.sets = sets;
+            this.depth = new int[sets.length];
         }
 
-        @Override
-        public String toString() {
-            final var builder = new StringBuilder();
+        private void traverse(int x) {
+            stack.push(x);
+            final var d = stack.size();
+            depth[x] = d;
 
-            builder.append(production.head());
-            builder.append(" -> ");
-
-            final var body = production.body();
-            for (int i = 0; i < body.size(); i++) {
-                if (i == dot) {
-                    builder.append(" .");
+            for (final var y : relation.get(x)) {
+                if (depth[y] == 0) {
+                    traverse(y);
                 }
-                builder.append(" ").append(body.get(i));
+                depth[x] = Math.min(depth[x], depth[y]);
+                sets[x].or(sets[y]);
             }
 
-            if (dot == body.size()) {
-                builder.append(" .");
+            if (depth[x] == d) {
+                // x 是所在强连通分量的根, 将其结果赋给分量中的所有元素
+                while (true) {
+                    final var top = stack.pop();
+                    depth[top] = Integer.MAX_VALUE;
+                    if (top == x) {
+                        break;
+                    }
+                    sets[top] = (BitSet) sets[x].clone();
+                }
             }
-
-            return builder.toString();
         }
-    }
 
-    private final Map<Set<Item>, Status> belongTo = new HashMap<>();
-    private final Map<Status, Set<Item>> including = new HashMap<>();
-    private final List<Status> allStatusInIndexOrder = new ArrayList<>();
+        private final List<List<Integer>> relation;
+        private final BitSet[] sets;
+        private final int[] depth;
+        private final Deque<Integer> stack = new ArrayDeque<>();
+    }
 
     /**
-     * 构造出所有状态并维护状态与项集之间的对应关系
+     * 构造 LR 分析表 (填充各个 status 中的 action 与 goto)
      */
-    private void constructDFA() {
+    private void genTable() {
         final var argumentProduction = productions.get(0);
-        final var initItem = new Item(argumentProduction, 0);
-        final var collections = constructCanonicalLRCollection(initItem);
-
-        for (int idx = 0; idx < collections.size(); idx++) {
-            final var status = Status.create(idx);
-            allStatusInIndexOrder.add(status);
-
-            final var items = collections.get(idx);
-            including.put(status, items);
-            belongTo.put(items, status);
-        }
-    }
 
-    /**
-     * @param head 头部符号
-     * @return 返回一个流, 其中的元素都是以 head 为头的产生式
-     */
-    private Stream<Production> getProductionsByHead(Term head) {
-        return productions.stream().filter(production -> production.head().equals(head));
-    }
+        // 依索引顺序对每个状态
+        for (final var status : allStatusInIndexOrder) {
+            // 点后面跟着某个文法符号的项目 A -> alpha . X beta 都对应于状态在 X 上的转移:
+            // 是终结符时我们就移入该终结符, 是非终结符时就转移到 X 解析之后的状态中去 (即 GO(I, X) 对应的状态)
+            for (final var entry : transitions.get(status.index()).entrySet()) {
+                final var next = allStatusInIndexOrder.get(entry.getValue());
+                if (entry.getKey() instanceof TokenKind tokenKind) {
+                    status.setAction(tokenKind, Action.shift(next));
+                } else if (entry.getKey() instanceof NonTerminal nonTerminal) {
+                    status.setGoto(nonTerminal, next);
+                } else {
+                    throw new RuntimeException("Unknown type of Term");
+                }
+            }
 
-    /**
-     * 构造项集 {@code sourceItem} 的闭包, 相当于理论课中的 CLOSURE(I) 函数
-     *
-     * @param sourceItem 项集 I
-     * @return 闭包
-     */
-    private Set<Item> constructClosure(Set<Item> sourceItem) {
-        // 采用 BFS 的方法来避免每次都检测集合的更改
-        final var result = new LinkedHashSet<>(sourceItem);
-        // 已经找到, 但是还未完全探索其能展开的项的项
-        // 类似于 BFS 的队列或者是 mark-and-sweep GC 算法里的灰色列表
-        final var unexpanded = new ArrayDeque<>(sourceItem);
-
-        while (!unexpanded.isEmpty()) {
-            final var top = unexpanded.pollFirst();
-            // 获得当前项中点后面的符号
-            top.getAfterDot().ifPresent(afterDot ->
-                // 随后查找以该符号作为头部的产生式
-                getProductionsByHead(afterDot)
-                    // 构造点在对应产生式开头的新项
-                    .map(production -> new Item(production, 0))
-                    // 对于不在 result 中的新项
-                    .filter(item -> !result.contains(item))
-                    // 加入队列并加入结果中
-                    .peek(unexpanded::add)
-                    .forEach(result::add));
+            // 再处理点在末尾的项目
+            for (final var item : reduceItemsOf(status.index())) {
+                final var production = space.production(item);
+                if (production.equals(argumentProduction)) {
+                    // S -> S' .
+                    // 如果项目代表起始文法的末尾, 那么再遇到 EOF 就 accept 了
+                    status.setAction(TokenKind.eof(), Action.accept());
+                } else {
+                    // A -> alpha .
+                    // 如果项目代表某个产生式的末尾, 那么再遇到对于任何位于其向前看符号中的文法符号都应该规约 A
+                    // 对 SLR(1) 而言, 向前看符号就是 follow(A)
+                    final var lookaheads = lookaheadsOf(status.index(), item);
+                    for (var a = lookaheads.nextSetBit(0); a >= 0; a = lookaheads.nextSetBit(a + 1)) {
+                        setReduce(status, firstSets.terminal(a), production);
+                    }
+                }
+            }
         }
-
-        return result;
     }
 
     /**
-     * 相当于理论课中的 GO(I, X) 函数 (转移函数)
+     * 在状态中加入按某产生式规约的动作. 与已有的移入动作冲突, 且产生式与终结符都声明了优先级时 (见 {@link Precedence}),
+     * 按优先级与结合性决定保留移入, 改为规约还是报错; 其余的冲突仍由 {@link Status#setAction} 抛出异常
      *
-     * @param items 当前项集 I
-     * @param term  文法符号 X
-     * @return I 关于 X 的后继项目集
+     * @param status     状态
+     * @param terminal   向前看符号
+     * @param production 待规约的产生式
      */
-    private Set<Item> constructGoto(Set<Item> items, Term term) {
-        final var kernelForGoto = items.stream()
-            // 先筛选出 I 中所有点后面是 term 的项
-            .filter(item -> item.getAfterDot().map(term::equals).orElse(false))
-            // 然后分别求出每一个项的后继项
-            // 这个项集就是后继项目集的核
-            .map(Item::getNextItem).flatMap(Optional::stream)
-            .collect(Collectors.toSet());
-
-        // 随后从后继项目集的核中构造闭包即可得到后继项目集
-        return constructClosure(kernelForGoto);
-    }
-
-    /**
-     * 构造 LR(0) 规范项目集族
-     *
-     * @param initItem 起始项目 S -> . S'
-     * @return 规范项目集族
-     */
-    private List<Set<Item>> constructCanonicalLRCollection(Item initItem) {
-        // 先收集所有的文法符号备用
-        final var terms = new LinkedHashSet<Term>();
-        terms.addAll(nonTerminals);
-        terms.addAll(terminals);
-
-        // 构造初始项目集族
-        final var initClosure = constructClosure(Set.of(initItem));
-
-        // 同样以 BFS 形式搜索
-        final var result = new LinkedHashSet<>(Set.of(initClosure));
-        final var unexpanded = new ArrayDeque<>(Set.of(initClosure));
-
-        while (!unexpanded.isEmpty()) {
-            final var items = unexpanded.pollFirst();
-
-            // 对于每个未被探索的集族
-            for (final var term : terms) {
-                // 尝试对每一个文法符号都求一个后继项目集
-                final var to = constructGoto(items, term);
-                // 如果还没被加入到 result 中
-                if (!to.isEmpty() && !result.contains(to)) {
-                    // 就加入 result 和待探索列表中
-                    result.add(to);
-                    unexpanded.addLast(to);
+    private void setReduce(Status status, TokenKind terminal, Production production) {
+        if (status.getAction(terminal).getKind() == Action.ActionKind.Shift) {
+            final var rule = GrammarInfo.getPrecedence(production);
+            final var lookahead = GrammarInfo.getPrecedences().get(terminal.getIdentifier());
+            if (rule != null && lookahead != null) {
+                switch (Precedence.resolve(rule, lookahead)) {
+                    case Reduce -> status.overrideAction(terminal, Action.reduce(production));
+                    case Error -> status.overrideAction(terminal, Action.error());
+                    default -> {
+                        // 保留移入
+                    }
                 }
+                return;
             }
         }
 
-        return new ArrayList<>(result);
+        status.setAction(terminal, Action.reduce(production));
     }
 
     /**
-     * 构造 LR 分析表 (填充各个 status 中的 action 与 goto)
+     * @param state 状态编号
+     * @param item  该状态中点在末尾的项目
+     * @return 应按该项目规约的向前看符号
      */
-    private void genTable() {
-        // 依索引顺序对每个状态的每个项目
-        for (final var status : allStatusInIndexOrder) {
-            for (final var item : including.get(status)) {
-                final var afterDotOpt = item.getAfterDot();
-
-                // 根据项目的点的位置和点后面跟着的文法符号进行分类
-                if (afterDotOpt.isEmpty()) {
-                    final var argumentProduction = productions.get(0);
-                    if (item.production().equals(argumentProduction)) {
-                        // S -> S' .
-                        // 如果项目代表起始文法的末尾, 那么再遇到 EOF 就 accept 了
-                        status.setAction(TokenKind.eof(), Action.accept());
-                    } else {
-                        // A -> alpha .
-                        // 如果项目代表某个产生式的末尾, 那么再遇到对于任何位于 follow(A) 内的文法符号都应该规约 A
-                        final var production = item.production();
-                        final var head = production.head();
-                        for (final var a : follow.get(head)) {
-                            status.setAction(a, Action.reduce(production));
-                        }
-                    }
-
-                } else {
-                    final var symbol = afterDotOpt.get();
-                    final var next = belongTo.get(constructGoto(including.get(status), symbol));
-
-                    if (symbol instanceof TokenKind tokenKind) {
-                        // A -> alpha . a beta
-                        // 如果项目代表某个产生式的中间, 并且接着一个终结符的情况, 我们就移入该终结符
-                        status.setAction(tokenKind, Action.shift(next));
-                    } else if (symbol instanceof NonTerminal nonTerminal) {
-                        // A -> alpha . B beta
-                        // 如果项目代表某个产生式的中间, 并且接着一个非终结符的情况,
-                        // 我们就转移到 B 解析之后的状态中去 (即 GO(I, B) 对应的状态)
-                        status.setGoto(nonTerminal, next);
-                    } else {
-                        throw new RuntimeException("Unknown type of Term");
-                    }
-                }
-            }
-        }
+    private BitSet lookaheadsOf(int state, int item) {
+        return switch (kind) {
+            case SLR -> followSets.follow(space.production(item).head());
+            case LALR -> lalrLookaheads.get(state).get(space.production(item));
+            case LR1, LR1_MERGED -> lr1Collection.items(state).get(item);
+        };
     }
 
     // 我们在 Status.setAction/setGoto 中检查规约-规约冲突与移入-规约冲突
-    // 如果有冲突, 它们会抛出 RuntimeException
+    // 如果有冲突, 它们会抛出 RuntimeException; 只有声明了优先级的移入-规约冲突会在 setReduce 中被消解
 }
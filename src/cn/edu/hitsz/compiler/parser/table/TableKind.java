@@ -0,0 +1,27 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+/**
+ * {@link TableGenerator} 能够构造的 LR 分析表的种类
+ */
+public enum TableKind {
+    /**
+     * SLR(1): 在 LR(0) 自动机上以 FOLLOW 集合作为规约的向前看符号
+     */
+    SLR,
+
+    /**
+     * LALR(1): 状态与 SLR(1) 相同, 但向前看符号由 DeRemer-Pennello 算法在 LR(0) 自动机上精确计算, 能处理更多文法
+     */
+    LALR,
+
+    /**
+     * 规范 LR(1): 不合并任何状态, 能力最强, 但状态数可能比 LALR(1) 多很多
+     */
+    LR1,
+
+    /**
+     * 合并状态的 LR(1): 构造规范 LR(1) 项目集族时, 将核心相同且满足 Pager 弱相容条件的状态合并.
+     * 对 LR(1) 文法不会引入新的冲突, 状态数通常接近 LALR(1)
+     */
+    LR1_MERGED,
+}
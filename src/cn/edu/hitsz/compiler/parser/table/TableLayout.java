@@ -0,0 +1,16 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+/**
+ * 编译后的 LR 分析表的存储布局, 可以在 {@link TableLoader} 与 {@link TableGenerator} 中选择
+ */
+public enum TableLayout {
+    /**
+     * 稠密布局 ({@link DenseTable}): 每次查询只是一次数组读取, 表的大小与状态数和文法符号数的乘积成正比. 适用于较小的文法
+     */
+    DENSE,
+
+    /**
+     * 压缩布局 ({@link PackedTable}): 默认动作, 行位移压缩与错误位图, 适用于状态数很多, 表很稀疏的大文法
+     */
+    PACKED,
+}
@@ -1,6 +1,7 @@
 package cn.edu.hitsz.compiler.parser.table;
 
 import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.utils.FilePathConfig;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 
 import java.util.ArrayList;
@@ -12,13 +13,40 @@ import java.util.Map;
  * 读取 "编译工作台" 生成的语法分析表并将其转换为 LRTable 结构, 你不应该修改此文件
  */
 public class TableLoader {
+    /**
+     * 构造一个使用稠密布局的读取器
+     */
+    public TableLoader() {
+        this(TableLayout.DENSE);
+    }
+
+    /**
+     * @param layout 读取出的分析表在编译时使用的布局
+     */
+    public TableLoader(TableLayout layout) {
+        this.layout = layout;
+    }
+
     /**
      * 读取分析表
+     * <br>
+     * 分析表会被缓存为二进制文件 ({@link FilePathConfig#LR1_TABLE_CACHE_PATH}), 只要语法文件, 码点文件与该 CSV 都没有变化,
+     * 之后的读取就直接映射缓存文件, 不再解析 CSV
      *
      * @param path CSV 格式的分析表路径
      * @return LRTable
      */
     public LRTable load(String path) {
+        return TableCache.loadOrBuild(path, FilePathConfig.LR1_TABLE_CACHE_PATH, layout, () -> loadCSV(path));
+    }
+
+    /**
+     * 解析 CSV 格式的分析表
+     *
+     * @param path CSV 格式的分析表路径
+     * @return LRTable
+     */
+    private LRTable loadCSV(String path) {
         final var csv = FileUtils.readCSV(path);
         // 表头是 状态, ACTION, ..., GOTO, ... 那一行
         final var tableHeader = csv.get(0);
@@ -76,9 +104,10 @@ public class TableLoader {
         }
 
         // 返回构造出的 LR 表
-        return new LRTable(statusInIndexOrder, terminals, nonTerminals);
+        return new LRTable(statusInIndexOrder, terminals, nonTerminals, layout);
     }
 
+    private final TableLayout layout;
     private final List<Status> statusInIndexOrder = new ArrayList<>();
     private final Map<Integer, Status> statuses = new HashMap<>();
 
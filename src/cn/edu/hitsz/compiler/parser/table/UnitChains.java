@@ -0,0 +1,301 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * 融合后的单位产生式链, 由 {@link LRTable#unitChains()} 构造, 供驱动程序使用
+ * <br>
+ * 体只有一个非终结符的产生式 (如 E -> A) 称为单位产生式. 表达式文法中每个 id 都要依次规约 B -> id, A -> B, E -> A,
+ * 每一步都要查询 action 与 goto 表, 弹出并压入一个状态, 并通知所有观察者.
+ * <br>
+ * 在状态 s' 之上规约出某个非终结符并转移到 s = goto(s', X) 之后, 若 s 在向前看符号 t 上的动作是规约单位产生式 Y -> X,
+ * 则弹出的正是刚刚压入的 s, 栈顶又回到 s', 接着转移到 goto(s', Y), 如此反复直到动作不再是单位产生式的规约.
+ * 整条链的结果因而只取决于 (s', s, t), 可以预先算出: 驱动程序一步转移到链的终点, 再按需把链上的每次规约补发给观察者.
+ * <br>
+ * 只有 s 的某个动作是单位产生式的规约时才可能存在链. 每个 (s', s) 对对应一行, 同一个 s 的各行连续存放,
+ * 行中按码点排序; 同一行中结果相同的链只存一份. 其余的规约只需发现 s 没有任何行.
+ */
+public final class UnitChains {
+    /**
+     * 查询规约并转移到 state 之后的单位产生式链
+     *
+     * @param below 弹出产生式体之后栈顶的状态
+     * @param state goto 表给出的转移到的状态
+     * @param code  当前词法单元的码点
+     * @return 链的编号; 没有需要融合的单位产生式时返回 -1
+     */
+    public int find(int below, int state, int code) {
+        // 每个状态的行数与每行的码点数都很少, 顺序查找比二分查找更快
+        for (int row = stateRows[state], last = stateRows[state + 1]; row < last; row++) {
+            if (rowBelows[row] != below) {
+                continue;
+            }
+            for (int index = rowOffsets[row], end = rowOffsets[row + 1]; index < end; index++) {
+                if (rowCodes[index] == code) {
+                    return rowChains[index];
+                }
+            }
+            return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * @param chain 链的编号
+     * @return 规约完整条链之后应转移到的状态
+     */
+    public int target(int chain) {
+        return chainTargets[chain];
+    }
+
+    /**
+     * @param chain 链的编号
+     * @return 链上单位产生式规约的次数
+     */
+    public int length(int chain) {
+        return chainOffsets[chain + 1] - chainOffsets[chain];
+    }
+
+    /**
+     * @param chain 链的编号
+     * @param step  第几次规约, 从 0 开始
+     * @return 执行该次规约时栈顶的状态
+     */
+    public int state(int chain, int step) {
+        return stepStates[chainOffsets[chain] + step];
+    }
+
+    /**
+     * @param chain 链的编号
+     * @param step  第几次规约, 从 0 开始
+     * @return 该次规约的产生式编号
+     */
+    public int production(int chain, int step) {
+        return stepProductions[chainOffsets[chain] + step];
+    }
+
+    /**
+     * @return 链的个数
+     */
+    public int size() {
+        return chainTargets.length;
+    }
+
+    /**
+     * 找出一张表中所有的单位产生式链
+     *
+     * @param table 任意布局的表
+     * @return 单位产生式链
+     */
+    static UnitChains of(CompiledTable table) {
+        return new UnitChains(table);
+    }
+
+    private UnitChains(CompiledTable table) {
+        final var stateCount = table.stateCount();
+
+        // 单位产生式, 以及作为单位产生式的体的非终结符在 goto 表中的列号;
+        // 能以单位产生式开始一条链的状态 s 必定是经由这样的非终结符转移而来的
+        final var units = new boolean[table.productionColumns()];
+        final var bodyColumns = new TreeSet<Integer>();
+        for (final var production : table.productions()) {
+            if (production.body().size() == 1 && production.body().get(0) instanceof NonTerminal body) {
+                units[production.index()] = true;
+                bodyColumns.add(table.nonTerminals().indexOf(body));
+            }
+        }
+        bodyColumns.remove(-1);
+        final var columns = bodyColumns.stream().mapToInt(Integer::intValue).toArray();
+
+        // 每个状态上动作为单位产生式规约的码点, 只为 goto 的目标计算, 尚未计算时为 null
+        final var codesInOrder = table.terminals().stream().mapToInt(TokenKind::getCode).sorted().toArray();
+        final var unitCodes = new int[stateCount][];
+        final var found = new IntList();
+
+        // 按 goto 的目标收集可能存在链的 (s', s) 对
+        final var belowsOf = new IntList[stateCount];
+        for (final var nonTerminal : columns) {
+            for (var below = table.nextGotoSource(nonTerminal, 0); below >= 0;
+                 below = table.nextGotoSource(nonTerminal, below + 1)) {
+                final var state = table.gotoOf(below, nonTerminal);
+                if (unitCodes[state] == null) {
+                    found.clear();
+                    for (final var code : codesInOrder) {
+                        if (isUnitReduce(table.action(state, code), units)) {
+                            found.add(code);
+                        }
+                    }
+                    unitCodes[state] = found.size() == 0 ? NONE : found.toArray();
+                }
+                if (unitCodes[state].length == 0) {
+                    continue;
+                }
+                if (belowsOf[state] == null) {
+                    belowsOf[state] = new IntList();
+                }
+                belowsOf[state].add(below);
+            }
+        }
+
+        stateRows = new int[stateCount + 1];
+        final var belowList = new IntList();
+        final var rowOffsetList = new IntList();
+        final var codes = new IntList();
+        final var chains = new IntList();
+        final var targets = new IntList();
+        final var offsets = new IntList();
+        final var states = new IntList();
+        final var productions = new IntList();
+        offsets.add(0);
+
+        final var steps = new IntList();
+        for (int state = 0; state < stateCount; state++) {
+            stateRows[state] = belowList.size();
+            if (belowsOf[state] == null) {
+                continue;
+            }
+
+            for (int i = 0; i < belowsOf[state].size(); i++) {
+                final var below = belowsOf[state].get(i);
+                final var firstChain = targets.size();
+                belowList.add(below);
+                rowOffsetList.add(codes.size());
+                for (final var code : unitCodes[state]) {
+                    final var target = walk(table, units, below, state, code, steps);
+                    if (steps.size() == 0) {
+                        continue;
+                    }
+
+                    codes.add(code);
+                    chains.add(findOrAdd(firstChain, target, steps, targets, offsets, states, productions));
+                }
+            }
+        }
+        stateRows[stateCount] = belowList.size();
+        rowOffsetList.add(codes.size());
+
+        rowBelows = belowList.toArray();
+        rowOffsets = rowOffsetList.toArray();
+        rowCodes = codes.toArray();
+        rowChains = chains.toArray();
+        chainTargets = targets.toArray();
+        chainOffsets = offsets.toArray();
+        stepStates = states.toArray();
+        stepProductions = productions.toArray();
+    }
+
+    /**
+     * 从 goto(below, X) = state 出发, 在向前看符号 code 上沿单位产生式的规约走到底
+     *
+     * @param steps 用于存放经过的 (状态, 产生式), 交错存放
+     * @return 链的终点; 没有可以融合的规约时 steps 为空
+     */
+    private static int walk(CompiledTable table, boolean[] units, int below, int state, int code, IntList steps) {
+        steps.clear();
+        // 单位产生式成环时文法是二义的, 这里只是避免死循环, 剩下的规约仍交给驱动程序逐个执行
+        for (int step = 0; step < table.nonTerminals().size(); step++) {
+            final var action = table.action(state, code);
+            if (!isUnitReduce(action, units)) {
+                break;
+            }
+
+            final var production = CompiledTable.reducedProduction(action);
+            final var next = table.gotoAfterReduce(below, production);
+            if (next < 0) {
+                break;
+            }
+
+            steps.add(state);
+            steps.add(production);
+            state = next;
+        }
+        return state;
+    }
+
+    /**
+     * 在当前行已经加入的链中寻找与之相同的一条, 找不到时加入新的链
+     *
+     * @param firstChain 当前行的第一条链的编号
+     * @return 链的编号
+     */
+    private static int findOrAdd(int firstChain, int target, IntList steps, IntList targets, IntList offsets,
+                                 IntList states, IntList productions) {
+        final var length = steps.size() / 2;
+        for (int chain = firstChain; chain < targets.size(); chain++) {
+            final var offset = offsets.get(chain);
+            if (targets.get(chain) != target || offsets.get(chain + 1) - offset != length) {
+                continue;
+            }
+
+            var same = true;
+            for (int step = 0; step < length && same; step++) {
+                same = states.get(offset + step) == steps.get(2 * step)
+                    && productions.get(offset + step) == steps.get(2 * step + 1);
+            }
+            if (same) {
+                return chain;
+            }
+        }
+
+        for (int step = 0; step < length; step++) {
+            states.add(steps.get(2 * step));
+            productions.add(steps.get(2 * step + 1));
+        }
+        targets.add(target);
+        offsets.add(states.size());
+        return targets.size() - 1;
+    }
+
+    private static boolean isUnitReduce(int action, boolean[] units) {
+        return CompiledTable.isReduce(action) && units[CompiledTable.reducedProduction(action)];
+    }
+
+    /**
+     * 只追加的 int 列表, 构造时使用
+     */
+    private static final class IntList {
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(16, size * 2));
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        private int[] values = new int[16];
+        private int size = 0;
+    }
+
+    private static final int[] NONE = new int[0];
+
+    // 以 goto 的目标 s 为下标, s 的各行为 [stateRows[s], stateRows[s + 1])
+    private final int[] stateRows;
+    private final int[] rowBelows;
+
+    private final int[] rowOffsets;
+    private final int[] rowCodes;
+    private final int[] rowChains;
+
+    private final int[] chainTargets;
+    private final int[] chainOffsets;
+    private final int[] stepStates;
+    private final int[] stepProductions;
+}
@@ -0,0 +1,261 @@
+package cn.edu.hitsz.compiler.symtab;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 可以被多个线程同时读写的符号表, 供并行词法分析与并行语义分析使用
+ * <br>
+ * 符号 ID 是稠密的, 所以条目直接按 ID 存放在分页的 {@link AtomicReferenceArray} 中, 不需要哈希: 加入与删除条目都是对一个槽位的
+ * CAS, 查找是两次数组读取, 都不需要加锁. 两个线程同时加入同一个符号时只有一个能成功, 另一个得到与单线程下重复加入相同的结果.
+ * 条目的类型由 {@link SymbolTableEntry#trySetType} 原子地设置, 先写者胜.
+ * <br>
+ * 驻留表本身不是线程安全的, 以文本或源文件字节为参数的方法会在驻留表上加锁, 所以多个词法分析器可以同时扫描进同一个并发符号表.
+ * 不过每个标识符都要加一次锁, 竞争激烈时应当像 {@link #merge} 那样, 先在各线程自己的驻留表中分配 ID, 再一次性映射进此表的驻留表,
+ * 这样每个分块只需要加一次锁. 不要绕过此表直接访问 {@link #getInterner()}.
+ * <br>
+ * 输出时按文本排序, 所以无论各线程以什么顺序加入条目, {@link #dumpTable} 的结果都是确定的. 与 {@link SymbolTable} 不同,
+ * 取快照需要复制并排序所有条目, 应在各线程完成写入后进行.
+ */
+public class ConcurrentSymbolTable extends SymbolTable {
+    /**
+     * 构造一个拥有自己的驻留表的空并发符号表
+     */
+    public ConcurrentSymbolTable() {
+        this(new SymbolInterner());
+    }
+
+    /**
+     * @param interner 为符号分配 ID 的驻留表
+     */
+    ConcurrentSymbolTable(SymbolInterner interner) {
+        super(interner);
+    }
+
+    @Override
+    public SymbolTableEntry get(String text) {
+        final int id;
+        synchronized (getInterner()) {
+            id = getInterner().find(text);
+        }
+        return id == SymbolInterner.NOT_FOUND ? null : get(id);
+    }
+
+    @Override
+    public SymbolTableEntry get(int id) {
+        final var page = existingPage(id);
+        return page == null ? null : page.get(id & PAGE_MASK);
+    }
+
+    @Override
+    public SymbolTableEntry add(String text) {
+        final int id;
+        synchronized (getInterner()) {
+            id = getInterner().intern(text);
+        }
+        return add(id);
+    }
+
+    /**
+     * 可以由多个线程同时调用, 只有查询驻留表时加锁
+     */
+    @Override
+    public int intern(ByteBuffer source, int begin, int end) {
+        final int id;
+        synchronized (getInterner()) {
+            id = getInterner().intern(source, begin, end);
+        }
+        add(id);
+        return id;
+    }
+
+    @Override
+    public SymbolTableEntry add(int id) {
+        final var entry = new SymbolTableEntry(this, id);
+        if (page(id).compareAndSet(id & PAGE_MASK, null, entry)) {
+            size.increment();
+            return entry;
+        }
+        return new SymbolTableEntry("");
+    }
+
+    @Override
+    public void remove(String text) {
+        final int id;
+        synchronized (getInterner()) {
+            id = getInterner().find(text);
+        }
+        remove(id);
+    }
+
+    @Override
+    public void remove(int id) {
+        final var page = existingPage(id);
+        if (page != null && page.getAndSet(id & PAGE_MASK, null) != null) {
+            size.decrement();
+        }
+    }
+
+    @Override
+    public boolean has(String text) {
+        return get(text) != null;
+    }
+
+    @Override
+    public boolean has(int id) {
+        return get(id) != null;
+    }
+
+    @Override
+    public int size() {
+        return size.intValue();
+    }
+
+    /**
+     * 可以由多个线程同时调用. 所有符号在一次加锁中映射进此表的驻留表, 之后的加入不需要加锁; 类型按先写者胜的规则合并
+     */
+    @Override
+    public int[] merge(SymbolTable other) {
+        final var remap = new int[other.getInterner().size()];
+        Arrays.fill(remap, SymbolInterner.NOT_FOUND);
+
+        final var entries = new ArrayList<SymbolTableEntry>();
+        other.forEachEntry(entries::add);
+        synchronized (getInterner()) {
+            for (final var entry : entries) {
+                remap[entry.getId()] = getInterner().internFrom(other.getInterner(), entry.getId());
+            }
+        }
+
+        for (final var entry : entries) {
+            final var id = remap[entry.getId()];
+            add(id);
+            final var merged = get(id);
+            if (merged != null && entry.getType() != null) {
+                merged.trySetType(entry.getType());
+            }
+        }
+        return remap;
+    }
+
+    /**
+     * 复制并按文本排序当前所有条目, 耗时 O(n log n). 若有其它线程正在写入, 快照中是否包含这些写入是不确定的
+     */
+    @Override
+    public SymbolTableSnapshot snapshot() {
+        final var entries = new ArrayList<SymbolTableEntry>();
+        forEachEntry(entries::add);
+
+        synchronized (getInterner()) {
+            final var interner = getInterner();
+            entries.sort((lhs, rhs) -> interner.compare(lhs.getId(), rhs.getId()));
+            final var nodes = new SymbolNode[entries.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                final var entry = entries.get(i);
+                nodes[i] = new SymbolNode(entry.getId(), 0L, 0, entry.getType(), 0);
+            }
+            return new SymbolTableSnapshot(balance(nodes, 0, nodes.length), nodes.length, interner.view());
+        }
+    }
+
+    @Override
+    void forEachEntry(Consumer<SymbolTableEntry> action) {
+        final var directory = pages;
+        for (int p = 0; p < directory.length(); p++) {
+            final var page = directory.get(p);
+            if (page == null) {
+                continue;
+            }
+
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                final var entry = page.get(i);
+                if (entry != null) {
+                    action.accept(entry);
+                }
+            }
+        }
+    }
+
+    @Override
+    void typeChanged(SymbolTableEntry entry, SourceCodeType type) {
+        // 类型只保存在条目中, 取快照时再读取
+    }
+
+    @Override
+    String nameOf(int id) {
+        synchronized (getInterner()) {
+            return getInterner().name(id);
+        }
+    }
+
+    /**
+     * 由已排序的结点构造一棵完全平衡的树, 快照只读取树而不修改它, 所以不需要树堆的优先级
+     */
+    private static SymbolNode balance(SymbolNode[] nodes, int begin, int end) {
+        if (begin == end) {
+            return null;
+        }
+
+        final var mid = (begin + end) >>> 1;
+        final var node = nodes[mid];
+        node.left = balance(nodes, begin, mid);
+        node.right = balance(nodes, mid + 1, end);
+        return node;
+    }
+
+    private AtomicReferenceArray<SymbolTableEntry> existingPage(int id) {
+        if (id < 0) {
+            return null;
+        }
+
+        final var directory = pages;
+        final var index = id >>> PAGE_BITS;
+        return index < directory.length() ? directory.get(index) : null;
+    }
+
+    /**
+     * 取得 ID 所在的页, 不存在时创建. 创建页与扩大页表都很少发生, 在锁中进行; 页表中已有的页在扩大时原样复制,
+     * 所以对页内槽位的 CAS 不会丢失
+     */
+    private AtomicReferenceArray<SymbolTableEntry> page(int id) {
+        if (id < 0) {
+            throw new IndexOutOfBoundsException("Illegal symbol id: " + id);
+        }
+
+        final var page = existingPage(id);
+        if (page != null) {
+            return page;
+        }
+
+        synchronized (this) {
+            final var index = id >>> PAGE_BITS;
+            var directory = pages;
+            if (index >= directory.length()) {
+                final var grown = new AtomicReferenceArray<AtomicReferenceArray<SymbolTableEntry>>(
+                    Math.max(index + 1, directory.length() * 2));
+                for (int i = 0; i < directory.length(); i++) {
+                    grown.set(i, directory.get(i));
+                }
+                directory = grown;
+            }
+
+            if (directory.get(index) == null) {
+                directory.set(index, new AtomicReferenceArray<>(PAGE_SIZE));
+            }
+            pages = directory;
+            return directory.get(index);
+        }
+    }
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // 以符号 ID 的高位为下标的页表, 页在第一次写入时创建
+    private volatile AtomicReferenceArray<AtomicReferenceArray<SymbolTableEntry>> pages = new AtomicReferenceArray<>(16);
+    private final LongAdder size = new LongAdder();
+}
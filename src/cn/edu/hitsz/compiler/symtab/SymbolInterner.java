@@ -0,0 +1,288 @@
+package cn.edu.hitsz.compiler.symtab;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 符号驻留表: 为每个不同的标识符分配一个稠密的 int 编号 (符号 ID)
+ * <br>
+ * 词法分析器在识别出标识符时直接用源文件中的字节查询此表, 不需要先构造字符串; 之后符号表, IR 变量与后端都以符号 ID 为下标
+ * 访问数组, 整个编译过程中每个标识符只在词法分析时被哈希一次. 标识符的文本按需构造, 且每个符号只构造一次.
+ * <br>
+ * IR 中的临时变量也从同一个编号空间中分配 ID ({@link #fresh()}), 但它们没有文本, 也不进入哈希表.
+ * <br>
+ * 每个驻留表属于一个 {@link SymbolTable}, 一次编译的各阶段经由同一个符号表共用它, 编译结束后随符号表一起释放,
+ * 所以在长期运行的进程中反复编译不会使驻留表不断增长.
+ * <br>
+ * 此类不是线程安全的. 并行词法分析中各分块使用自己的驻留表, 合并时再映射到符号表的驻留表中; 多个线程共用一个驻留表时
+ * 须经由 {@link ConcurrentSymbolTable} 的方法访问, 它们会在驻留表上加锁.
+ */
+public final class SymbolInterner {
+    /**
+     * 查询并在需要时加入一个标识符
+     *
+     * @param source 源文件
+     * @param begin  标识符起始位置
+     * @param end    标识符结束位置 (不含)
+     * @return 该标识符的符号 ID
+     */
+    public int intern(ByteBuffer source, int begin, int end) {
+        final var hash = hash(source, begin, end);
+        var slot = hash & (table.length - 1);
+        while (table[slot] != EMPTY) {
+            final var id = table[slot] - 1;
+            if (hashes[id] == hash && sameBytes(id, source, begin, end)) {
+                return id;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+
+        final var id = allocate();
+        final var length = end - begin;
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+        }
+        source.get(begin, arena, arenaSize, length);
+        offsets[id] = arenaSize;
+        lengths[id] = length;
+        hashes[id] = hash;
+        arenaSize += length;
+
+        table[slot] = id + 1;
+        if (++internedCount * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * 查询并在需要时加入一个标识符, 用于没有源文件的场合 (如直接以字符串构造的 Token)
+     *
+     * @param text 标识符文本
+     * @return 该标识符的符号 ID
+     */
+    public int intern(String text) {
+        final var bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        return intern(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * 查询一个标识符, 但不加入
+     *
+     * @param text 标识符文本
+     * @return 该标识符的符号 ID; 不存在时返回 {@link #NOT_FOUND}
+     */
+    public int find(String text) {
+        final var bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        final var hash = hash(bytes, 0, bytes.limit());
+        var slot = hash & (table.length - 1);
+        while (table[slot] != EMPTY) {
+            final var id = table[slot] - 1;
+            if (hashes[id] == hash && sameBytes(id, bytes, 0, bytes.limit())) {
+                return id;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * 分配一个没有文本的新 ID, 供 IR 临时变量使用
+     *
+     * @return 新的符号 ID
+     */
+    public int fresh() {
+        final var id = allocate();
+        lengths[id] = FRESH;
+        freshCount++;
+        return id;
+    }
+
+    /**
+     * @return 已由 {@link #fresh()} 分配的 ID 个数, 即下一个临时变量的编号
+     */
+    public int freshCount() {
+        return freshCount;
+    }
+
+    /**
+     * @param id 符号 ID
+     * @return 该符号的文本; 由 {@link #fresh()} 分配的 ID 没有文本, 返回 null
+     */
+    public String name(int id) {
+        checkId(id);
+        if (lengths[id] == FRESH) {
+            return null;
+        }
+
+        var name = names[id];
+        if (name == null) {
+            name = new String(arena, offsets[id], lengths[id], StandardCharsets.ISO_8859_1);
+            names[id] = name;
+        }
+        return name;
+    }
+
+    /**
+     * 按文本的字典序比较两个符号, 与 {@link String#compareTo} 的结果一致, 但不需要构造字符串
+     *
+     * @param lhs 符号 ID
+     * @param rhs 符号 ID
+     * @return 负数, 零或正数
+     */
+    public int compare(int lhs, int rhs) {
+        checkId(lhs);
+        checkId(rhs);
+        final var length = Math.min(lengths[lhs], lengths[rhs]);
+        final var mismatch = Arrays.mismatch(arena, offsets[lhs], offsets[lhs] + length,
+            arena, offsets[rhs], offsets[rhs] + length);
+        if (mismatch < 0) {
+            return lengths[lhs] - lengths[rhs];
+        }
+        return (arena[offsets[lhs] + mismatch] & 0xff) - (arena[offsets[rhs] + mismatch] & 0xff);
+    }
+
+    /**
+     * 将符号文本的前 8 个字节按大端序装入一个 long, 不足 8 个字节的部分补 0. 对两个前缀按无符号数比较的结果与
+     * {@link #compare} 一致, 除非两者相等, 此时需要用 {@link #compare} 比较完整的文本.
+     *
+     * @param id 符号 ID
+     * @return 文本的前缀
+     */
+    public long prefix(int id) {
+        checkId(id);
+        var prefix = 0L;
+        final var length = Math.min(Long.BYTES, lengths[id]);
+        for (int i = 0; i < Long.BYTES; i++) {
+            prefix <<= 8;
+            if (i < length) {
+                prefix |= arena[offsets[id] + i] & 0xff;
+            }
+        }
+        return prefix;
+    }
+
+    /**
+     * 驻留表只会追加新符号, 已有符号的文本永远不会被修改, 所以在某一时刻取得的底层数组对当时已有的所有 ID 始终有效.
+     * 视图可以交给其它线程读取, 而此表继续在原线程中加入新符号.
+     *
+     * @return 当前所有符号的只读视图
+     */
+    View view() {
+        return new View(arena, offsets, lengths);
+    }
+
+    /**
+     * 驻留表在某一时刻的只读视图, 每次读取都构造新的字符串, 不写入任何共享状态
+     */
+    record View(byte[] arena, int[] offsets, int[] lengths) {
+        String name(int id) {
+            return new String(arena, offsets[id], lengths[id], StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * @return 已分配的 ID 个数, 所有 ID 都小于此值
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 将另一个驻留表中的符号加入此表
+     *
+     * @param other 另一个驻留表
+     * @param id    该符号在另一个驻留表中的 ID
+     * @return 该符号在此表中的 ID
+     */
+    int internFrom(SymbolInterner other, int id) {
+        other.checkId(id);
+        if (other == this) {
+            return id;
+        }
+        return intern(ByteBuffer.wrap(other.arena), other.offsets[id], other.offsets[id] + other.lengths[id]);
+    }
+
+    private int allocate() {
+        if (size == offsets.length) {
+            final var capacity = offsets.length * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        return size++;
+    }
+
+    private void rehash() {
+        final var grown = new int[table.length * 2];
+        for (final var entry : table) {
+            if (entry == EMPTY) {
+                continue;
+            }
+
+            var slot = hashes[entry - 1] & (grown.length - 1);
+            while (grown[slot] != EMPTY) {
+                slot = (slot + 1) & (grown.length - 1);
+            }
+            grown[slot] = entry;
+        }
+        table = grown;
+    }
+
+    private boolean sameBytes(int id, ByteBuffer source, int begin, int end) {
+        if (lengths[id] != end - begin) {
+            return false;
+        }
+
+        final var offset = offsets[id];
+        for (int i = begin; i < end; i++) {
+            if (arena[offset + i - begin] != source.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown symbol id: " + id);
+        }
+    }
+
+    /**
+     * FNV-1a, 再做一次混合以使低位分布均匀
+     */
+    private static int hash(ByteBuffer source, int begin, int end) {
+        var hash = 0x811c9dc5;
+        for (int i = begin; i < end; i++) {
+            hash = (hash ^ (source.get(i) & 0xff)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * {@link #find} 找不到符号时的返回值
+     */
+    public static final int NOT_FOUND = -1;
+
+    private static final int EMPTY = 0;
+    private static final int FRESH = -1;
+
+    // 开放寻址的哈希表, 存放 ID + 1, 0 表示空
+    private int[] table = new int[64];
+    private int internedCount = 0;
+
+    // 以 ID 为下标
+    private int[] offsets = new int[32];
+    private int[] lengths = new int[32];
+    private int[] hashes = new int[32];
+    private String[] names = new String[32];
+    private int size = 0;
+    private int freshCount = 0;
+
+    // 所有符号的文本依次存放于此
+    private byte[] arena = new byte[256];
+    private int arenaSize = 0;
+}
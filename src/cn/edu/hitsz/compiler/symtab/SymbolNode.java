@@ -0,0 +1,37 @@
+package cn.edu.hitsz.compiler.symtab;
+
+/**
+ * 符号表中按文本排序的树堆 (treap) 的结点
+ * <br>
+ * 结点只在创建它的版本 (epoch) 内可以被原地修改. 符号表每取一次快照就进入一个新版本, 此后对旧结点的修改都会先复制出新结点,
+ * 所以快照所引用的结点永远不会再改变.
+ */
+final class SymbolNode {
+    SymbolNode(int id, long prefix, int priority, SourceCodeType type, long epoch) {
+        this.id = id;
+        this.prefix = prefix;
+        this.priority = priority;
+        this.type = type;
+        this.epoch = epoch;
+    }
+
+    /**
+     * @param epoch 新结点所属的版本
+     * @return 属于给定版本的结点副本
+     */
+    SymbolNode copy(long epoch) {
+        final var node = new SymbolNode(id, prefix, priority, type, epoch);
+        node.left = left;
+        node.right = right;
+        return node;
+    }
+
+    final int id;
+    // 文本的前 8 个字节, 大多数比较只需要比较前缀, 不必访问驻留表
+    final long prefix;
+    final int priority;
+    final long epoch;
+    SourceCodeType type;
+    SymbolNode left;
+    SymbolNode right;
+}
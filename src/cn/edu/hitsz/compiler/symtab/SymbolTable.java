@@ -1,12 +1,10 @@
 package cn.edu.hitsz.compiler.symtab;
 
 import cn.edu.hitsz.compiler.NotImplementedException;
-import cn.edu.hitsz.compiler.utils.FileUtils;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 /**
  * 符号表
@@ -14,9 +12,32 @@ import java.util.Map;
  * 由于源语言比较简易, 加之 Java 中具有非常好用的通用数据结构类型, 本项目其实并不一定需要一个集中的 "符号表" 来存储源语言中的
  * <b>所有符号的所有信息</b>. 但为了切合理论课程教学, 提高实验实践技能的通用性, 我们按照一般编译器项目中符号表的设计设计了该符号表.
  * 其在代码中的作用可能并不明显, 但我们希望同学们可以借此体验符号表的设计思想.
+ * <br>
+ * 条目同时存放在以符号 ID 为下标的数组与按文本排序的持久化树堆中: 前者用于 O(1) 的查找, 后者用于有序遍历与 O(1) 的快照
+ * ({@link #snapshot()}). 快照不随符号表的后续修改而改变, 可以在后台线程中输出.
  */
 public class SymbolTable {
-    HashMap<String, SymbolTableEntry> symbolTable = new HashMap<>();
+    /**
+     * 构造一个拥有自己的驻留表的空符号表. 一次编译的词法分析, 语法分析, IR 与后端共用同一个符号表,
+     * 其中的符号 ID 与 IR 临时变量的 ID 都来自它的驻留表, 不能与其它符号表的 ID 混用
+     */
+    public SymbolTable() {
+        this(new SymbolInterner());
+    }
+
+    /**
+     * @param interner 为符号分配 ID 的驻留表, 只能属于这一个符号表
+     */
+    SymbolTable(SymbolInterner interner) {
+        this.interner = interner;
+    }
+
+    /**
+     * @return 为此表中的符号分配 ID 的驻留表
+     */
+    public SymbolInterner getInterner() {
+        return interner;
+    }
 
     /**
      * 获取符号表中已有的条目
@@ -26,7 +47,18 @@ public class SymbolTable {
      * @throws RuntimeException 该符号在表中不存在
      */
     public SymbolTableEntry get(String text) {
-        return symbolTable.get(text);
+        final var id = interner.find(text);
+        return id == SymbolInterner.NOT_FOUND ? null : get(id);
+    }
+
+    /**
+     * 以符号 ID 获取符号表中已有的条目, 不需要哈希
+     *
+     * @param id 符号 ID
+     * @return 该符号在符号表中的条目; 不存在时返回 null
+     */
+    public SymbolTableEntry get(int id) {
+        return id >= 0 && id < entries.length ? entries[id] : null;
     }
 
     /**
@@ -37,11 +69,64 @@ public class SymbolTable {
      * @throws RuntimeException 该符号已在表中存在
      */
     public SymbolTableEntry add(String text) {
-        if (symbolTable.containsKey(text)) {
+        return add(interner.intern(text));
+    }
+
+    /**
+     * 以源文件中的字节在驻留表中查询标识符, 并在符号表中没有该符号时加入条目. 词法分析器经由此方法登记标识符,
+     * 不需要构造字符串, 也不直接访问驻留表
+     *
+     * @param source 源文件
+     * @param begin  标识符起始位置
+     * @param end    标识符结束位置 (不含)
+     * @return 该标识符的符号 ID
+     */
+    public int intern(ByteBuffer source, int begin, int end) {
+        final var id = interner.intern(source, begin, end);
+        add(id);
+        return id;
+    }
+
+    /**
+     * 以符号 ID 在符号表中新增条目
+     *
+     * @param id 由 {@link #getInterner()} 分配的符号 ID
+     * @return 该符号在符号表中对应的新条目
+     */
+    public SymbolTableEntry add(int id) {
+        if (has(id)) {
             return new SymbolTableEntry("");
         }
-        symbolTable.put(text, new SymbolTableEntry(text));
-        return symbolTable.get(text);
+
+        if (id >= entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(id + 1, Math.max(16, entries.length * 2)));
+        }
+        entries[id] = new SymbolTableEntry(this, id);
+        root = insert(root, new SymbolNode(id, interner.prefix(id), priorityOf(id), null, epoch));
+        size++;
+        return entries[id];
+    }
+
+    /**
+     * 从符号表中删除条目, 用于增量词法分析中某个标识符在源文件里不再出现的情况
+     *
+     * @param text 待删除符号的文本表示
+     */
+    public void remove(String text) {
+        remove(interner.find(text));
+    }
+
+    /**
+     * 以符号 ID 从符号表中删除条目
+     *
+     * @param id 符号 ID
+     */
+    public void remove(int id) {
+        if (has(id)) {
+            entries[id] = null;
+            root = delete(root, id, interner.prefix(id));
+            size--;
+        }
     }
 
     /**
@@ -51,34 +136,227 @@ public class SymbolTable {
      * @return 该符号的条目是否位于符号表中
      */
     public boolean has(String text) {
-        return symbolTable.containsKey(text);
+        return has(interner.find(text));
+    }
+
+    /**
+     * 以符号 ID 判断符号表中有无条目
+     *
+     * @param id 符号 ID
+     * @return 该符号的条目是否位于符号表中
+     */
+    public boolean has(int id) {
+        return get(id) != null;
+    }
+
+    /**
+     * @return 符号表中的条目个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 将另一个符号表中的条目合并进此表, 已存在的条目保持不变
+     *
+     * @param other 另一个符号表, 如并行词法分析中各分块的符号表
+     * @return 下标为 other 的驻留表中的 ID, 值为同一符号在此表的驻留表中的 ID; 不在 other 中的符号对应 {@link SymbolInterner#NOT_FOUND}
+     */
+    public int[] merge(SymbolTable other) {
+        final var remap = new int[other.interner.size()];
+        Arrays.fill(remap, SymbolInterner.NOT_FOUND);
+        other.forEachEntry(entry -> {
+            final var id = interner.internFrom(other.interner, entry.getId());
+            remap[entry.getId()] = id;
+            if (!has(id)) {
+                add(id);
+                if (entry.getType() != null) {
+                    get(id).setType(entry.getType());
+                }
+            }
+        });
+        return remap;
     }
 
     /**
-     * 获得符号表的所有条目以供 {@code dumpTable} 使用
+     * 取得符号表当前内容的快照, 耗时 O(1)
+     * <br>
+     * 快照与符号表共享所有结点. 取快照后符号表进入新的版本, 之后的修改只会复制从根到被修改结点的路径, 不影响快照.
      *
-     * @return 符号表的所有条目
+     * @return 只读快照
      */
-    private Map<String, SymbolTableEntry> getAllEntries() {
-        return symbolTable;
+    public SymbolTableSnapshot snapshot() {
+        epoch++;
+        return new SymbolTableSnapshot(root, size, interner.view());
     }
 
     /**
-     * 将符号表按格式输出
+     * 将符号表按格式输出, 条目按文本的字典序排列
      *
      * @param path 输出文件路径
      */
     public void dumpTable(String path) {
-        final var entriesInOrder = new ArrayList<>(getAllEntries().values());
-        entriesInOrder.sort(Comparator.comparing(SymbolTableEntry::getText));
+        snapshot().dumpTable(path);
+    }
+
+    /**
+     * 条目的类型被修改时由 {@link SymbolTableEntry#trySetType} 调用, 以便将新类型写入树中
+     */
+    void typeChanged(SymbolTableEntry entry, SourceCodeType type) {
+        final var id = entry.getId();
+        if (get(id) == entry) {
+            root = update(root, id, interner.prefix(id), type);
+        }
+    }
+
+    /**
+     * 按 ID 顺序遍历所有条目
+     *
+     * @param action 对每个条目执行的操作
+     */
+    void forEachEntry(Consumer<SymbolTableEntry> action) {
+        for (final var entry : entries) {
+            if (entry != null) {
+                action.accept(entry);
+            }
+        }
+    }
+
+    /**
+     * 条目第一次读取文本时调用
+     *
+     * @param id 符号 ID
+     * @return 符号的文本
+     */
+    String nameOf(int id) {
+        return interner.name(id);
+    }
+
+    //==================== 以下为按文本排序的持久化树堆 ==============================//
+
+    private SymbolNode editable(SymbolNode node) {
+        return node.epoch == epoch ? node : node.copy(epoch);
+    }
+
+    private SymbolNode insert(SymbolNode node, SymbolNode fresh) {
+        if (node == null) {
+            return fresh;
+        }
 
-        final var lines = new ArrayList<String>();
-        for (final var entry : entriesInOrder) {
-            // null in %s will be "null"
-            lines.add("(%s, %s)".formatted(entry.getText(), entry.getType()));
+        if (fresh.priority > node.priority) {
+            final var parts = split(node, fresh.id, fresh.prefix);
+            fresh.left = parts[0];
+            fresh.right = parts[1];
+            return fresh;
         }
 
-        FileUtils.writeLines(path, lines);
+        node = editable(node);
+        if (compare(fresh.id, fresh.prefix, node) < 0) {
+            node.left = insert(node.left, fresh);
+        } else {
+            node.right = insert(node.right, fresh);
+        }
+        return node;
     }
+
+    /**
+     * @return 文本小于与大于给定符号的两棵子树
+     */
+    private SymbolNode[] split(SymbolNode node, int id, long prefix) {
+        if (node == null) {
+            return new SymbolNode[2];
+        }
+
+        node = editable(node);
+        if (compare(id, prefix, node) > 0) {
+            final var parts = split(node.right, id, prefix);
+            node.right = parts[0];
+            parts[0] = node;
+            return parts;
+        } else {
+            final var parts = split(node.left, id, prefix);
+            node.left = parts[1];
+            parts[1] = node;
+            return parts;
+        }
+    }
+
+    private SymbolNode delete(SymbolNode node, int id, long prefix) {
+        final var cmp = compare(id, prefix, node);
+        if (cmp == 0) {
+            return join(node.left, node.right);
+        }
+
+        node = editable(node);
+        if (cmp < 0) {
+            node.left = delete(node.left, id, prefix);
+        } else {
+            node.right = delete(node.right, id, prefix);
+        }
+        return node;
+    }
+
+    private SymbolNode join(SymbolNode lhs, SymbolNode rhs) {
+        if (lhs == null) {
+            return rhs;
+        }
+        if (rhs == null) {
+            return lhs;
+        }
+
+        if (lhs.priority > rhs.priority) {
+            lhs = editable(lhs);
+            lhs.right = join(lhs.right, rhs);
+            return lhs;
+        } else {
+            rhs = editable(rhs);
+            rhs.left = join(lhs, rhs.left);
+            return rhs;
+        }
+    }
+
+    private SymbolNode update(SymbolNode node, int id, long prefix, SourceCodeType type) {
+        node = editable(node);
+        final var cmp = compare(id, prefix, node);
+        if (cmp == 0) {
+            node.type = type;
+        } else if (cmp < 0) {
+            node.left = update(node.left, id, prefix, type);
+        } else {
+            node.right = update(node.right, id, prefix, type);
+        }
+        return node;
+    }
+
+    /**
+     * 先比较结点中缓存的前缀, 只有前缀相同时才访问驻留表比较完整的文本
+     */
+    private int compare(int id, long prefix, SymbolNode node) {
+        final var cmp = Long.compareUnsigned(prefix, node.prefix);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return id == node.id ? 0 : interner.compare(id, node.id);
+    }
+
+    /**
+     * 结点的优先级由符号 ID 散列得到, 因此树的形状只与符号集合有关
+     */
+    private static int priorityOf(int id) {
+        var hash = id * 0x9e3779b9;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    private final SymbolInterner interner;
+    // 以符号 ID 为下标, 用于 O(1) 的查找
+    private SymbolTableEntry[] entries = new SymbolTableEntry[0];
+    private int size = 0;
+
+    // 按文本排序的树堆, 用于有序遍历与快照
+    private SymbolNode root = null;
+    private long epoch = 0;
 }
 
@@ -1,5 +1,8 @@
 package cn.edu.hitsz.compiler.symtab;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * 符号表条目
  */
@@ -10,15 +13,40 @@ public class SymbolTableEntry {
     public SymbolTableEntry(String text) {
         this.text = text;
         this.type = null;
+        this.owner = null;
+        this.id = SymbolInterner.NOT_FOUND;
+    }
+
+    /**
+     * 由符号表创建的条目, 文本在第一次被读取时才从驻留表中取出, 类型的修改会同步到符号表中
+     *
+     * @param owner 所属的符号表
+     * @param id    符号 ID
+     */
+    SymbolTableEntry(SymbolTable owner, int id) {
+        this.text = null;
+        this.type = null;
+        this.owner = owner;
+        this.id = id;
     }
 
     /**
      * @return 符号的文本表示
      */
     public String getText() {
+        if (text == null && owner != null) {
+            text = owner.nameOf(id);
+        }
         return text;
     }
 
+    /**
+     * @return 符号 ID; 不是由符号表创建的条目返回 {@link SymbolInterner#NOT_FOUND}
+     */
+    public int getId() {
+        return id;
+    }
+
     /**
      * @return 该标识符符号可以绑定到的源语言对象的类型
      */
@@ -33,13 +61,40 @@ public class SymbolTableEntry {
      * @param type 该标识符符号可以绑定到的源语言对象的类型
      */
     public void setType(SourceCodeType type) {
-        if (this.type != null) {
+        if (!trySetType(type)) {
             throw new RuntimeException("Can NOT set type for an entry twice");
         }
+    }
+
+    /**
+     * 原子地设置类型, 先写者胜: 只有第一次调用会成功, 之后的调用不修改类型也不抛出异常. 供多个线程可能同时设置同一条目的场合使用
+     *
+     * @param type 该标识符符号可以绑定到的源语言对象的类型
+     * @return 本次调用是否设置了类型
+     */
+    public boolean trySetType(SourceCodeType type) {
+        if (!TYPE.compareAndSet(this, null, type)) {
+            return false;
+        }
+
+        if (owner != null) {
+            owner.typeChanged(this, type);
+        }
+        return true;
+    }
+
+    private static final VarHandle TYPE;
 
-        this.type = type;
+    static {
+        try {
+            TYPE = MethodHandles.lookup().findVarHandle(SymbolTableEntry.class, "type", SourceCodeType.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
     }
 
-    private final String text;
-    private SourceCodeType type;
+    private String text;
+    private volatile SourceCodeType type;
+    private final SymbolTable owner;
+    private final int id;
 }
@@ -0,0 +1,102 @@
+package cn.edu.hitsz.compiler.symtab;
+
+import cn.edu.hitsz.compiler.utils.FileUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 符号表在某一时刻的只读快照
+ * <br>
+ * 快照与符号表共享结构, 由 {@link SymbolTable#snapshot()} 在 O(1) 时间内取得. 之后符号表的任何修改都不会影响快照, 所以可以在
+ * 后台线程中输出快照, 同时在主线程中继续修改符号表. 遍历按符号文本的字典序进行, 不需要排序.
+ */
+public final class SymbolTableSnapshot implements Iterable<SymbolTableEntry> {
+    SymbolTableSnapshot(SymbolNode root, int size, SymbolInterner.View names) {
+        this.root = root;
+        this.size = size;
+        this.names = names;
+    }
+
+    /**
+     * @return 快照中的条目个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 按文本的字典序遍历所有条目. 得到的条目与符号表脱离, 修改它们不会影响符号表或快照
+     *
+     * @return 条目的迭代器
+     */
+    @Override
+    public Iterator<SymbolTableEntry> iterator() {
+        return new Iterator<>() {
+            private final ArrayDeque<SymbolNode> path = new ArrayDeque<>();
+
+            {
+                pushLeft(root);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public SymbolTableEntry next() {
+                if (path.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+
+                final var node = path.pop();
+                pushLeft(node.right);
+
+                final var entry = new SymbolTableEntry(names.name(node.id));
+                if (node.type != null) {
+                    entry.setType(node.type);
+                }
+                return entry;
+            }
+
+            private void pushLeft(SymbolNode node) {
+                for (; node != null; node = node.left) {
+                    path.push(node);
+                }
+            }
+        };
+    }
+
+    /**
+     * 将快照按格式输出, 格式与 {@link SymbolTable#dumpTable(String)} 相同
+     *
+     * @param path 输出文件路径
+     */
+    public void dumpTable(String path) {
+        final var lines = new ArrayList<String>(size);
+        for (final var entry : this) {
+            // null in %s will be "null"
+            lines.add("(%s, %s)".formatted(entry.getText(), entry.getType()));
+        }
+
+        FileUtils.writeLines(path, lines);
+    }
+
+    /**
+     * 在后台线程中输出快照
+     *
+     * @param path 输出文件路径
+     * @return 输出完成时结束的 future, 程序退出前应等待其完成
+     */
+    public CompletableFuture<Void> dumpTableAsync(String path) {
+        return CompletableFuture.runAsync(() -> dumpTable(path));
+    }
+
+    private final SymbolNode root;
+    private final int size;
+    private final SymbolInterner.View names;
+}
@@ -15,6 +15,11 @@ public final class FilePathConfig {
      */
     public static final String CODING_MAP_PATH = "data/in/coding_map.csv";
 
+    /**
+     * 词法规则, 用于生成词法分析的 DFA
+     */
+    public static final String LEXER_SPEC_PATH = "data/in/lexer_spec.txt";
+
     /**
      * 语法文件
      */
@@ -62,6 +67,11 @@ public final class FilePathConfig {
      */
     public static final String ASSEMBLY_LANGUAGE_PATH = "data/out/assembly_language.asm";
 
+    /**
+     * 编译后的 LR 分析表的二进制缓存
+     */
+    public static final String LR1_TABLE_CACHE_PATH = "data/out/LR1_table.bin";
+
     private FilePathConfig() {
     }
 }
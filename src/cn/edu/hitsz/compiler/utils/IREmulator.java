@@ -5,13 +5,14 @@ import cn.edu.hitsz.compiler.ir.IRValue;
 import cn.edu.hitsz.compiler.ir.IRVariable;
 import cn.edu.hitsz.compiler.ir.Instruction;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 /**
  * 用来模拟执行 IR 的类
+ * <br>
+ * 变量的值存放在以 {@link IRVariable#getId()} 为下标的数组中.
  */
 public class IREmulator {
     public static IREmulator load(List<Instruction> instructions) {
@@ -23,25 +24,25 @@ public class IREmulator {
             switch (instruction.getKind()) {
                 case MOV -> {
                     final var from = eval(instruction.getFrom());
-                    environment.put(instruction.getResult(), from);
+                    assign(instruction.getResult(), from);
                 }
 
                 case ADD -> {
                     final var lhs = eval(instruction.getLHS());
                     final var rhs = eval(instruction.getRHS());
-                    environment.put(instruction.getResult(), lhs + rhs);
+                    assign(instruction.getResult(), lhs + rhs);
                 }
 
                 case SUB -> {
                     final var lhs = eval(instruction.getLHS());
                     final var rhs = eval(instruction.getRHS());
-                    environment.put(instruction.getResult(), lhs - rhs);
+                    assign(instruction.getResult(), lhs - rhs);
                 }
 
                 case MUL -> {
                     final var lhs = eval(instruction.getLHS());
                     final var rhs = eval(instruction.getRHS());
-                    environment.put(instruction.getResult(), lhs * rhs);
+                    assign(instruction.getResult(), lhs * rhs);
                 }
 
                 case RET -> this.returnValue = eval(instruction.getReturnValue());
@@ -57,19 +58,28 @@ public class IREmulator {
         if (value instanceof IRImmediate immediate) {
             return immediate.getValue();
         } else if (value instanceof IRVariable variable) {
-            return environment.get(variable);
+            final var id = variable.getId();
+            return id < environment.length ? environment[id] : null;
         } else {
             throw new RuntimeException("Unknown IR value type");
         }
     }
 
+    private void assign(IRVariable variable, Integer value) {
+        final var id = variable.getId();
+        if (id >= environment.length) {
+            environment = Arrays.copyOf(environment, Math.max(id + 1, environment.length * 2));
+        }
+        environment[id] = value;
+    }
+
     private IREmulator(List<Instruction> instructions) {
         this.instructions = instructions;
-        this.environment = new HashMap<>();
+        this.environment = new Integer[0];
         this.returnValue = null;
     }
 
     private final List<Instruction> instructions;
-    private final Map<IRVariable, Integer> environment;
+    private Integer[] environment;
     private Integer returnValue;
 }